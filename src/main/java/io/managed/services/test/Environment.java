@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
@@ -78,6 +79,10 @@ public class Environment {
     private static final String DEFAULT_KAFKA_REGION_ENV = "DEFAULT_KAFKA_REGION";
     private static final String KAFKA_INSECURE_TLS_ENV = "KAFKA_INSECURE_TLS";
     private static final String KAFKA_INSTANCE_API_TEMPLATE_ENV = "KAFKA_INSTANCE_API_TEMPLATE";
+    private static final String KAFKA_POLL_CONSUMER_ENV = "KAFKA_POLL_CONSUMER";
+    private static final String KAFKA_CANARY_SOAK_DURATION_ENV = "KAFKA_CANARY_SOAK_DURATION";
+    private static final String KAFKA_COMPACTION_TIMEOUT_ENV = "KAFKA_COMPACTION_TIMEOUT";
+    private static final String KAFKA_PARTITION_SCALING_MAX_ENV = "KAFKA_PARTITION_SCALING_MAX";
 
     private static final String PROMETHEUS_PUSH_GATEWAY_ENV = "PROMETHEUS_PUSH_GATEWAY";
 
@@ -169,6 +174,20 @@ public class Environment {
     public static final boolean KAFKA_INSECURE_TLS = getOrDefault(KAFKA_INSECURE_TLS_ENV, Boolean::parseBoolean, false);
     public static final String KAFKA_INSTANCE_API_TEMPLATE = getOrDefault(KAFKA_INSTANCE_API_TEMPLATE_ENV, "https://admin-server-%s");
 
+    // Consume the messages in the Kafka messaging tests with the native poll loop consumer instead of the Vert.x consumer
+    public static final boolean KAFKA_POLL_CONSUMER = getOrDefault(KAFKA_POLL_CONSUMER_ENV, Boolean::parseBoolean, false);
+
+    // Run the canary of the long live Kafka instance for this ISO-8601 duration (e.g. PT30M) instead of along the other tests
+    public static final Duration KAFKA_CANARY_SOAK_DURATION = getOrDefault(KAFKA_CANARY_SOAK_DURATION_ENV, Duration::parse, Duration.ZERO);
+
+    // Wait up to this ISO-8601 duration (e.g. PT20M) for the compaction in the compacted topic test, the segments
+    // can't be rolled sooner than 10 minutes on the managed instances
+    public static final Duration KAFKA_COMPACTION_TIMEOUT = getOrDefault(KAFKA_COMPACTION_TIMEOUT_ENV, Duration::parse, Duration.ZERO);
+
+    // Grow the topic of the partition scaling test up to this number of partitions, or up to the partitions still
+    // available in the Kafka instance if they are less
+    public static final int KAFKA_PARTITION_SCALING_MAX = getOrDefault(KAFKA_PARTITION_SCALING_MAX_ENV, Integer::parseInt, 24);
+
     public static final String PROMETHEUS_PUSH_GATEWAY = getOrDefault(PROMETHEUS_PUSH_GATEWAY_ENV, null);
 
     public static final String STRATOSPHERE_PASSWORD = getOrDefault(STRATOSPHERE_PASSWORD_ENV, null);
@@ -2,6 +2,7 @@ package io.managed.services.test;
 
 import io.managed.services.test.wait.ReadyFunction;
 import io.managed.services.test.wait.TReadyFunction;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
@@ -27,8 +28,10 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
@@ -206,6 +209,36 @@ public class TestUtils {
             .compose(r -> forEach(iterator, action));
     }
 
+    /**
+     * Similar to {@link #forEach(Iterator, Function)} but it will process up to concurrency items at the same time,
+     * the iterator can be shared between multiple Vert.x contexts.
+     *
+     * @param iterator    Iterator
+     * @param concurrency Max number of actions running at the same time
+     * @param action      Lambda
+     * @param <T>         T
+     * @return a completed future once all actions complete or failed on the first Error
+     */
+    public static <T> Future<Void> forEach(Iterator<T> iterator, int concurrency, Function<T, Future<Void>> action) {
+        List<Future> workers = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, concurrency); i++) {
+            workers.add(forEachSynchronized(iterator, action));
+        }
+        return CompositeFuture.all(workers).mapEmpty();
+    }
+
+    private static <T> Future<Void> forEachSynchronized(Iterator<T> iterator, Function<T, Future<Void>> action) {
+        T next;
+        synchronized (iterator) {
+            if (!iterator.hasNext()) {
+                return Future.succeededFuture();
+            }
+            next = iterator.next();
+        }
+
+        return action.apply(next)
+            .compose(r -> forEachSynchronized(iterator, action));
+    }
 
     /**
      * Return a Future that will be completed after the passed duration.
@@ -0,0 +1,131 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteBufferDeserializer;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compare the transfer of large payloads split in chunks by the {@link PayloadChunker} with the transfer
+ * of the same bytes in single records of the largest size allowed by the instance message size limit.
+ * <p>
+ * Both transfers go through the same chunker and assembler, in the single record transfer each payload
+ * is exactly one chunk, so the difference is only the cost of splitting and reassembling the payloads.
+ * The transfer throughput is measured from the first send until the last payload has been reassembled.
+ */
+public class ChunkedTransferBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(ChunkedTransferBenchmark.class);
+
+    private static final String GROUP_ID = "chunked-transfer-benchmark";
+
+    // keep the chunks in flight well below the default producer buffer.memory of 32MB
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final KafkaConnectionSettings connection;
+
+    public ChunkedTransferBenchmark(KafkaConnectionSettings connection) {
+        this.connection = connection;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Point {
+        private final String mode;
+        private final int payloadSize;
+        private final long payloads;
+        private final long records;
+        private final double sendMegabytesPerSecond;
+        private final double transferMegabytesPerSecond;
+        private final long assembled;
+        private final long evicted;
+        private final long corrupted;
+        private final long maxBufferedBytes;
+
+        static final String CSV_HEADER = "mode,payload_size,payloads,records,send_megabytes_per_second,"
+            + "transfer_megabytes_per_second,assembled,evicted,corrupted,max_buffered_bytes";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%d,%.3f,%.3f,%d,%d,%d,%d",
+                mode, payloadSize, payloads, records, sendMegabytesPerSecond, transferMegabytesPerSecond,
+                assembled, evicted, corrupted, maxBufferedBytes);
+        }
+    }
+
+    /**
+     * Transfer the payloads in chunks and then the same bytes in single records.
+     *
+     * @param messageSizeLimit The instance message size limit
+     * @param payloadSize      The size of each chunked payload, usually a few times the limit
+     * @param payloads         The number of chunked payloads
+     * @param maxBufferedBytes The max bytes of the incomplete payloads buffered by the assembler
+     * @return the chunked and the single record points
+     */
+    public Future<List<Point>> run(String topicName, int messageSizeLimit, int payloadSize, long payloads, long maxBufferedBytes) {
+        var chunkSize = PayloadChunker.chunkSize(messageSizeLimit);
+        var singles = ((long) payloadSize * payloads + chunkSize - 1) / chunkSize;
+
+        return measure(topicName, "chunked", messageSizeLimit, payloadSize, payloads, maxBufferedBytes)
+            .compose(chunked -> measure(topicName, "single", messageSizeLimit, chunkSize, singles, maxBufferedBytes)
+                .map(single -> List.of(chunked, single)))
+            .onSuccess(points -> LOGGER.info("chunked transfer throughput is {} of the single record transfer throughput",
+                String.format(Locale.ROOT, "%.3f", points.get(0).transferMegabytesPerSecond / points.get(1).transferMegabytesPerSecond)));
+    }
+
+    private Future<Point> measure(String topicName, String mode, int messageSizeLimit, int payloadSize, long payloads, long maxBufferedBytes) {
+        var chunker = new PayloadChunker(PayloadChunker.chunkSize(messageSizeLimit));
+        var assembler = new PayloadAssembler(maxBufferedBytes);
+        var records = payloads * chunker.chunks(payloadSize);
+
+        var consumer = connection.consumer(GROUP_ID, "latest", StringDeserializer.class, ByteBufferDeserializer.class);
+
+        // the default max.request.size of 1MB is below the limit of some instances
+        var producer = connection.producer(
+            StringSerializer.class,
+            ByteBufferSerializer.class,
+            Map.of(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, String.valueOf(messageSizeLimit + 64 * 1024)));
+
+        LOGGER.info("transfer {} payloads of {} bytes in {} records to topic {}", payloads, payloadSize, records, topicName);
+        return consumer.resetToEnd(topicName)
+            .compose(__ -> consumer.subscribe(topicName))
+            .map(__ -> consumer.consumeMessages(records, assembler::accept))
+            .compose(received -> {
+                var start = System.nanoTime();
+                return producer.sendAsync(chunker.chunks(new PayloadGenerator(payloadSize, payloadSize).buffers(payloads)),
+                        chunker.toRecord(topicName),
+                        SendRate.unlimited().withMaxInFlight(MAX_IN_FLIGHT))
+                    .compose(stats -> received.map(___ -> {
+                        var elapsed = (System.nanoTime() - start) / 1e9;
+                        LOGGER.info("{} transfer; {}; {}", mode, stats, assembler);
+                        return new Point(mode,
+                            payloadSize,
+                            payloads,
+                            records,
+                            stats.bytesPerSecond() / 1_000_000,
+                            (double) payloadSize * payloads / elapsed / 1_000_000,
+                            assembler.assembled(),
+                            assembler.evicted(),
+                            assembler.corrupted(),
+                            assembler.maxBufferedBytes());
+                    }));
+            })
+            .eventually(__ -> CompositeFuture.join(producer.asyncClose(), consumer.asyncClose()))
+            .onSuccess(p -> LOGGER.info("chunked transfer {}", p.toCsv()));
+    }
+
+    public static Path writeReport(String name, List<Point> points) throws IOException {
+        return Reports.write(name, Point.CSV_HEADER, points, Point::toCsv);
+    }
+}
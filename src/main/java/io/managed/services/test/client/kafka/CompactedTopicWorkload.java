@@ -0,0 +1,365 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.common.TopicPartition;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.managed.services.test.TestUtils.message;
+
+/**
+ * Write keyed updates over a large key space to a compacted topic and read the log back to verify that
+ * the compaction always keeps the last value of each key.
+ * <p>
+ * Each update carries a global sequence number in its headers. The expected last sequence of each key is
+ * tracked in a {@link LongLongHashMap} from the 64-bit hash of the key, so the verifier costs 21 to 43 bytes
+ * per key and can track tens of millions of keys. The producer is idempotent so that the updates of a key
+ * are written in the order of their sequence.
+ * <p>
+ * The log is read back from the beginning until the end offsets taken when the read starts. Each record is
+ * either the last value of its key, a stale value not compacted yet, or unexpected. While a compaction timeout
+ * is given the log is read back every interval until it holds fewer records than the updates written
+ * in each partition, which is the compaction lag. A record is sent to a dedicated key in each partition before
+ * each read back because the active segment of a partition is only rolled, and so becomes cleanable, on its first
+ * append after the topic segment.ms. The read backs share a consumer group that never commits its offsets, so they
+ * always start from the beginning and leave no offsets behind.
+ */
+public class CompactedTopicWorkload {
+    private static final Logger LOGGER = LogManager.getLogger(CompactedTopicWorkload.class);
+
+    public static final String SEQUENCE_HEADER = "compact-seq";
+
+    private static final String KEY_PREFIX = "key-";
+    private static final String ROLL_KEY = "roll";
+    private static final String READ_BACK_GROUP_ID = "compacted-topic-workload";
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+
+    public CompactedTopicWorkload(KafkaConnectionSettings connection) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final long keys;
+        private final long updates;
+        private final long distinctKeys;
+        private final double sendMessagesPerSecond;
+        private final long compactionLagMillis;
+        private final int readBacks;
+        private final long records;
+        private final long stale;
+        private final long missing;
+        private final long unexpected;
+        private final long duplicated;
+        private final double readMessagesPerSecond;
+        private final double readMegabytesPerSecond;
+        private final long verifierBytes;
+
+        /**
+         * @return true if the log has been compacted before the timeout
+         */
+        public boolean isCompacted() {
+            return compactionLagMillis >= 0;
+        }
+
+        static final String CSV_HEADER = "keys,updates,distinct_keys,send_messages_per_second,compaction_lag_ms,read_backs,"
+            + "records,stale,missing,unexpected,duplicated,read_messages_per_second,read_megabytes_per_second,verifier_bytes";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%.1f,%.3f,%d",
+                keys, updates, distinctKeys, sendMessagesPerSecond, compactionLagMillis, readBacks, records, stale,
+                missing, unexpected, duplicated, readMessagesPerSecond, readMegabytesPerSecond, verifierBytes);
+        }
+    }
+
+    /**
+     * The records found by a read back of the log.
+     */
+    private static class ReadBack {
+        private final long[] partitionRecords;
+        private int number;
+        private long startedAt;
+        private long records;
+        private long bytes;
+        private long latest;
+        private long stale;
+        private long unexpected;
+        private long duplicated;
+        private long missing;
+        private long elapsedNanos;
+        private boolean compacted;
+
+        ReadBack(int partitions) {
+            this.partitionRecords = new long[partitions];
+        }
+
+        /**
+         * @return true if each partition holds fewer records than the updates written to it
+         */
+        private boolean isCompacted(long[] written) {
+            for (int p = 0; p < written.length; p++) {
+                if (written[p] > 0 && partitionRecords[p] >= written[p]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read back %d; records: %d; latest: %d; stale: %d; missing: %d; unexpected: %d; duplicated: %d; elapsed: %s",
+                number, records, latest, stale, missing, unexpected, duplicated, Duration.ofNanos(elapsedNanos));
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos > 0 ? count / (elapsedNanos / 1e9) : 0;
+        }
+    }
+
+    /**
+     * @return the FNV-1a 64-bit hash of the key
+     */
+    static long hash(String key) {
+        var hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Write the updates, wait for the compaction and verify the log read back.
+     *
+     * @param keys              The size of the key space, each update goes to a random key
+     * @param updates           The number of updates
+     * @param messageSize       The size of each value
+     * @param compactionTimeout How long to wait for the compaction, zero to read the log back only once
+     * @param checkInterval     The time between two read backs while waiting for the compaction
+     * @return the result or an AssertionError if the last value of a key is missing, duplicated or older than a value
+     * read back, or if a value that has never been written is read back
+     */
+    public Future<Result> run(String topicName, int keys, long updates, int messageSize, Duration compactionTimeout, Duration checkInterval) {
+        var expected = new LongLongHashMap((int) Math.min(keys, updates));
+
+        var producer = connection.producer(
+            StringSerializer.class,
+            StringSerializer.class,
+            Map.of(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true"));
+
+        var random = new SplittableRandom();
+        var sequence = new long[] {0};
+
+        LOGGER.info("write {} updates over {} keys to topic {}", updates, keys, topicName);
+        return producer.partitionsFor(topicName)
+            .compose(partitions -> {
+                // the updates acknowledged by each partition
+                var written = new long[partitions.size()];
+                return producer.sendAsync(new PayloadGenerator(messageSize, messageSize).strings(updates), value -> {
+                        var key = KEY_PREFIX + random.nextInt(keys);
+                        var seq = sequence[0]++;
+                        expected.put(hash(key), seq);
+                        return KafkaProducerRecord.create(topicName, key, value)
+                            .addHeader(SEQUENCE_HEADER, Buffer.buffer(Long.BYTES).appendLong(seq));
+                    }, SendRate.unlimited(), (record, metadata) -> written[metadata.getPartition()]++)
+                    .map(stats -> Map.entry(stats, written));
+            })
+            .compose(sent -> {
+                var stats = sent.getKey();
+                LOGGER.info("wrote {} updates to {} distinct keys; verifier table: {} bytes", updates, expected.size(), expected.tableBytes());
+                var writtenAt = System.nanoTime();
+                return awaitCompaction(producer, topicName, expected, sent.getValue(), writtenAt, compactionTimeout, checkInterval, 1)
+                    .map(last -> new Result(keys,
+                        updates,
+                        expected.size(),
+                        stats.messagesPerSecond(),
+                        last.compacted ? Duration.ofNanos(last.startedAt - writtenAt).toMillis() : -1,
+                        last.number,
+                        last.records,
+                        last.stale,
+                        last.missing,
+                        last.unexpected,
+                        last.duplicated,
+                        last.perSecond(last.records),
+                        last.perSecond(last.bytes) / 1_000_000,
+                        expected.tableBytes()));
+            })
+            .eventually(__ -> producer.asyncClose())
+            .compose(CompactedTopicWorkload::verify)
+            .onSuccess(r -> LOGGER.info("compacted topic workload {}", r.toCsv()));
+    }
+
+    private Future<ReadBack> awaitCompaction(
+        KafkaProducerClient<String, String> producer,
+        String topicName,
+        LongLongHashMap expected,
+        long[] written,
+        long writtenAt,
+        Duration compactionTimeout,
+        Duration checkInterval,
+        int readBacks) {
+
+        return readBack(topicName, expected, written.length).compose(readBack -> {
+            readBack.number = readBacks;
+            readBack.compacted = readBack.isCompacted(written);
+            LOGGER.info("topic {} {}", topicName, readBack);
+            var waited = Duration.ofNanos(System.nanoTime() - writtenAt);
+            if (readBack.compacted || waited.compareTo(compactionTimeout) >= 0) {
+                return Future.succeededFuture(readBack);
+            }
+
+            Promise<Void> interval = Promise.promise();
+            vertx.setTimer(checkInterval.toMillis(), __ -> interval.complete());
+            return interval.future()
+                .compose(__ -> roll(producer, topicName, written.length))
+                .compose(__ -> awaitCompaction(producer, topicName, expected, written, writtenAt, compactionTimeout, checkInterval, readBacks + 1));
+        });
+    }
+
+    /**
+     * Append a record to the dedicated key of each partition so that their active segments can be rolled.
+     */
+    private static Future<Void> roll(KafkaProducerClient<String, String> producer, String topicName, int partitions) {
+        List<Future> sent = IntStream.range(0, partitions)
+            .mapToObj(p -> producer.send(KafkaProducerRecord.create(topicName, ROLL_KEY, "roll", null, p)))
+            .collect(Collectors.toList());
+        return CompositeFuture.all(sent).mapEmpty();
+    }
+
+    /**
+     * Read the topic from the beginning until the end offsets taken before starting and check each record
+     * against the expected last sequence of its key.
+     */
+    private Future<ReadBack> readBack(String topicName, LongLongHashMap expected, int partitionCount) {
+        var consumer = connection.consumer(
+            READ_BACK_GROUP_ID,
+            "earliest",
+            StringDeserializer.class,
+            StringDeserializer.class,
+            Map.of(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false"));
+
+        var readBack = new ReadBack(partitionCount);
+        readBack.startedAt = System.nanoTime();
+        Promise<ReadBack> done = Promise.promise();
+
+        return consumer.consumer.partitionsFor(topicName)
+            .map(partitions -> partitions.stream().map(p -> new TopicPartition(p.getTopic(), p.getPartition())).collect(Collectors.toSet()))
+            .compose(partitions -> CompositeFuture.all(consumer.consumer.beginningOffsets(partitions), consumer.consumer.endOffsets(partitions)))
+            .compose(offsets -> {
+                Map<TopicPartition, Long> beginnings = offsets.resultAt(0);
+                Map<TopicPartition, Long> ends = offsets.resultAt(1);
+
+                // the partitions with records to read
+                var pending = new HashSet<TopicPartition>();
+                ends.forEach((tp, end) -> {
+                    if (end > beginnings.getOrDefault(tp, 0L)) {
+                        pending.add(tp);
+                    }
+                });
+                if (pending.isEmpty()) {
+                    done.complete(readBack);
+                }
+
+                consumer.consumer.exceptionHandler(done::tryFail);
+                consumer.handler(record -> {
+                    if (done.future().isComplete()) {
+                        return;
+                    }
+                    check(record, expected, readBack);
+
+                    var tp = new TopicPartition(record.topic(), record.partition());
+                    if (record.offset() >= ends.get(tp) - 1 && pending.remove(tp) && pending.isEmpty()) {
+                        readBack.elapsedNanos = System.nanoTime() - readBack.startedAt;
+                        readBack.missing = expected.size() - readBack.latest;
+                        done.complete(readBack);
+                    }
+                });
+                return consumer.subscribe(topicName);
+            })
+            .compose(__ -> done.future())
+            .onComplete(__ -> expected.replaceAll(v -> v < 0 ? ~v : v))
+            .eventually(__ -> consumer.asyncClose());
+    }
+
+    /**
+     * The last sequence of a key is marked as read back by storing its complement in the map,
+     * the marks are cleared at the end of each read back.
+     */
+    private static void check(KafkaConsumerRecord<String, String> record, LongLongHashMap expected, ReadBack readBack) {
+        if (ROLL_KEY.equals(record.key())) {
+            return;
+        }
+        readBack.records++;
+        readBack.partitionRecords[record.partition()]++;
+        readBack.bytes += record.value() == null ? 0 : record.value().length();
+
+        long sequence = -1;
+        for (var header : record.headers()) {
+            if (SEQUENCE_HEADER.equals(header.key())) {
+                sequence = header.value().getLong(0);
+            }
+        }
+
+        var hash = hash(record.key());
+        var last = expected.get(hash);
+        if (sequence < 0 || last == LongLongHashMap.NO_VALUE) {
+            readBack.unexpected++;
+        } else if (last < 0) {
+            // the last value of the key has already been read back
+            if (sequence == ~last) {
+                readBack.duplicated++;
+            } else if (sequence < ~last) {
+                readBack.stale++;
+            } else {
+                readBack.unexpected++;
+            }
+        } else if (sequence == last) {
+            readBack.latest++;
+            expected.put(hash, ~last);
+        } else if (sequence < last) {
+            readBack.stale++;
+        } else {
+            readBack.unexpected++;
+        }
+    }
+
+    private static Future<Result> verify(Result result) {
+        if (result.missing == 0 && result.unexpected == 0 && result.duplicated == 0) {
+            return Future.succeededFuture(result);
+        }
+        return Future.failedFuture(new AssertionError(message(
+            "compacted topic verification failed; distinct keys: {}, records: {}, missing: {}, unexpected: {}, duplicated: {}",
+            result.distinctKeys, result.records, result.missing, result.unexpected, result.duplicated)));
+    }
+
+    public static Path writeReport(String name, Result result) throws IOException {
+        return Reports.write(name, Result.CSV_HEADER, List.of(result), Result::toCsv);
+    }
+}
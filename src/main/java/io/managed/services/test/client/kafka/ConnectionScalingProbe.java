@@ -0,0 +1,486 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.strimzi.kafka.oauth.client.JaasClientOauthLoginCallbackHandler;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.config.SaslConfigs;
+import org.apache.kafka.common.config.types.Password;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.SaslAuthenticateRequestData;
+import org.apache.kafka.common.message.SaslHandshakeRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.RequestUtils;
+import org.apache.kafka.common.requests.ResponseHeader;
+import org.apache.kafka.common.requests.SaslAuthenticateResponse;
+import org.apache.kafka.common.requests.SaslHandshakeResponse;
+import org.apache.kafka.common.security.JaasContext;
+import org.apache.kafka.common.security.oauthbearer.OAuthBearerTokenCallback;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.security.auth.callback.Callback;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open client connections to the Kafka bootstrap host in ramps of increasing connection rate to find the
+ * connection creation rate and the number of connections that the instance accepts.
+ * <p>
+ * Each connection goes through the same phases of a Kafka client connection and each phase is timed
+ * separately: the DNS resolution, the TCP connect, the TLS handshake and the SASL handshake and authenticate
+ * requests with the mechanism and the credentials of the {@link KafkaAuthMethod#configs}. The connections are
+ * plain Vert.x sockets on the shared event loops, so thousands of them don't need thousands of Kafka client
+ * threads, and they are kept open until the end of the probe so that the connection limit is reached too.
+ * <p>
+ * The broker connection-rate quota doesn't reject the connections but delays their accept, so the throttling
+ * shows up as a growing TCP and TLS latency and as an achieved rate below the target rate, while the connection
+ * limit shows up as failures. The sustainable rate is the highest target rate that has been achieved without failures.
+ * <p>
+ * The OAuth token is fetched once through the same login callback handler used by the Kafka clients and
+ * reused by all connections, so the token endpoint is not part of the measure. The DNS resolution goes through
+ * the JVM resolver and its cache, like for the Kafka clients.
+ */
+public class ConnectionScalingProbe {
+    private static final Logger LOGGER = LogManager.getLogger(ConnectionScalingProbe.class);
+
+    private static final String CLIENT_ID = "connection-scaling-probe";
+    private static final short SASL_HANDSHAKE_VERSION = 1;
+    private static final short SASL_AUTHENTICATE_VERSION = 1;
+    private static final long TICK_MILLIS = 10;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    // a step is sustainable if all connections succeed at 90% or more of the target rate
+    private static final double SUSTAINABLE_RATIO = 0.9;
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+
+    public ConnectionScalingProbe(KafkaConnectionSettings connection) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Point {
+        private final int step;
+        private final double targetRate;
+        private final long attempted;
+        private final long established;
+        private final double achievedRate;
+        private final long openConnections;
+        private final long dnsFailures;
+        private final long tcpFailures;
+        private final long tlsFailures;
+        private final long saslFailures;
+        private final long throttled;
+        private final long dnsP99Micros;
+        private final long tcpP99Micros;
+        private final long tlsP99Micros;
+        private final long saslP99Micros;
+        private final long setupP50Micros;
+        private final long setupP99Micros;
+        private final long setupMaxMicros;
+
+        static final String CSV_HEADER = "step,target_rate,attempted,established,achieved_rate,open_connections,"
+            + "dns_failures,tcp_failures,tls_failures,sasl_failures,throttled,dns_p99_micros,tcp_p99_micros,"
+            + "tls_p99_micros,sasl_p99_micros,setup_p50_micros,setup_p99_micros,setup_max_micros";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%.1f,%d,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+                step, targetRate, attempted, established, achievedRate, openConnections,
+                dnsFailures, tcpFailures, tlsFailures, saslFailures, throttled, dnsP99Micros, tcpP99Micros,
+                tlsP99Micros, saslP99Micros, setupP50Micros, setupP99Micros, setupMaxMicros);
+        }
+
+        public long failures() {
+            return dnsFailures + tcpFailures + tlsFailures + saslFailures;
+        }
+
+        public boolean isSustainable() {
+            return failures() == 0 && achievedRate >= targetRate * SUSTAINABLE_RATIO;
+        }
+    }
+
+    private enum Phase {
+        DNS, TCP, TLS, SASL
+    }
+
+    /**
+     * The phases of the connections opened in a step.
+     */
+    private static class Step {
+        private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+        private final long[] failures = new long[Phase.values().length];
+        private final LatencyHistogram setup = new LatencyHistogram();
+        private long attempted;
+        private long established;
+        private long throttled;
+        private long pending;
+        private boolean scheduled;
+        private long startNanos;
+        private long endNanos;
+        private final Promise<Step> done = Promise.promise();
+
+        Step() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * Open the connections at each target rate for the step duration, keeping all established connections open,
+     * and stop at the first step where most connections fail or when the max connections have been attempted.
+     *
+     * @param rates          The target connection rates in connections per second of each step
+     * @param stepDuration   How long each step opens connections at its target rate
+     * @param maxConnections The max number of connections to attempt in the whole probe
+     * @return a point for each executed step
+     */
+    public Future<List<Point>> run(List<Double> rates, Duration stepDuration, long maxConnections) {
+        var bootstrapHost = connection.getBootstrapHost();
+        var separator = bootstrapHost.lastIndexOf(':');
+        var host = bootstrapHost.substring(0, separator);
+        var port = Integer.parseInt(bootstrapHost.substring(separator + 1));
+
+        var options = new NetClientOptions()
+            .setConnectTimeout((int) TIMEOUT.toMillis())
+            .setSslHandshakeTimeout(TIMEOUT.toMillis())
+            .setSslHandshakeTimeoutUnit(TimeUnit.MILLISECONDS)
+            .setTrustAll(Environment.KAFKA_INSECURE_TLS)
+            .setHostnameVerificationAlgorithm(Environment.KAFKA_INSECURE_TLS ? "" : "HTTPS");
+        var client = vertx.createNetClient(options);
+        var sockets = new LinkedHashSet<NetSocket>();
+        var points = new ArrayList<Point>();
+
+        return saslCredentials()
+            .compose(credentials -> {
+                Future<Void> steps = Future.succeededFuture();
+                for (int i = 0; i < rates.size(); i++) {
+                    var index = i;
+                    steps = steps.compose(__ -> {
+                        var previous = points.isEmpty() ? null : points.get(points.size() - 1);
+                        var attempted = points.stream().mapToLong(Point::getAttempted).sum();
+                        if (previous != null && previous.failures() * 2 > previous.attempted || attempted >= maxConnections) {
+                            return Future.succeededFuture();
+                        }
+                        var connections = (long) Math.min(maxConnections - attempted, Math.ceil(rates.get(index) * stepDuration.toMillis() / 1000d));
+                        return step(client, host, port, credentials, rates.get(index), connections, sockets)
+                            .onSuccess(step -> points.add(point(index, rates.get(index), step, sockets.size())))
+                            .mapEmpty();
+                    });
+                }
+                return steps;
+            })
+            .map(__ -> (List<Point>) points)
+            .onSuccess(p -> LOGGER.info("sustainable connection rate: {} connections/s; open connections: {}", sustainableRate(p), sockets.size()))
+            .eventually(__ -> {
+                LOGGER.info("close {} connections", sockets.size());
+                sockets.forEach(NetSocket::close);
+                return client.close();
+            });
+    }
+
+    /**
+     * @return the highest target rate at which all connections succeeded without falling behind, or 0
+     */
+    public static double sustainableRate(List<Point> points) {
+        return points.stream().filter(Point::isSustainable).mapToDouble(Point::getTargetRate).max().orElse(0);
+    }
+
+    private static Point point(int index, double rate, Step step, long open) {
+        return new Point(index,
+            rate,
+            step.attempted,
+            step.established,
+            step.established * 1_000_000_000d / Math.max(1, step.endNanos - step.startNanos),
+            open,
+            step.failures[Phase.DNS.ordinal()],
+            step.failures[Phase.TCP.ordinal()],
+            step.failures[Phase.TLS.ordinal()],
+            step.failures[Phase.SASL.ordinal()],
+            step.throttled,
+            step.phases[Phase.DNS.ordinal()].percentile(99),
+            step.phases[Phase.TCP.ordinal()].percentile(99),
+            step.phases[Phase.TLS.ordinal()].percentile(99),
+            step.phases[Phase.SASL.ordinal()].percentile(99),
+            step.setup.percentile(50),
+            step.setup.percentile(99),
+            step.setup.max());
+    }
+
+    /**
+     * Open the connections at the given rate from a timer and wait for all of them to be established or failed.
+     */
+    private Future<Step> step(NetClient client, String host, int port, SaslCredentials credentials, double rate, long connections, Set<NetSocket> sockets) {
+        var step = new Step();
+        var context = vertx.getOrCreateContext();
+
+        LOGGER.info("open {} connections at {} connections/s", connections, rate);
+        context.runOnContext(__ -> {
+            step.startNanos = System.nanoTime();
+            vertx.setPeriodic(TICK_MILLIS, timer -> {
+                var due = Math.min(connections, (long) ((System.nanoTime() - step.startNanos) / 1e9 * rate) + 1);
+                while (step.attempted < due) {
+                    step.attempted++;
+                    step.pending++;
+                    connect(client, host, port, credentials, step, sockets);
+                }
+                if (step.attempted == connections) {
+                    vertx.cancelTimer(timer);
+                    step.scheduled = true;
+                    if (step.pending == 0) {
+                        complete(step);
+                    }
+                }
+            });
+        });
+
+        return step.done.future()
+            .onSuccess(s -> LOGGER.info("established {} of {} connections at {} connections/s; setup latency: {}",
+                s.established, s.attempted, rate, s.setup));
+    }
+
+    private static void complete(Step step) {
+        step.endNanos = System.nanoTime();
+        step.done.complete(step);
+    }
+
+    /**
+     * Open a connection timing each phase, the handlers are all executed on the step context.
+     */
+    private void connect(NetClient client, String host, int port, SaslCredentials credentials, Step step, Set<NetSocket> sockets) {
+        var phase = new Phase[] {Phase.DNS};
+        var socket = new NetSocket[1];
+        var start = System.nanoTime();
+        var last = new long[] {start};
+        Runnable lap = () -> {
+            var now = System.nanoTime();
+            step.phases[phase[0].ordinal()].record((now - last[0]) / 1_000);
+            last[0] = now;
+        };
+
+        vertx.<InetAddress>executeBlocking(p -> {
+            try {
+                p.complete(InetAddress.getByName(host));
+            } catch (IOException e) {
+                p.fail(e);
+            }
+        }, false)
+            .compose(address -> {
+                lap.run();
+                phase[0] = Phase.TCP;
+                return client.connect(port, address.getHostAddress());
+            })
+            .compose(s -> {
+                lap.run();
+                phase[0] = Phase.TLS;
+                socket[0] = s;
+                sockets.add(s);
+                s.closeHandler(__ -> sockets.remove(s));
+                return s.upgradeToSsl(host);
+            })
+            .compose(__ -> {
+                lap.run();
+                phase[0] = Phase.SASL;
+                return authenticate(socket[0], credentials, step);
+            })
+            .onComplete(r -> {
+                step.pending--;
+                if (r.succeeded()) {
+                    lap.run();
+                    step.setup.record((System.nanoTime() - start) / 1_000);
+                    step.established++;
+                    socket[0].closeHandler(__ -> sockets.remove(socket[0]));
+                } else {
+                    step.failures[phase[0].ordinal()]++;
+                    if (socket[0] != null) {
+                        sockets.remove(socket[0]);
+                        socket[0].close();
+                    }
+                    LOGGER.debug("connection failed in the {} phase", phase[0], r.cause());
+                }
+                if (step.scheduled && step.pending == 0) {
+                    complete(step);
+                }
+            });
+    }
+
+    /**
+     * Send the SASL handshake and authenticate requests and fail if the broker rejects them.
+     */
+    private Future<Void> authenticate(NetSocket socket, SaslCredentials credentials, Step step) {
+        var exchange = new Exchange(vertx, socket);
+
+        return exchange.request(ApiKeys.SASL_HANDSHAKE, SASL_HANDSHAKE_VERSION, new SaslHandshakeRequestData().setMechanism(credentials.mechanism))
+            .compose(buffer -> {
+                var response = SaslHandshakeResponse.parse(buffer, SASL_HANDSHAKE_VERSION);
+                if (response.error() != Errors.NONE) {
+                    return Future.failedFuture(response.error().exception());
+                }
+                return exchange.request(ApiKeys.SASL_AUTHENTICATE, SASL_AUTHENTICATE_VERSION, new SaslAuthenticateRequestData().setAuthBytes(credentials.authBytes));
+            })
+            .compose(buffer -> {
+                var response = SaslAuthenticateResponse.parse(buffer, SASL_AUTHENTICATE_VERSION);
+                if (response.throttleTimeMs() > 0) {
+                    step.throttled++;
+                }
+                if (response.error() != Errors.NONE) {
+                    return Future.failedFuture(response.error().exception(response.errorMessage()));
+                }
+                return Future.succeededFuture();
+            });
+    }
+
+    /**
+     * The SASL mechanism and the authenticate bytes shared by all connections.
+     */
+    private static class SaslCredentials {
+        private final String mechanism;
+        private final byte[] authBytes;
+
+        SaslCredentials(String mechanism, byte[] authBytes) {
+            this.mechanism = mechanism;
+            this.authBytes = authBytes;
+        }
+    }
+
+    /**
+     * Request/response exchange over a socket using the Kafka size delimited frames, a request fails if the
+     * broker doesn't answer within the {@link #TIMEOUT}.
+     */
+    private static class Exchange {
+        private final Vertx vertx;
+        private final NetSocket socket;
+        private final AtomicInteger correlationID = new AtomicInteger();
+        private Promise<Buffer> pending;
+
+        Exchange(Vertx vertx, NetSocket socket) {
+            this.vertx = vertx;
+            this.socket = socket;
+
+            var parser = RecordParser.newFixed(Integer.BYTES);
+            parser.handler(new Handler<>() {
+                private boolean size = true;
+
+                @Override
+                public void handle(Buffer frame) {
+                    if (size) {
+                        parser.fixedSizeMode(frame.getInt(0));
+                    } else {
+                        parser.fixedSizeMode(Integer.BYTES);
+                        if (pending != null) {
+                            pending.tryComplete(frame);
+                        }
+                    }
+                    size = !size;
+                }
+            });
+            socket.handler(parser);
+            socket.exceptionHandler(e -> fail(e));
+            socket.closeHandler(__ -> fail(new IOException("connection closed by the broker")));
+        }
+
+        private void fail(Throwable e) {
+            if (pending != null) {
+                pending.tryFail(e);
+            }
+        }
+
+        /**
+         * @return the response body after the response header
+         */
+        Future<ByteBuffer> request(ApiKeys key, short version, ApiMessage body) {
+            var header = new RequestHeaderData()
+                .setRequestApiKey(key.id)
+                .setRequestApiVersion(version)
+                .setClientId(CLIENT_ID)
+                .setCorrelationId(correlationID.incrementAndGet());
+            var bytes = RequestUtils.serialize(header, key.requestHeaderVersion(version), body, version);
+            var frame = Buffer.buffer(Integer.BYTES + bytes.remaining()).appendInt(bytes.remaining()).appendBytes(toArray(bytes));
+
+            var promise = Promise.<Buffer>promise();
+            var timer = vertx.setTimer(TIMEOUT.toMillis(), __ -> promise.tryFail(
+                new TimeoutException(String.format("no %s response after %s", key, TIMEOUT))));
+            pending = promise;
+            socket.write(frame);
+            return promise.future().onComplete(__ -> vertx.cancelTimer(timer)).map(response -> {
+                var buffer = ByteBuffer.wrap(response.getBytes());
+                ResponseHeader.parse(buffer, key.responseHeaderVersion(version));
+                return buffer;
+            });
+        }
+
+        private static byte[] toArray(ByteBuffer buffer) {
+            var bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the mechanism of the auth method and its SASL authenticate bytes
+     */
+    private Future<SaslCredentials> saslCredentials() {
+        var clientID = connection.getClientID();
+        var clientSecret = connection.getClientSecret();
+        var configs = connection.getAuthMethod().configs(connection.getBootstrapHost(), clientID, clientSecret);
+        var mechanism = configs.get(SaslConfigs.SASL_MECHANISM);
+
+        if ("PLAIN".equals(mechanism)) {
+            return Future.succeededFuture(new SaslCredentials(mechanism, ("\0" + clientID + "\0" + clientSecret).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return vertx.<byte[]>executeBlocking(p -> {
+            var start = System.nanoTime();
+
+            // the JaasContext expects the password type for the jaas config
+            var jaasConfigs = new HashMap<String, Object>(configs);
+            jaasConfigs.put(SaslConfigs.SASL_JAAS_CONFIG, new Password(configs.get(SaslConfigs.SASL_JAAS_CONFIG)));
+            var jaas = JaasContext.loadClientContext(jaasConfigs);
+
+            var handler = new JaasClientOauthLoginCallbackHandler();
+            try {
+                handler.configure(jaasConfigs, mechanism, jaas.configurationEntries());
+                var callback = new OAuthBearerTokenCallback();
+                handler.handle(new Callback[] {callback});
+                LOGGER.info("fetched the OAuth token in {}ms", (System.nanoTime() - start) / 1_000_000);
+                p.complete(("n,,\u0001auth=Bearer " + callback.token().value() + "\u0001\u0001").getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                p.fail(e);
+            } finally {
+                handler.close();
+            }
+        }).map(authBytes -> new SaslCredentials(mechanism, authBytes));
+    }
+
+    public static Path writeReport(String name, List<Point> points) throws IOException {
+        return Reports.write(name, Point.CSV_HEADER, points, Point::toCsv);
+    }
+}
@@ -0,0 +1,343 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.prometheus.client.Gauge;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.apache.kafka.clients.admin.ConsumerGroupListing;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Sample in background the lag of every consumer group of the instance on every partition with committed offsets.
+ * <p>
+ * Each sample lists the groups, fetches the committed offsets of all groups at the same time and then the end
+ * offsets of all their partitions with a single list offsets call. The committed and end offsets are kept in a
+ * bounded time series for each group partition and for each group in total, from which the lag, the consume rate,
+ * the produce rate and the estimated time for the consumers to catch up are computed over the retained samples
+ * and exposed as Prometheus gauges in the default registry. The series and gauges of the groups and partitions
+ * that are no longer listed are removed at each sample.
+ */
+public class ConsumerLagSampler implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(ConsumerLagSampler.class);
+
+    static final Gauge LAG = Gauge.build()
+        .name("kafka_consumer_group_lag")
+        .labelNames("launch", "group", "topic", "partition")
+        .help("Consumer group lag in messages.")
+        .register();
+
+    static final Gauge CONSUME_RATE = Gauge.build()
+        .name("kafka_consumer_group_consume_rate")
+        .labelNames("launch", "group", "topic", "partition")
+        .help("Consumer group committed messages per second.")
+        .register();
+
+    static final Gauge CATCH_UP = Gauge.build()
+        .name("kafka_consumer_group_catch_up_seconds")
+        .labelNames("launch", "group", "topic", "partition")
+        .help("Estimated seconds for the consumer group to consume its lag, +Inf if the lag is not decreasing.")
+        .register();
+
+    private static final String ALL = "all";
+
+    private final Vertx vertx;
+    private final KafkaAdmin admin;
+    private final Duration interval;
+    private final int capacity;
+    private final AtomicBoolean sampling = new AtomicBoolean();
+
+    private final Map<String, Map<TopicPartition, LagSeries>> partitions = new HashMap<>();
+    private final Map<String, LagSeries> groups = new HashMap<>();
+    private long timer = -1;
+
+    /**
+     * @param connection The connection used to create the admin that samples the offsets, which is closed with the sampler
+     * @param interval   The time between two samples
+     * @param capacity   The number of samples retained for each group and partition
+     */
+    public ConsumerLagSampler(KafkaConnectionSettings connection, Duration interval, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("the capacity can not be smaller then 2");
+        }
+
+        this.vertx = connection.getVertx();
+        this.admin = connection.admin();
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Bounded time series of the committed and end offsets stored in ring buffers of primitives.
+     */
+    static class LagSeries {
+        private final long[] times;
+        private final long[] committed;
+        private final long[] ends;
+        private int next;
+        private int size;
+
+        LagSeries(int capacity) {
+            times = new long[capacity];
+            committed = new long[capacity];
+            ends = new long[capacity];
+        }
+
+        void add(long timeMillis, long committedOffset, long endOffset) {
+            times[next] = timeMillis;
+            committed[next] = committedOffset;
+            ends[next] = endOffset;
+            next = (next + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+
+        private int last() {
+            return (next - 1 + times.length) % times.length;
+        }
+
+        private int first() {
+            return (next - size + times.length) % times.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long lag() {
+            if (size == 0) {
+                return 0;
+            }
+            return Math.max(0, ends[last()] - committed[last()]);
+        }
+
+        long maxLag() {
+            long max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, ends[i] - committed[i]);
+            }
+            return max;
+        }
+
+        private double rate(long[] offsets) {
+            if (size < 2) {
+                return Double.NaN;
+            }
+            var elapsed = times[last()] - times[first()];
+            if (elapsed <= 0) {
+                return Double.NaN;
+            }
+            return (offsets[last()] - offsets[first()]) * 1000.0 / elapsed;
+        }
+
+        /**
+         * @return the committed messages per second over the retained samples
+         */
+        double consumeRate() {
+            return rate(committed);
+        }
+
+        /**
+         * @return the produced messages per second over the retained samples
+         */
+        double produceRate() {
+            return rate(ends);
+        }
+
+        /**
+         * @return the seconds to consume the lag at the current consume and produce rates
+         */
+        double catchUpSeconds() {
+            var lag = lag();
+            if (lag == 0) {
+                return 0;
+            }
+            var net = consumeRate() - produceRate();
+            if (Double.isNaN(net) || net <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return lag / net;
+        }
+    }
+
+    /**
+     * Sample every interval until closed.
+     */
+    public synchronized ConsumerLagSampler start() {
+        if (timer == -1) {
+            LOGGER.info("start consumer lag sampler every {}", interval);
+            timer = vertx.setPeriodic(interval.toMillis(), __ -> sampleAsync());
+        }
+        return this;
+    }
+
+    /**
+     * Take a sample on a worker thread, the sample is skipped if the previous one is still running.
+     */
+    public Future<Void> sampleAsync() {
+        if (!sampling.compareAndSet(false, true)) {
+            LOGGER.warn("skip consumer lag sample because the previous one is still running");
+            return Future.succeededFuture();
+        }
+
+        return vertx.<Void>executeBlocking(p -> {
+            sample();
+            p.complete();
+        }, false).onComplete(__ -> sampling.set(false))
+            .onFailure(t -> LOGGER.error("failed to sample the consumer lag", t));
+    }
+
+    private void sample() {
+        var groupIDs = admin.listConsumerGroups().stream()
+            .map(ConsumerGroupListing::groupId)
+            .collect(Collectors.toList());
+
+        var committed = admin.listConsumerGroupOffsets(groupIDs);
+
+        var topicPartitions = new HashSet<TopicPartition>();
+        committed.values().forEach(m -> topicPartitions.addAll(m.keySet()));
+        var ends = admin.listEndOffsets(topicPartitions);
+
+        record(System.currentTimeMillis(), committed, ends);
+        LOGGER.debug("sampled the lag of {} partitions in {} groups", topicPartitions.size(), groupIDs.size());
+    }
+
+    private synchronized void record(long now, Map<String, Map<TopicPartition, OffsetAndMetadata>> committed, Map<TopicPartition, Long> ends) {
+        for (var group : committed.entrySet()) {
+            var series = partitions.computeIfAbsent(group.getKey(), __ -> new HashMap<>());
+            long totalCommitted = 0;
+            long totalEnd = 0;
+
+            for (var offset : group.getValue().entrySet()) {
+                var end = ends.get(offset.getKey());
+                if (end == null) {
+                    continue;
+                }
+
+                var s = series.computeIfAbsent(offset.getKey(), __ -> new LagSeries(capacity));
+                s.add(now, offset.getValue().offset(), end);
+                publish(group.getKey(), offset.getKey().topic(), String.valueOf(offset.getKey().partition()), s);
+
+                totalCommitted += offset.getValue().offset();
+                totalEnd += end;
+            }
+
+            // the partitions without committed or end offsets, e.g. of a deleted topic
+            series.keySet().removeIf(tp -> {
+                if (group.getValue().containsKey(tp) && ends.containsKey(tp)) {
+                    return false;
+                }
+                unpublish(group.getKey(), tp.topic(), String.valueOf(tp.partition()));
+                return true;
+            });
+
+            var total = groups.computeIfAbsent(group.getKey(), __ -> new LagSeries(capacity));
+            total.add(now, totalCommitted, totalEnd);
+            publish(group.getKey(), ALL, ALL, total);
+        }
+
+        // the groups that have been deleted
+        partitions.entrySet().removeIf(group -> {
+            if (committed.containsKey(group.getKey())) {
+                return false;
+            }
+            group.getValue().keySet().forEach(tp -> unpublish(group.getKey(), tp.topic(), String.valueOf(tp.partition())));
+            unpublish(group.getKey(), ALL, ALL);
+            groups.remove(group.getKey());
+            LOGGER.info("stop sampling the lag of the deleted consumer group {}", group.getKey());
+            return true;
+        });
+    }
+
+    private static void publish(String group, String topic, String partition, LagSeries series) {
+        LAG.labels(Environment.LAUNCH_KEY, group, topic, partition).set(series.lag());
+        CATCH_UP.labels(Environment.LAUNCH_KEY, group, topic, partition).set(series.catchUpSeconds());
+
+        var rate = series.consumeRate();
+        if (!Double.isNaN(rate)) {
+            CONSUME_RATE.labels(Environment.LAUNCH_KEY, group, topic, partition).set(rate);
+        }
+    }
+
+    private static void unpublish(String group, String topic, String partition) {
+        LAG.remove(Environment.LAUNCH_KEY, group, topic, partition);
+        CATCH_UP.remove(Environment.LAUNCH_KEY, group, topic, partition);
+        CONSUME_RATE.remove(Environment.LAUNCH_KEY, group, topic, partition);
+    }
+
+    private LagSeries group(String groupID) {
+        return groups.getOrDefault(groupID, new LagSeries(capacity));
+    }
+
+    /**
+     * @return the number of samples retained for the group
+     */
+    public synchronized int samples(String groupID) {
+        return group(groupID).size();
+    }
+
+    /**
+     * @return the lag of the group on all its partitions at the last sample
+     */
+    public synchronized long lag(String groupID) {
+        return group(groupID).lag();
+    }
+
+    /**
+     * @return the max lag of the group on all its partitions over the retained samples
+     */
+    public synchronized long maxLag(String groupID) {
+        return group(groupID).maxLag();
+    }
+
+    /**
+     * @return the lag of the group on the partition at the last sample
+     */
+    public synchronized long lag(String groupID, TopicPartition partition) {
+        return partitions.getOrDefault(groupID, Map.of()).getOrDefault(partition, new LagSeries(capacity)).lag();
+    }
+
+    /**
+     * @return the messages per second committed by the group over the retained samples or NaN if there are not enough samples
+     */
+    public synchronized double consumeRate(String groupID) {
+        return group(groupID).consumeRate();
+    }
+
+    /**
+     * @return the messages per second produced to the partitions of the group over the retained samples
+     * or NaN if there are not enough samples
+     */
+    public synchronized double produceRate(String groupID) {
+        return group(groupID).produceRate();
+    }
+
+    /**
+     * @return the estimated time for the group to consume its lag or null if the lag is not decreasing
+     */
+    public synchronized Duration timeToCatchUp(String groupID) {
+        var seconds = group(groupID).catchUpSeconds();
+        if (Double.isInfinite(seconds)) {
+            return null;
+        }
+        return Duration.ofMillis((long) (seconds * 1000));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != -1) {
+            vertx.cancelTimer(timer);
+            timer = -1;
+            LOGGER.info("stop consumer lag sampler");
+        }
+        admin.close();
+    }
+}
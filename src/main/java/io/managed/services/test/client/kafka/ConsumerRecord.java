@@ -1,6 +1,11 @@
 package io.managed.services.test.client.kafka;
 
 import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaHeader;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class ConsumerRecord<K, V> {
     private final int consumerHash;
@@ -11,6 +16,13 @@ public class ConsumerRecord<K, V> {
         this.record = record;
     }
 
+    /**
+     * Wrap a record of the native Kafka consumer.
+     */
+    public ConsumerRecord(int consumerHash, org.apache.kafka.clients.consumer.ConsumerRecord<K, V> record) {
+        this(consumerHash, new NativeRecord<>(record));
+    }
+
     public int consumerHash() {
         return consumerHash;
     }
@@ -18,4 +30,70 @@ public class ConsumerRecord<K, V> {
     public KafkaConsumerRecord<K, V> record() {
         return record;
     }
+
+    /**
+     * {@link KafkaConsumerRecord} view of a native record.
+     */
+    private static class NativeRecord<K, V> implements KafkaConsumerRecord<K, V> {
+        private final org.apache.kafka.clients.consumer.ConsumerRecord<K, V> record;
+
+        NativeRecord(org.apache.kafka.clients.consumer.ConsumerRecord<K, V> record) {
+            this.record = record;
+        }
+
+        @Override
+        public String topic() {
+            return record.topic();
+        }
+
+        @Override
+        public int partition() {
+            return record.partition();
+        }
+
+        @Override
+        public long offset() {
+            return record.offset();
+        }
+
+        @Override
+        public long timestamp() {
+            return record.timestamp();
+        }
+
+        @Override
+        public TimestampType timestampType() {
+            return record.timestampType();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public long checksum() {
+            return record.checksum();
+        }
+
+        @Override
+        public K key() {
+            return record.key();
+        }
+
+        @Override
+        public V value() {
+            return record.value();
+        }
+
+        @Override
+        public List<KafkaHeader> headers() {
+            var headers = new ArrayList<KafkaHeader>();
+            for (var header : record.headers()) {
+                headers.add(KafkaHeader.header(header.key(), header.value()));
+            }
+            return headers;
+        }
+
+        @Override
+        public org.apache.kafka.clients.consumer.ConsumerRecord<K, V> record() {
+            return record;
+        }
+    }
 }
@@ -9,6 +9,7 @@ import org.apache.kafka.clients.admin.ConsumerGroupDescription;
 import org.apache.kafka.clients.admin.ConsumerGroupListing;
 import org.apache.kafka.clients.admin.NewPartitionReassignment;
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.admin.OffsetSpec;
 import org.apache.kafka.clients.admin.RecordsToDelete;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.ElectionType;
@@ -29,6 +30,8 @@ import org.apache.kafka.common.resource.PatternType;
 import org.apache.kafka.common.resource.ResourcePattern;
 import org.apache.kafka.common.resource.ResourcePatternFilter;
 import org.apache.kafka.common.resource.ResourceType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -42,8 +45,10 @@ import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 public class KafkaAdmin implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaAdmin.class);
 
     private final Admin admin;
+    private final KafkaClientMetrics.Registration metrics;
 
     public KafkaAdmin(String bootstrapHost, String clientID, String clientSecret) {
         this(bootstrapHost, KafkaAuthMethod.oAuthConfigs(bootstrapHost, clientID, clientSecret));
@@ -57,6 +62,7 @@ public class KafkaAdmin implements AutoCloseable {
         Map<String, Object> conf = config.entrySet().stream()
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
         admin = Admin.create(conf);
+        metrics = KafkaClientMetrics.register(admin::metrics);
     }
 
     @SneakyThrows
@@ -173,6 +179,46 @@ public class KafkaAdmin implements AutoCloseable {
         return get(admin.describeConsumerGroups(listOfIds).all());
     }
 
+    /**
+     * List the committed offsets of each group, the requests for all groups are sent before waiting for any of them.
+     *
+     * @return the committed offsets of each group, the partitions without a committed offset are not included
+     */
+    public Map<String, Map<TopicPartition, OffsetAndMetadata>> listConsumerGroupOffsets(Collection<String> groupIDs) {
+        var requests = new HashMap<String, KafkaFuture<Map<TopicPartition, OffsetAndMetadata>>>();
+        for (var groupID : groupIDs) {
+            requests.put(groupID, admin.listConsumerGroupOffsets(groupID).partitionsToOffsetAndMetadata());
+        }
+
+        var offsets = new HashMap<String, Map<TopicPartition, OffsetAndMetadata>>();
+        requests.forEach((groupID, request) -> offsets.put(groupID, get(request).entrySet().stream()
+            .filter(e -> e.getValue() != null)
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))));
+        return offsets;
+    }
+
+    /**
+     * @return the end offset of each partition fetched with a single list offsets call, the partitions
+     * that failed (e.g. because the topic has been deleted) are not included
+     */
+    public Map<TopicPartition, Long> listEndOffsets(Collection<TopicPartition> partitions) {
+        var request = partitions.stream().collect(Collectors.toMap(p -> p, p -> OffsetSpec.latest()));
+        var result = admin.listOffsets(request);
+
+        var offsets = new HashMap<TopicPartition, Long>();
+        for (var partition : request.keySet()) {
+            try {
+                offsets.put(partition, result.partitionResult(partition).get().offset());
+            } catch (ExecutionException e) {
+                LOGGER.debug("failed to list the end offset of partition {}: {}", partition, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return offsets;
+    }
+
     public void deleteConsumerGroups(String groupID) {
         List<String> listOfIds = Collections.singletonList(groupID);
         get(admin.deleteConsumerGroups(listOfIds).all());
@@ -236,6 +282,7 @@ public class KafkaAdmin implements AutoCloseable {
 
     @Override
     public void close() {
+        metrics.close();
         admin.close();
     }
 }
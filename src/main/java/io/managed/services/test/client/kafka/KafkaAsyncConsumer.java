@@ -1,8 +1,10 @@
 package io.managed.services.test.client.kafka;
 
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
 import lombok.extern.log4j.Log4j2;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.Deserializer;
@@ -13,10 +15,28 @@ import java.util.Map;
 @Log4j2
 abstract class KafkaAsyncConsumer<K, V> implements AutoCloseable {
 
+    // set from the test thread and read from the consumer context
+    protected volatile LatencyRecorder latencyRecorder;
+
     abstract Future<Future<List<ConsumerRecord<K, V>>>> receiveAsync(String topicName, int expectedMessages);
 
+    /**
+     * Like {@link #receiveAsync(String, int)} but pass each record to the handler as it arrives instead of
+     * collecting them, so that the records can be verified in constant memory.
+     */
+    abstract Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, Handler<KafkaConsumerRecord<K, V>> handler);
+
     abstract Future<Void> asyncClose();
 
+    /**
+     * Record the end-to-end latency of the consumed records that have been stamped by the producer
+     *
+     * @param latencyRecorder LatencyRecorder or null to disable it
+     */
+    public void recordLatency(LatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+    }
+
     protected static <K, V> KafkaConsumer<K, V> createConsumer(
         Vertx vertx,
         String bootstrapHost,
@@ -29,6 +49,23 @@ abstract class KafkaAsyncConsumer<K, V> implements AutoCloseable {
         Class<? extends Deserializer<V>> valueDeserializer,
         Map<String, String> additionalConfig) {
 
+        var config = consumerConfig(bootstrapHost, clientID, clientSecret, authMethod, groupID, offset,
+            keyDeserializer, valueDeserializer, additionalConfig);
+
+        return KafkaConsumer.create(vertx, config);
+    }
+
+    protected static <K, V> Map<String, String> consumerConfig(
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod authMethod,
+        String groupID,
+        String offset,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer,
+        Map<String, String> additionalConfig) {
+
         var config = authMethod.configs(bootstrapHost, clientID, clientSecret);
 
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer.getName());
@@ -40,7 +77,7 @@ abstract class KafkaAsyncConsumer<K, V> implements AutoCloseable {
         // add the additional configs
         config.putAll(additionalConfig);
 
-        return KafkaConsumer.create(vertx, config);
+        return config;
     }
 
     @Override
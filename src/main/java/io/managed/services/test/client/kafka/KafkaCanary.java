@@ -0,0 +1,305 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.prometheus.client.Gauge;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Canary that sends a small timestamped record to every partition of a dedicated topic at a fixed rate
+ * and consumes them back, to measure the baseline end-to-end latency and availability of an instance
+ * while it is used by the other tests.
+ * <p>
+ * The stats are kept for a rolling window, made of {@link #WINDOW_BUCKETS} buckets that are rotated one
+ * at a time, and for the whole time the canary runs. Both are set as Prometheus gauges in the default
+ * registry at each rotation and when the canary is closed, so that they are pushed by the
+ * PrometheusSuiteListener at the end of the suite.
+ * <p>
+ * The consumer joins its own group without committing, so it always starts from the end of the topic.
+ */
+public class KafkaCanary {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaCanary.class);
+
+    static final Gauge LATENCY = Gauge.build()
+        .name("kafka_canary_latency_microseconds")
+        .labelNames("launch", "topic", "window", "quantile")
+        .help("Canary end-to-end latency in microseconds.")
+        .register();
+
+    static final Gauge AVAILABILITY = Gauge.build()
+        .name("kafka_canary_availability_ratio")
+        .labelNames("launch", "topic", "window", "operation")
+        .help("Canary ratio of acknowledged records to sent records (produce) and of received records to acknowledged records (consume).")
+        .register();
+
+    static final Gauge RECORDS = Gauge.build()
+        .name("kafka_canary_records")
+        .labelNames("launch", "topic", "window", "result")
+        .help("Canary records sent, acknowledged, failed and received.")
+        .register();
+
+    public static final int WINDOW_BUCKETS = 12;
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+    private final String topicName;
+    private final Duration sendInterval;
+    private final Duration window;
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final Stats[] buckets = new Stats[WINDOW_BUCKETS];
+    private final Stats total = new Stats();
+    private int current;
+
+    private KafkaProducerClient<String, String> producer;
+    private KafkaConsumer<String, String> consumer;
+    private int partitions;
+    private long sendTimer = -1;
+    private long rotateTimer = -1;
+
+    /**
+     * @param sendInterval The time between two records sent to the same partition
+     * @param window       The length of the rolling window
+     */
+    public KafkaCanary(KafkaConnectionSettings connection, String topicName, Duration sendInterval, Duration window) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+        this.topicName = topicName;
+        this.sendInterval = sendInterval;
+        this.window = window;
+
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            buckets[i] = new Stats();
+        }
+    }
+
+    /**
+     * The records and the latency over a window.
+     */
+    public static class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long sent;
+        private long acked;
+        private long failed;
+        private long received;
+
+        private void add(Stats other) {
+            latency.add(other.latency);
+            sent += other.sent;
+            acked += other.acked;
+            failed += other.failed;
+            received += other.received;
+        }
+
+        private void reset() {
+            latency.reset();
+            sent = 0;
+            acked = 0;
+            failed = 0;
+            received = 0;
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public long sent() {
+            return sent;
+        }
+
+        public long acked() {
+            return acked;
+        }
+
+        public long failed() {
+            return failed;
+        }
+
+        public long received() {
+            return received;
+        }
+
+        /**
+         * @return the ratio of acknowledged records to completed sends or 1 if no send has completed
+         */
+        public double produceAvailability() {
+            var completed = acked + failed;
+            return completed == 0 ? 1 : (double) acked / completed;
+        }
+
+        /**
+         * @return the ratio of received records to acknowledged records or 1 if no record has been acknowledged,
+         * the records acknowledged at the end of the window and received in the next one can make it slightly
+         * lower or higher than the real one
+         */
+        public double consumeAvailability() {
+            return acked == 0 ? 1 : Math.min(1, (double) received / acked);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent: %d; acked: %d; failed: %d; received: %d; produce availability: %.4f; "
+                    + "consume availability: %.4f; latency: %s",
+                sent, acked, failed, received, produceAvailability(), consumeAvailability(), latency);
+        }
+    }
+
+    /**
+     * Connect the producer and the consumer and start sending once the consumer has been assigned the partitions.
+     */
+    public Future<Void> start() {
+        LOGGER.info("start canary on topic {}; send interval: {}; window: {}", topicName, sendInterval, window);
+
+        producer = connection.producer(StringSerializer.class, StringSerializer.class);
+
+        consumer = KafkaConsumerClient.createConsumer(vertx,
+            connection.getBootstrapHost(),
+            connection.getClientID(),
+            connection.getClientSecret(),
+            connection.getAuthMethod(),
+            "mk-e2e-canary-" + Environment.LAUNCH_KEY,
+            "latest",
+            StringDeserializer.class,
+            StringDeserializer.class,
+            Map.of(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false"));
+
+        Promise<Void> assigned = Promise.promise();
+        consumer.partitionsAssignedHandler(tps -> {
+            if (!tps.isEmpty()) {
+                assigned.tryComplete();
+            }
+        });
+        consumer.handler(this::receive);
+
+        return producer.partitionsFor(topicName)
+            .compose(l -> {
+                partitions = l.size();
+                return consumer.subscribe(topicName);
+            })
+            .compose(__ -> assigned.future())
+            .onSuccess(__ -> {
+                LOGGER.info("canary consumer assigned to topic {}, start sending to {} partitions", topicName, partitions);
+                synchronized (this) {
+                    sendTimer = vertx.setPeriodic(sendInterval.toMillis(), t -> send());
+                    rotateTimer = vertx.setPeriodic(Math.max(1, window.toMillis() / WINDOW_BUCKETS), t -> rotate());
+                }
+            });
+    }
+
+    private void send() {
+        for (int p = 0; p < partitions; p++) {
+            var record = recorder.stamp(KafkaProducerRecord.<String, String>create(topicName, null, "canary", null, p));
+            synchronized (this) {
+                buckets[current].sent++;
+                total.sent++;
+            }
+            producer.send(record).onComplete(ar -> {
+                synchronized (this) {
+                    if (ar.succeeded()) {
+                        buckets[current].acked++;
+                        total.acked++;
+                    } else {
+                        buckets[current].failed++;
+                        total.failed++;
+                    }
+                }
+                if (ar.failed()) {
+                    LOGGER.warn("canary failed to send to topic {}: {}", topicName, ar.cause().getMessage());
+                }
+            });
+        }
+    }
+
+    private void receive(KafkaConsumerRecord<String, String> record) {
+        var micros = LatencyRecorder.latency(record);
+        if (micros < 0) {
+            return;
+        }
+        recorder.record(record.topic(), record.partition(), micros);
+        synchronized (this) {
+            buckets[current].latency.record(micros);
+            buckets[current].received++;
+            total.latency.record(micros);
+            total.received++;
+        }
+    }
+
+    private synchronized void rotate() {
+        publish();
+        current = (current + 1) % WINDOW_BUCKETS;
+        buckets[current].reset();
+    }
+
+    /**
+     * @return the stats of the rolling window
+     */
+    public synchronized Stats rolling() {
+        var stats = new Stats();
+        for (var bucket : buckets) {
+            stats.add(bucket);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the stats since the canary has been started
+     */
+    public synchronized Stats total() {
+        var stats = new Stats();
+        stats.add(total);
+        return stats;
+    }
+
+    private void publish() {
+        publish("rolling", rolling());
+        publish("total", total());
+    }
+
+    private void publish(String windowLabel, Stats stats) {
+        for (var p : PERCENTILES) {
+            LATENCY.labels(Environment.LAUNCH_KEY, topicName, windowLabel, Double.toString(p / 100)).set(stats.latency.percentile(p));
+        }
+        LATENCY.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "1.0").set(stats.latency.max());
+
+        AVAILABILITY.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "produce").set(stats.produceAvailability());
+        AVAILABILITY.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "consume").set(stats.consumeAvailability());
+
+        RECORDS.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "sent").set(stats.sent);
+        RECORDS.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "acked").set(stats.acked);
+        RECORDS.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "failed").set(stats.failed);
+        RECORDS.labels(Environment.LAUNCH_KEY, topicName, windowLabel, "received").set(stats.received);
+    }
+
+    /**
+     * Stop sending, publish the last stats and close the clients.
+     */
+    public Future<Void> asyncClose() {
+        synchronized (this) {
+            vertx.cancelTimer(sendTimer);
+            vertx.cancelTimer(rotateTimer);
+            publish();
+            LOGGER.info("canary on topic {} rolling window: {}", topicName, rolling());
+            LOGGER.info("canary on topic {} total: {}", topicName, total());
+        }
+        recorder.report();
+
+        Future<Void> producerClosed = producer == null ? Future.succeededFuture() : producer.asyncClose();
+        Future<Void> consumerClosed = consumer == null ? Future.succeededFuture() : consumer.close();
+        return CompositeFuture.join(producerClosed, consumerClosed).mapEmpty();
+    }
+}
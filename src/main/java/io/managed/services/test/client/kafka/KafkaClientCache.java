@@ -0,0 +1,338 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of Kafka producers and consumers so that the tests that send and receive messages many times
+ * with the same credentials don't have to login and connect to the brokers each time.
+ * <p>
+ * The clients are cached by bootstrap host, credentials, auth method, serializers and for the consumers
+ * also by group id. A producer can be leased by multiple users at the same time because the producer is
+ * thread-safe, while a consumer is leased by one user at a time and a new consumer is created if all
+ * the cached consumers are in use. The clients that are not leased by anyone for the idle timeout are closed.
+ * <p>
+ * The cached clients stay authenticated until the broker re-authenticates them, so a cache must not be used
+ * across a change of the credentials, for example after the service account has been deleted or its secret reset.
+ * <p>
+ * The time saved is estimated as the time that was needed to create each client, which includes the OAuth
+ * login, for each time a cached client is reused. The TLS handshakes with the brokers happen later on the
+ * first request and are not included.
+ */
+public class KafkaClientCache implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaClientCache.class);
+
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(2);
+
+    private final Vertx vertx;
+    private final Duration idleTimeout;
+    private final Map<Key, List<Entry<?>>> entries = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private Duration saved = Duration.ZERO;
+
+    /**
+     * @param vertx       The vertx instance used to create the clients
+     * @param idleTimeout Close the clients that are not leased by anyone for this time
+     */
+    public KafkaClientCache(Vertx vertx, Duration idleTimeout) {
+        this.vertx = vertx;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Vertx vertx() {
+        return vertx;
+    }
+
+    private static class Key {
+        private final String type;
+        private final String bootstrapHost;
+        private final String clientID;
+        private final String clientSecret;
+        private final KafkaAuthMethod authMethod;
+        private final String groupID;
+        private final Class<?> keyClass;
+        private final Class<?> valueClass;
+
+        Key(String type, String bootstrapHost, String clientID, String clientSecret, KafkaAuthMethod authMethod,
+            String groupID, Class<?> keyClass, Class<?> valueClass) {
+
+            this.type = type;
+            this.bootstrapHost = bootstrapHost;
+            this.clientID = clientID;
+            this.clientSecret = clientSecret;
+            this.authMethod = authMethod;
+            this.groupID = groupID;
+            this.keyClass = keyClass;
+            this.valueClass = valueClass;
+        }
+
+        private List<Object> values() {
+            return Arrays.asList(type, bootstrapHost, clientID, clientSecret, authMethod, groupID, keyClass, valueClass);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && values().equals(((Key) o).values());
+        }
+
+        @Override
+        public int hashCode() {
+            return values().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s; host: %s; clientID: %s; clientSecret: ***; auth: %s; group: %s",
+                type, bootstrapHost, clientID, authMethod, groupID);
+        }
+    }
+
+    private static class Entry<T> {
+        private final T client;
+        private final Supplier<Future<Void>> close;
+        private Duration creationTime = Duration.ZERO;
+        private int references;
+        private long idleTimer = -1;
+
+        Entry(T client, Supplier<Future<Void>> close) {
+            this.client = client;
+            this.close = close;
+        }
+    }
+
+    /**
+     * A client leased from the cache, release it when done or invalidate it if the client may be
+     * in a bad state.
+     */
+    public class Lease<T> {
+        private final Key key;
+        private final Entry<T> entry;
+        private boolean released;
+
+        private Lease(Key key, Entry<T> entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        public T client() {
+            return entry.client;
+        }
+
+        /**
+         * Return the client to the cache.
+         *
+         * @return a future completed when the client has been returned, or closed if it has been invalidated
+         */
+        public Future<Void> release() {
+            synchronized (KafkaClientCache.this) {
+                if (released) {
+                    return Future.succeededFuture();
+                }
+                released = true;
+                return KafkaClientCache.this.release(entry);
+            }
+        }
+
+        /**
+         * Remove the client from the cache and close it once it is released by all its users.
+         */
+        public Future<Void> invalidate() {
+            synchronized (KafkaClientCache.this) {
+                var list = entries.get(key);
+                if (list != null) {
+                    list.remove(entry);
+                }
+            }
+            return release();
+        }
+    }
+
+    public <K, V> Lease<KafkaProducerClient<K, V>> producer(
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod authMethod,
+        Class<? extends Serializer<K>> keySerializer,
+        Class<? extends Serializer<V>> valueSerializer) {
+
+        var key = new Key("producer", bootstrapHost, clientID, clientSecret, authMethod, null, keySerializer, valueSerializer);
+        return lease(key, false, () -> {
+            var producer = new KafkaProducerClient<>(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                keySerializer,
+                valueSerializer);
+            return new Entry<>(producer, producer::asyncClose);
+        });
+    }
+
+    public <K, V> Lease<KafkaConsumerClient<K, V>> consumer(
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod authMethod,
+        String groupID,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
+        var key = new Key("consumer", bootstrapHost, clientID, clientSecret, authMethod, groupID, keyDeserializer, valueDeserializer);
+        return lease(key, true, () -> {
+            var consumer = new KafkaConsumerClient<>(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                groupID,
+                "latest",
+                keyDeserializer,
+                valueDeserializer);
+            return new Entry<>(consumer, consumer::asyncClose);
+        });
+    }
+
+    /**
+     * Same as {@link #consumer(String, String, String, KafkaAuthMethod, String, Class, Class)} but with the
+     * {@link KafkaPollConsumerClient} engine.
+     */
+    public <K, V> Lease<KafkaPollConsumerClient<K, V>> pollConsumer(
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod authMethod,
+        String groupID,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
+        var key = new Key("poll-consumer", bootstrapHost, clientID, clientSecret, authMethod, groupID, keyDeserializer, valueDeserializer);
+        return lease(key, true, () -> {
+            var consumer = new KafkaPollConsumerClient<>(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                groupID,
+                "latest",
+                keyDeserializer,
+                valueDeserializer);
+            return new Entry<>(consumer, consumer::asyncClose);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Lease<T> lease(Key key, boolean exclusive, Supplier<Entry<T>> factory) {
+        var list = entries.computeIfAbsent(key, __ -> new ArrayList<>());
+        for (var e : list) {
+            if (!exclusive || e.references == 0) {
+                var entry = (Entry<T>) e;
+                hits++;
+                saved = saved.plus(entry.creationTime);
+                LOGGER.info("reuse cached kafka client {}; saved: {}", key, entry.creationTime);
+                return acquire(key, entry);
+            }
+        }
+
+        misses++;
+        var start = System.nanoTime();
+        var entry = factory.get();
+        entry.creationTime = Duration.ofNanos(System.nanoTime() - start);
+        LOGGER.info("create cached kafka client {} in {}", key, entry.creationTime);
+        list.add(entry);
+        return acquire(key, entry);
+    }
+
+    private <T> Lease<T> acquire(Key key, Entry<T> entry) {
+        if (entry.idleTimer != -1) {
+            vertx.cancelTimer(entry.idleTimer);
+            entry.idleTimer = -1;
+        }
+        entry.references++;
+        return new Lease<>(key, entry);
+    }
+
+    private Future<Void> release(Entry<?> entry) {
+        entry.references--;
+        if (entry.references > 0) {
+            return Future.succeededFuture();
+        }
+
+        if (!isCached(entry)) {
+            // the entry has been invalidated
+            return entry.close.get();
+        }
+
+        entry.idleTimer = vertx.setTimer(idleTimeout.toMillis(), __ -> evict(entry));
+        return Future.succeededFuture();
+    }
+
+    private boolean isCached(Entry<?> entry) {
+        return entries.values().stream().anyMatch(l -> l.contains(entry));
+    }
+
+    private synchronized void evict(Entry<?> entry) {
+        if (entry.references > 0) {
+            return;
+        }
+        entries.values().forEach(l -> l.remove(entry));
+        entries.values().removeIf(List::isEmpty);
+        LOGGER.info("close idle cached kafka client");
+        entry.close.get();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the estimated time saved by reusing the cached clients
+     */
+    public synchronized Duration saved() {
+        return saved;
+    }
+
+    /**
+     * Close all cached clients including the leased ones.
+     */
+    public Future<Void> asyncClose() {
+        List<Entry<?>> all;
+        synchronized (this) {
+            LOGGER.info("close kafka client cache; hits: {}; misses: {}; saved: {}", hits, misses, saved);
+            all = entries.values().stream().flatMap(List::stream).collect(Collectors.toList());
+            entries.clear();
+        }
+
+        List<Future> closed = all.stream()
+            .map(e -> {
+                vertx.cancelTimer(e.idleTimer);
+                return (Future) e.close.get();
+            })
+            .collect(Collectors.toList());
+        return CompositeFuture.join(closed).mapEmpty();
+    }
+
+    @Override
+    public void close() throws Exception {
+        asyncClose().toCompletionStage().toCompletableFuture().get();
+    }
+}
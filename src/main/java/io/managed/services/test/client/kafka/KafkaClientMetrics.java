@@ -0,0 +1,158 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.prometheus.client.Collector;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Expose the metrics of the Kafka producers, consumers and admins created by the tests in the
+ * {@link io.prometheus.client.CollectorRegistry#defaultRegistry}, so that they are pushed with the test results
+ * by the PrometheusSuiteListener.
+ * <p>
+ * The metrics of the open clients are sampled when the registry is collected. When the registration of a client
+ * is closed its metrics are sampled one last time and that snapshot is reported until the suite metrics are pushed
+ * and {@link #clearClosed()} is called, because most clients are closed before the push. Each metric is named
+ * kafka_client_[group]_[name] (e.g. kafka_client_producer_metrics_record_send_rate) and labeled with the launch,
+ * the test class that created the client and the Kafka metric tags (client_id, topic, node_id, ...).
+ */
+public class KafkaClientMetrics extends Collector {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaClientMetrics.class);
+
+    private static final Pattern INVALID_CHARS = Pattern.compile("[^a-zA-Z0-9_]");
+
+    private static final KafkaClientMetrics INSTANCE = new KafkaClientMetrics().register();
+
+    private static volatile String testClass = "unknown";
+
+    private final Map<Registration, Boolean> registrations = new ConcurrentHashMap<>();
+    private final Set<String> mismatchedFamilies = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Metrics of a single client, close it before the client is closed to take the final snapshot of its metrics.
+     */
+    public static class Registration implements AutoCloseable {
+        private final Supplier<Map<MetricName, ? extends Metric>> metrics;
+        private final String testClass;
+        private volatile List<Sample> last = List.of();
+        private volatile boolean closed;
+
+        private Registration(Supplier<Map<MetricName, ? extends Metric>> metrics, String testClass) {
+            this.metrics = metrics;
+            this.testClass = testClass;
+        }
+
+        private synchronized List<Sample> sample() {
+            if (closed) {
+                return last;
+            }
+            try {
+                var samples = new ArrayList<Sample>();
+                for (var e : metrics.get().entrySet()) {
+                    var value = e.getValue().metricValue();
+                    if (value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+                        samples.add(new Sample(e.getKey(), testClass, ((Number) value).doubleValue()));
+                    }
+                }
+                last = samples;
+            } catch (RuntimeException e) {
+                // the client has been closed without closing the registration
+                LOGGER.warn("failed to sample the kafka client metrics: {}", e.getMessage());
+            }
+            return last;
+        }
+
+        @Override
+        public synchronized void close() {
+            sample();
+            closed = true;
+        }
+    }
+
+    private static class Sample {
+        private final String name;
+        private final List<String> labelNames = new ArrayList<>();
+        private final List<String> labelValues = new ArrayList<>();
+        private final String help;
+        private final double value;
+
+        Sample(MetricName metric, String testClass, double value) {
+            this.name = sanitize("kafka_client_" + metric.group() + "_" + metric.name());
+            this.help = metric.description();
+            this.value = value;
+
+            labelNames.add("launch");
+            labelValues.add(Environment.LAUNCH_KEY);
+            labelNames.add("class");
+            labelValues.add(testClass);
+
+            // sort the tags so that the samples of the same metric always have the labels in the same order
+            for (var tag : new TreeMap<>(metric.tags()).entrySet()) {
+                labelNames.add(sanitize(tag.getKey()));
+                labelValues.add(tag.getValue());
+            }
+        }
+    }
+
+    private static String sanitize(String name) {
+        return INVALID_CHARS.matcher(name).replaceAll("_");
+    }
+
+    /**
+     * Set the test class used to label the metrics of the clients registered from now on.
+     */
+    public static void setTestClass(String testClass) {
+        KafkaClientMetrics.testClass = testClass;
+    }
+
+    /**
+     * Register the metrics of a Kafka client, the supplier is invoked each time the metrics are collected
+     * until the registration is closed.
+     */
+    public static Registration register(Supplier<Map<MetricName, ? extends Metric>> metrics) {
+        var registration = new Registration(metrics, testClass);
+        INSTANCE.registrations.put(registration, Boolean.TRUE);
+        return registration;
+    }
+
+    /**
+     * Remove the final snapshots of the closed clients once they have been pushed.
+     */
+    public static void clearClosed() {
+        INSTANCE.registrations.keySet().removeIf(r -> r.closed);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        Map<String, MetricFamilySamples> families = new LinkedHashMap<>();
+        for (var registration : registrations.keySet()) {
+            for (var sample : registration.sample()) {
+                var family = families.computeIfAbsent(sample.name,
+                    n -> new MetricFamilySamples(n, Type.GAUGE, sample.help, new ArrayList<>()));
+
+                // all samples of the same family must have the same labels
+                if (!family.samples.isEmpty() && !family.samples.get(0).labelNames.equals(sample.labelNames)) {
+                    if (mismatchedFamilies.add(sample.name)) {
+                        LOGGER.warn("skip the samples of {} with labels {} because the family has labels {}",
+                            sample.name, sample.labelNames, family.samples.get(0).labelNames);
+                    }
+                    continue;
+                }
+                family.samples.add(new MetricFamilySamples.Sample(sample.name, sample.labelNames, sample.labelValues, sample.value));
+            }
+        }
+        return new ArrayList<>(families.values());
+    }
+}
@@ -0,0 +1,110 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Vertx;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+/**
+ * The Vert.x instance and the Kafka instance credentials used by the benchmarks and workloads to create their clients.
+ */
+@Getter
+@AllArgsConstructor
+public class KafkaConnectionSettings {
+    private final Vertx vertx;
+    private final String bootstrapHost;
+    private final String clientID;
+    private final String clientSecret;
+    private final KafkaAuthMethod authMethod;
+
+    public <K, V> KafkaProducerClient<K, V> producer(
+        Class<? extends Serializer<K>> keySerializer,
+        Class<? extends Serializer<V>> valueSerializer) {
+
+        return producer(keySerializer, valueSerializer, Map.of());
+    }
+
+    public <K, V> KafkaProducerClient<K, V> producer(
+        Class<? extends Serializer<K>> keySerializer,
+        Class<? extends Serializer<V>> valueSerializer,
+        Map<String, String> additionalConfig) {
+
+        return new KafkaProducerClient<>(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            keySerializer,
+            valueSerializer,
+            additionalConfig);
+    }
+
+    public <K, V> KafkaProducerClientPool<K, V> producerPool(
+        int producers,
+        Class<? extends Serializer<K>> keySerializer,
+        Class<? extends Serializer<V>> valueSerializer,
+        Map<String, String> additionalConfig) {
+
+        return new KafkaProducerClientPool<>(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            producers,
+            keySerializer,
+            valueSerializer,
+            additionalConfig);
+    }
+
+    public <K, V> KafkaConsumerClient<K, V> consumer(
+        String groupID,
+        String offset,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
+        return consumer(groupID, offset, keyDeserializer, valueDeserializer, Map.of());
+    }
+
+    public <K, V> KafkaConsumerClient<K, V> consumer(
+        String groupID,
+        String offset,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer,
+        Map<String, String> additionalConfig) {
+
+        return new KafkaConsumerClient<>(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            groupID,
+            offset,
+            keyDeserializer,
+            valueDeserializer,
+            additionalConfig);
+    }
+
+    public <K, V> KafkaConsumerClientPool<K, V> consumerPool(
+        String groupID,
+        int consumers,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
+        return new KafkaConsumerClientPool<>(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            groupID,
+            authMethod,
+            consumers,
+            keyDeserializer,
+            valueDeserializer);
+    }
+
+    public KafkaAdmin admin() {
+        return new KafkaAdmin(bootstrapHost, authMethod.configs(bootstrapHost, clientID, clientSecret));
+    }
+}
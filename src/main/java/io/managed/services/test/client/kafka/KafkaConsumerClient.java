@@ -7,23 +7,26 @@ import io.vertx.core.Vertx;
 import io.vertx.kafka.client.common.TopicPartition;
 import io.vertx.kafka.client.consumer.KafkaConsumer;
 import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import static io.managed.services.test.TestUtils.forEach;
-
 public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
     private static final Logger LOGGER = LogManager.getLogger(KafkaConsumerClient.class);
     public final KafkaConsumer<K, V> consumer;
+    private final KafkaClientMetrics.Registration metrics;
 
     public KafkaConsumerClient(
         Vertx vertx,
@@ -93,6 +96,7 @@ public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
             keyDeserializer,
             valueDeserializer,
             additionalConfig);
+        metrics = KafkaClientMetrics.register(() -> consumer.unwrap().metrics());
     }
 
     @Override
@@ -120,35 +124,68 @@ public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
             });
     }
 
+    @Override
+    public Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, Handler<KafkaConsumerRecord<K, V>> handler) {
+
+        return resetToEnd(consumer, topicName)
+
+            .compose(__ -> {
+                LOGGER.info("subscribe to topic: {}", topicName);
+                return consumer.subscribe(topicName);
+            })
+
+            .map(__ -> {
+                LOGGER.info("consumer successfully subscribed to topic: {}", topicName);
+
+                return consumeMessages(expectedMessages, handler)
+                    .compose(___ -> consumer.unsubscribe());
+            });
+    }
+
+    /**
+     * The additional config for a consumer that receives only the records of committed transactions
+     * and the non transactional records.
+     */
+    public static Map<String, String> readCommittedConfig() {
+        return Map.of(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+    }
+
     public Future<Void> resetToEnd(String topic) {
         return resetToEnd(this.consumer, topic);
     }
 
     /**
      * Subscribe at the end of the topic
+     * <p>
+     * The end offsets of all partitions are fetched in a single request and committed for the consumer group,
+     * so that the next subscribe starts from the end without assigning and seeking each partition.
      */
     public static <K, V> Future<Void> resetToEnd(KafkaConsumer<K, V> consumer, String topic) {
 
         LOGGER.info("rest topic {} offset for all partitions to the end", topic);
+        var start = System.nanoTime();
         return consumer.partitionsFor(topic)
 
-            // seek the end for all partitions in a topic
             .map(partitions -> partitions.stream().map(p -> new TopicPartition(p.getTopic(), p.getPartition())).collect(Collectors.toSet()))
-            .compose(partitions -> consumer.assign(partitions)
-
-                .compose(__ -> consumer.seekToEnd(partitions))
 
-                .compose(__ -> forEach(partitions.iterator(), tp -> consumer.position(tp)
-                    .map(p -> {
-                        LOGGER.info("reset partition {}-{} to offset {}", tp.getTopic(), tp.getPartition(), p);
-                        return null;
-                    }))))
-
-            // commit all partitions offset
-            .compose(__ -> consumer.commit())
+            // fetch the end offsets of all partitions at once
+            .compose(partitions -> consumer.endOffsets(partitions))
+
+            // commit the end offsets of all partitions
+            .compose(offsets -> {
+                Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+                offsets.forEach((tp, offset) -> {
+                    LOGGER.debug("reset partition {}-{} to offset {}", tp.getTopic(), tp.getPartition(), offset);
+                    commits.put(tp, new OffsetAndMetadata(offset, null));
+                });
+                return consumer.commit(commits);
+            })
 
-            // unsubscribe from  all partitions
-            .compose(__ -> consumer.unsubscribe());
+            .map(offsets -> {
+                LOGGER.info("reset {} partitions of topic {} to the end in {}", offsets.size(), topic,
+                    Duration.ofNanos(System.nanoTime() - start));
+                return null;
+            });
     }
 
     // Method is almost exactly like consumeMessages but in this case it is public, does not care about data, and is used mostly
@@ -191,6 +228,9 @@ public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
         });
 
         consumer.handler(record -> {
+            if (latencyRecorder != null) {
+                latencyRecorder.record(record);
+            }
             messages.add(new ConsumerRecord<>(consumer.hashCode(), record));
             LOGGER.debug("msg consumed");
             if (messages.size() == expectedMessages) {
@@ -203,6 +243,41 @@ public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
         return promise.future();
     }
 
+    /**
+     * Consume the expected messages passing each record to the handler without retaining any of them,
+     * so that the memory used doesn't depend on the number of messages.
+     */
+    public Future<Void> consumeMessages(long expectedMessages, Handler<KafkaConsumerRecord<K, V>> handler) {
+        Promise<Void> promise = Promise.promise();
+        var counter = new AtomicLong();
+
+        consumer.exceptionHandler(e -> {
+            LOGGER.error("error while consuming {} messages", expectedMessages);
+            promise.tryFail(e);
+        });
+
+        consumer.handler(record -> {
+            if (latencyRecorder != null) {
+                latencyRecorder.record(record);
+            }
+            handler.handle(record);
+            if (counter.incrementAndGet() == expectedMessages) {
+                LOGGER.info("successfully received {} messages", expectedMessages);
+                consumer.commit().onComplete(promise);
+            }
+        });
+
+        return promise.future();
+    }
+
+    /**
+     * Consume the expected messages capturing each record in the store.
+     */
+    public Future<Void> consumeMessages(long expectedMessages, RecordCaptureStore store) {
+        var consumerHash = consumer.hashCode();
+        return consumeMessages(expectedMessages, record -> store.append(consumerHash, record));
+    }
+
     public Future<Void> subscribe(String topic) {
         LOGGER.info("subscribing consumer to topic '{}'", topic);
         return consumer.subscribe(topic);
@@ -223,6 +298,7 @@ public class KafkaConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
 
     @Override
     public Future<Void> asyncClose() {
+        metrics.close();
         return consumer.close()
             .onSuccess(v -> LOGGER.info("KafkaConsumerClient closed"))
             .onFailure(c -> LOGGER.error("failed to close KafkaConsumerClient", c));
@@ -1,27 +1,45 @@
 package io.managed.services.test.client.kafka;
 
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static io.managed.services.test.TestUtils.forEach;
 import static io.managed.services.test.client.kafka.KafkaConsumerClient.resetToEnd;
 
+/**
+ * Pool of consumers in the same consumer group.
+ * <p>
+ * Each consumer is created in its own verticle so that the consumers are spread across the event loops
+ * (or the worker pool) and their records are handled in parallel. The records of all consumers are
+ * collected in a lock-free queue and the consumers are subscribed and closed in parallel.
+ */
 public class KafkaConsumerClientPool<K, V> extends KafkaAsyncConsumer<K, V> {
     private static final Logger LOGGER = LogManager.getLogger(KafkaConsumerClientPool.class);
 
-    private final List<KafkaConsumer<K, V>> consumers;
+    private final Vertx vertx;
+    private final int concurrency;
+    private final Future<List<ConsumerVerticle<K, V>>> deployed;
 
     public KafkaConsumerClientPool(
         Vertx vertx,
@@ -34,85 +52,213 @@ public class KafkaConsumerClientPool<K, V> extends KafkaAsyncConsumer<K, V> {
         Class<? extends Deserializer<K>> keyDeserializer,
         Class<? extends Deserializer<V>> valueDeserializer) {
 
+        this(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            groupID,
+            authMethod,
+            numberOfConsumer,
+            numberOfConsumer,
+            false,
+            keyDeserializer,
+            valueDeserializer);
+    }
+
+    /**
+     * @param concurrency The max number of consumers to subscribe, unsubscribe or close at the same time
+     * @param worker      Deploy the consumers on worker contexts instead of event loop contexts
+     */
+    public KafkaConsumerClientPool(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        String groupID,
+        KafkaAuthMethod authMethod,
+        int numberOfConsumer,
+        int concurrency,
+        boolean worker,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
         if (numberOfConsumer < 1) {
             throw new InvalidParameterException("the numberOfConsumer can not be smaller then 1");
         }
 
-        consumers = IntStream.range(0, numberOfConsumer)
+        this.vertx = vertx;
+        this.concurrency = concurrency;
+
+        Supplier<KafkaConsumer<K, V>> factory = () -> KafkaConsumerClient.createConsumer(
+            vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            groupID,
+            "latest",
+            keyDeserializer,
+            valueDeserializer,
+            new HashMap<>());
+
+        var options = new DeploymentOptions().setWorker(worker);
+        List<Future> deployments = IntStream.range(0, numberOfConsumer)
             .boxed()
-            .map(__ -> KafkaConsumerClient.createConsumer(
-                vertx,
-                bootstrapHost,
-                clientID,
-                clientSecret,
-                authMethod,
-                groupID,
-                "latest",
-                keyDeserializer,
-                valueDeserializer,
-                new HashMap<>()))
+            .map(__ -> {
+                var verticle = new ConsumerVerticle<>(factory);
+                return vertx.deployVerticle(verticle, options).map(verticle);
+            })
             .collect(Collectors.toList());
+
+        this.deployed = CompositeFuture.all(deployments).map(c -> c.list());
     }
 
-    public List<KafkaConsumer<K, V>> getConsumers() {
-        return consumers;
+    /**
+     * Create the consumer in the verticle context so that its handlers are executed on that context.
+     */
+    private static class ConsumerVerticle<K, V> extends AbstractVerticle {
+        private final Supplier<KafkaConsumer<K, V>> factory;
+        private KafkaConsumer<K, V> consumer;
+        private KafkaClientMetrics.Registration metrics;
+
+        ConsumerVerticle(Supplier<KafkaConsumer<K, V>> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            consumer = factory.get();
+            metrics = KafkaClientMetrics.register(() -> consumer.unwrap().metrics());
+        }
+    }
+
+    private Future<List<KafkaConsumer<K, V>>> consumers() {
+        return deployed.map(l -> l.stream().map(v -> v.consumer).collect(Collectors.toList()));
     }
 
-    private Future<Void> subscribeAll(String topicName) {
+    /**
+     * @return the consumers once they have all been deployed
+     */
+    public List<KafkaConsumer<K, V>> getConsumers() {
+        if (!deployed.succeeded()) {
+            throw new IllegalStateException("the consumers are not deployed yet");
+        }
+        return consumers().result();
+    }
 
-        return forEach(consumers.iterator(), consumer -> {
+    private Future<Void> subscribeAll(List<KafkaConsumer<K, V>> consumers, String topicName) {
+        return forEach(consumers.iterator(), concurrency, consumer -> {
             LOGGER.info("subscribe consumer {} to topic {}", consumer.hashCode(), topicName);
             return consumer.subscribe(topicName);
         });
     }
 
-    private Future<Void> unsubscribeAll() {
-        return forEach(consumers.iterator(), consumer -> {
+    /**
+     * Commit the offsets of the consumed records, the auto commit runs only on poll and the records consumed
+     * since the last poll would be lost once the consumers are unsubscribed.
+     */
+    private Future<Void> commitAll(List<KafkaConsumer<K, V>> consumers) {
+        return forEach(consumers.iterator(), concurrency, consumer -> {
+            LOGGER.info("commit consumer {}", consumer.hashCode());
+            return consumer.commit();
+        });
+    }
+
+    private Future<Void> unsubscribeAll(List<KafkaConsumer<K, V>> consumers) {
+        return forEach(consumers.iterator(), concurrency, consumer -> {
             LOGGER.info("unsubscribe consumer {}", consumer.hashCode());
             return consumer.unsubscribe();
         });
     }
 
     private Future<Void> closeAll() {
-        return forEach(consumers.iterator(), consumer -> {
-            LOGGER.info("close consumer: {}", consumer.hashCode());
-            return consumer.close();
-        });
+        return deployed.compose(verticles -> forEach(verticles.iterator(), concurrency, verticle -> {
+            LOGGER.info("close consumer: {}", verticle.consumer.hashCode());
+            verticle.metrics.close();
+            return verticle.consumer.close()
+                .compose(__ -> vertx.undeploy(verticle.deploymentID()));
+        }));
     }
 
-    private Future<List<ConsumerRecord<K, V>>> consumeMessages(int expectedMessages) {
+    private Future<Void> consumeMessages(List<KafkaConsumer<K, V>> consumers, long expectedMessages, BiConsumer<Integer, KafkaConsumerRecord<K, V>> sink) {
         Promise<Void> promise = Promise.promise();
-        List<ConsumerRecord<K, V>> records = new LinkedList<>();
+        var counter = new AtomicLong();
 
         for (var consumer : consumers) {
             var consumerHash = consumer.hashCode();
             LOGGER.info("handle consumer: {}", consumerHash);
             consumer.handler(record -> {
-                records.add(new ConsumerRecord<>(consumerHash, record));
-                if (records.size() == expectedMessages) {
+                if (latencyRecorder != null) {
+                    latencyRecorder.record(record);
+                }
+                sink.accept(consumerHash, record);
+                if (counter.incrementAndGet() == expectedMessages) {
                     LOGGER.info("successfully received {} messages", expectedMessages);
                     promise.complete();
                 }
             });
         }
 
-        return promise.future().map(records);
+        return promise.future();
+    }
+
+    private Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, BiConsumer<Integer, KafkaConsumerRecord<K, V>> sink) {
+
+        return consumers().compose(consumers ->
+
+            // because multiple consumers are still going to connect to a single topic we can just
+            // use one consumer to reset all topic partitions
+            resetToEnd(consumers.get(0), topicName)
+
+                .compose(__ -> subscribeAll(consumers, topicName))
+
+                .map(__ -> {
+                    LOGGER.info("consumers successfully subscribed to topic: {}", topicName);
+
+                    return consumeMessages(consumers, expectedMessages, sink)
+                        .compose(r -> commitAll(consumers))
+                        .compose(r -> unsubscribeAll(consumers));
+                }));
     }
 
     public Future<Future<List<ConsumerRecord<K, V>>>> receiveAsync(String topicName, int expectedMessages) {
+        var records = new ConcurrentLinkedQueue<ConsumerRecord<K, V>>();
+        return receiveAsync(topicName, expectedMessages, (consumerHash, record) -> records.add(new ConsumerRecord<>(consumerHash, record)))
+            .map(f -> f.map(__ -> new ArrayList<>(records)));
+    }
 
-        // because multiple consumers are still going to connect to a single topic we can just
-        // use one consumer to reset all topic partitions
-        return resetToEnd(consumers.get(0), topicName)
+    /**
+     * Like {@link #receiveAsync(String, int)} but pass each record to the handler instead of collecting them,
+     * so that large number of records can be consumed in constant memory.
+     * <p>
+     * The handler is invoked concurrently from the context of each consumer and must be thread-safe.
+     */
+    @Override
+    public Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, Handler<KafkaConsumerRecord<K, V>> handler) {
+        return receiveAsync(topicName, expectedMessages, (consumerHash, record) -> handler.handle(record));
+    }
 
-            .compose(__ -> subscribeAll(topicName))
+    /**
+     * Like {@link #receiveAsync(String, int)} but capture the records in the store instead of collecting them.
+     */
+    public Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, RecordCaptureStore store) {
+        return receiveAsync(topicName, expectedMessages, store::append);
+    }
 
-            .map(__ -> {
-                LOGGER.info("consumers successfully subscribed to topic: {}", topicName);
+    /**
+     * Like {@link #receiveAsync(String, long, RecordCaptureStore)} but also pass each record to the handler,
+     * which is invoked concurrently from the context of each consumer and must be thread-safe.
+     */
+    public Future<Future<Void>> receiveAsync(
+        String topicName,
+        long expectedMessages,
+        RecordCaptureStore store,
+        Handler<KafkaConsumerRecord<K, V>> handler) {
 
-                return consumeMessages(expectedMessages)
-                    .compose(r -> unsubscribeAll().map(r));
-            });
+        return receiveAsync(topicName, expectedMessages, (consumerHash, record) -> {
+            store.append(consumerHash, record);
+            handler.handle(record);
+        });
     }
 
     @Override
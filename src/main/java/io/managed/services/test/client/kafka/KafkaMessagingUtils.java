@@ -1,12 +1,12 @@
 package io.managed.services.test.client.kafka;
 
+import io.managed.services.test.Environment;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.kafka.client.producer.KafkaProducerRecord;
 import io.vertx.kafka.client.producer.RecordMetadata;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.logging.log4j.LogManager;
@@ -14,17 +14,22 @@ import org.apache.logging.log4j.Logger;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static io.managed.services.test.TestUtils.message;
-import static org.slf4j.helpers.MessageFormatter.format;
 
 
 public class KafkaMessagingUtils {
     private static final Logger LOGGER = LogManager.getLogger(KafkaMessagingUtils.class);
 
+    /**
+     * The consumer group of the consumers created by {@link #testTopicWithNProducers}.
+     */
+    public static final String MULTI_PRODUCER_GROUP_ID = "multi-producer-test";
+
     public static Future<Void> testTopic(
         Vertx vertx,
         String bootstrapHost,
@@ -69,6 +74,31 @@ public class KafkaMessagingUtils {
             authMethod);
     }
 
+    public static Future<Void> testTopic(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        String topicName,
+        Duration timeout,
+        int messageCount,
+        int minMessageSize,
+        int maxMessageSize,
+        KafkaAuthMethod authMethod) {
+
+        return testTopic(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            topicName,
+            timeout,
+            messageCount,
+            minMessageSize,
+            maxMessageSize,
+            authMethod,
+            null);
+    }
+
     /**
      * Create a producer and consumer for the kafka instance and send n random messages from
      * the consumer to the producer and validate that each message reach the destination
@@ -81,6 +111,7 @@ public class KafkaMessagingUtils {
      * @param messageCount   Number of Messages to send
      * @param minMessageSize The min number of characters to use when generating the random messages
      * @param maxMessageSize The max number of characters to use when generating the random messages
+     * @param latency        If not null measure the end-to-end latency of each message and report it at the end
      * @return Future
      */
     public static Future<Void> testTopic(
@@ -93,19 +124,33 @@ public class KafkaMessagingUtils {
         int messageCount,
         int minMessageSize,
         int maxMessageSize,
-        KafkaAuthMethod authMethod) {
+        KafkaAuthMethod authMethod,
+        LatencyRecorder latency) {
 
         // generate random strings to send as messages
         var messages = generateRandomMessages(messageCount, minMessageSize, maxMessageSize);
 
         // initialize the consumer and the producer
-        var consumer = new KafkaConsumerClient<>(vertx,
-            bootstrapHost,
-            clientID,
-            clientSecret,
-            authMethod,
-            StringDeserializer.class,
-            StringDeserializer.class);
+        KafkaAsyncConsumer<String, String> consumer;
+        if (Environment.KAFKA_POLL_CONSUMER) {
+            consumer = new KafkaPollConsumerClient<>(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                "test-group",
+                "latest",
+                StringDeserializer.class,
+                StringDeserializer.class);
+        } else {
+            consumer = new KafkaConsumerClient<>(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                StringDeserializer.class,
+                StringDeserializer.class);
+        }
 
         var producer = new KafkaProducerClient<>(
             vertx,
@@ -116,7 +161,7 @@ public class KafkaMessagingUtils {
             StringSerializer.class,
             StringSerializer.class);
 
-        return produceAndConsumeMessages(vertx, producer, consumer, topicName, timeout, messages)
+        return produceAndConsumeMessages(vertx, producer, consumer, topicName, timeout, messages, latency)
 
             .eventually(__ -> {
                 // close the producer and consumer in any case
@@ -124,7 +169,79 @@ public class KafkaMessagingUtils {
                 return CompositeFuture.join(producer.asyncClose(), consumer.asyncClose());
             })
 
-            .compose(records -> assertRecords(messages, records));
+            .onSuccess(__ -> {
+                if (latency != null) {
+                    latency.report();
+                }
+            });
+    }
+
+    /**
+     * Same as {@link #testTopic(Vertx, String, String, String, String, int, int, int)} but lease the producer
+     * and the consumer from the cache, so that consecutive calls with the same credentials don't have to
+     * login and connect again.
+     * <p>
+     * The cached clients stay authenticated until the broker re-authenticates them, so don't share the cache
+     * across a change of the credentials or of the service account, for example to test that a deleted
+     * service account can not connect anymore.
+     */
+    public static Future<Void> testTopic(
+        KafkaClientCache cache,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        String topicName,
+        int messageCount,
+        int minMessageSize,
+        int maxMessageSize) {
+
+        var authMethod = KafkaAuthMethod.OAUTH;
+        var messages = generateRandomMessages(messageCount, minMessageSize, maxMessageSize);
+
+        KafkaClientCache.Lease<? extends KafkaAsyncConsumer<String, String>> consumer;
+        if (Environment.KAFKA_POLL_CONSUMER) {
+            consumer = cache.pollConsumer(
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                "test-group",
+                StringDeserializer.class,
+                StringDeserializer.class);
+        } else {
+            consumer = cache.consumer(
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                "test-group",
+                StringDeserializer.class,
+                StringDeserializer.class);
+        }
+
+        KafkaClientCache.Lease<KafkaProducerClient<String, String>> producer;
+        try {
+            producer = cache.producer(
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                authMethod,
+                StringSerializer.class,
+                StringSerializer.class);
+        } catch (RuntimeException e) {
+            return consumer.release().transform(__ -> Future.failedFuture(e));
+        }
+
+        return produceAndConsumeMessages(cache.vertx(), producer.client(), consumer.client(), topicName, Duration.ofMinutes(3), messages, null)
+
+            .transform(r -> {
+                // return the producer and consumer to the cache only if they worked, otherwise close them
+                LOGGER.info("release the consumer and the producer for topic {}", topicName);
+                var released = r.succeeded()
+                    ? CompositeFuture.join(producer.release(), consumer.release())
+                    : CompositeFuture.join(producer.invalidate(), consumer.invalidate());
+                return released.transform(__ -> r.succeeded() ? Future.<Void>succeededFuture() : Future.<Void>failedFuture(r.cause()));
+            });
     }
 
 
@@ -167,8 +284,11 @@ public class KafkaMessagingUtils {
                 StringSerializer.class,
                 StringSerializer.class);
 
-        //return produceAndConsumeMessagesWithNConsumers(vertx, producer, consumersList, topicName, timeout, messages)
-        return produceAndConsumeMessagesWithNConsumers(vertx, producer, consumersList, topicName, timeout, messages)
+        // verify the records of each independent consumer as they arrive
+        var verifier = new MessageVerifier(messages);
+        var verifiers = consumersList.stream().map(__ -> verifier.copy()).collect(Collectors.toList());
+
+        return produceAndConsumeMessagesWithNConsumers(vertx, producer, consumersList, topicName, timeout, messages, verifiers)
 
                 .eventually(__ -> {
                     // close the producer and consumer in any case
@@ -176,7 +296,10 @@ public class KafkaMessagingUtils {
                     List<Future> x = consumersList.stream().map(KafkaAsyncConsumer::asyncClose).collect(Collectors.toList());
                     CompositeFuture f = CompositeFuture.all(x);
                     return CompositeFuture.join(producer.asyncClose(), f);
-                });
+                })
+
+                // assert that each independent consumer received all messages
+                .compose(c -> verifyEachConsumer(verifiers).map(c));
     }
 
 
@@ -234,16 +357,217 @@ public class KafkaMessagingUtils {
             StringSerializer.class,
             StringSerializer.class);
 
-        return produceAndConsumeMessages(vertx, producer, consumer, topicName, timeout, messages)
+        // capture only the digest and the position of each record instead of retaining the records
+        var store = new RecordCaptureStore(topicName);
+
+        // the records are verified as they arrive from the context of each consumer
+        var verifier = new MessageVerifier(messages);
+        var subscribe = consumer.receiveAsync(topicName, messageCount, store, record -> {
+            synchronized (verifier) {
+                verifier.accept(record);
+            }
+        });
+
+        LOGGER.info("start listening for {} messages on topic {}", messageCount, topicName);
+        return produceAndConsumeMessages(vertx, producer, subscribe, topicName, timeout, messages, null)
+            .onFailure(__ -> LOGGER.error("failed to receive {} messages on topic {}; {}", messageCount, topicName, store))
 
             // assert the records
-            .compose(records -> assertRecords(messages, records)
+            .compose(__ -> {
+                synchronized (store) {
+                    LOGGER.info("verify {} messages on topic {}; {}", messageCount, topicName, store);
+                    store.partitionSummaries().forEach((p, s) -> LOGGER.info("partition {}; {}", p, s));
+                }
+                synchronized (verifier) {
+                    return verifier.verify();
+                }
+            })
 
-                .eventually(__ -> {
-                    // close the producer and consumer in any case
-                    LOGGER.info("close the consumer and the producer for topic {}", topicName);
-                    return CompositeFuture.join(producer.asyncClose(), consumer.asyncClose());
-                }));
+            .eventually(__ -> {
+                // close the producer and consumer in any case
+                LOGGER.info("close the consumer and the producer for topic {}", topicName);
+                store.close();
+                return CompositeFuture.join(producer.asyncClose(), consumer.asyncClose());
+            });
+    }
+
+    /**
+     * Same as {@link #testTopic(Vertx, String, String, String, String, Duration, int, int, int, KafkaAuthMethod)}
+     * but the messages are generated while they are sent and each one is stamped with a sequence number and
+     * a checksum which are verified by the consumer, so the memory used doesn't depend on the number of messages
+     * and the test can run for hours.
+     */
+    public static Future<Void> testTopicWithSequenceVerification(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        String topicName,
+        Duration timeout,
+        long messageCount,
+        int minMessageSize,
+        int maxMessageSize,
+        KafkaAuthMethod authMethod) {
+
+        var payloads = new PayloadGenerator(minMessageSize, maxMessageSize);
+        var stamper = new SequenceStamper();
+        var verifier = new SequenceVerifier();
+
+        var consumer = new KafkaConsumerClient<>(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            StringDeserializer.class,
+            StringDeserializer.class);
+
+        var producer = new KafkaProducerClient<>(
+            vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            StringSerializer.class,
+            StringSerializer.class);
+
+        var timeoutPromise = Promise.<Void>promise();
+        var timeoutTimer = vertx.setTimer(timeout.toMillis(), __ -> {
+            LOGGER.error("timeout after {} waiting for {} messages on topic {}; {}", timeout, messageCount, topicName, verifier);
+            timeoutPromise.tryFail(message("timeout after {} waiting for {} messages on topic: {}", timeout, messageCount, topicName));
+        });
+
+        var complete = consumer.resetToEnd(topicName)
+            .compose(__ -> consumer.subscribe(topicName))
+            .compose(__ -> {
+                var consumeFuture = consumer.consumeMessages(messageCount, verifier::accept);
+
+                LOGGER.info("start sending {} sequenced messages on topic {}", messageCount, topicName);
+                var produceFuture = producer.sendAsync(
+                    payloads.strings(messageCount),
+                    m -> stamper.stamp(KafkaProducerRecord.create(topicName, m)),
+                    SendRate.unlimited());
+
+                return CompositeFuture.all(produceFuture, consumeFuture);
+            })
+            .onComplete(__ -> {
+                vertx.cancelTimer(timeoutTimer);
+                timeoutPromise.tryComplete();
+            });
+
+        return CompositeFuture.all(complete, timeoutPromise.future())
+
+            .eventually(__ -> {
+                LOGGER.info("close the consumer and the producer for topic {}", topicName);
+                return CompositeFuture.join(producer.asyncClose(), consumer.asyncClose());
+            })
+
+            .compose(__ -> {
+                LOGGER.info("verify {} sequenced messages on topic {}; {}", messageCount, topicName, verifier);
+                return verifier.verify(stamper);
+            });
+    }
+
+    /**
+     * Create a pool of producers and a pool of consumers in the same consumer group for the kafka instance
+     * and send sequenced messages from all producers at the same time, then verify that each message
+     * reached the consumers exactly once like in
+     * {@link #testTopicWithSequenceVerification(Vertx, String, String, String, String, Duration, long, int, int, KafkaAuthMethod)}.
+     *
+     * @param messagesPerProducer Number of messages to send from each producer
+     * @param numberOfProducers   The number of producers to create
+     * @param numberOfConsumers   The number of consumers to create
+     * @param partitionAffine     Pin each producer to its own subset of the topic partitions
+     * @return the aggregated stats of all producers
+     */
+    public static Future<SendStats> testTopicWithNProducers(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        String topicName,
+        Duration timeout,
+        long messagesPerProducer,
+        int minMessageSize,
+        int maxMessageSize,
+        int numberOfProducers,
+        int numberOfConsumers,
+        boolean partitionAffine) {
+
+        var authMethod = KafkaAuthMethod.OAUTH;
+        var groupID = MULTI_PRODUCER_GROUP_ID;
+        var messageCount = messagesPerProducer * numberOfProducers;
+
+        var stampers = IntStream.range(0, numberOfProducers)
+            .mapToObj(__ -> new SequenceStamper())
+            .toArray(SequenceStamper[]::new);
+        var verifier = new SequenceVerifier();
+
+        var consumer = new KafkaConsumerClientPool<>(
+            vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            groupID,
+            authMethod,
+            numberOfConsumers,
+            StringDeserializer.class,
+            StringDeserializer.class);
+
+        var producer = new KafkaProducerClientPool<>(
+            vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            numberOfProducers,
+            StringSerializer.class,
+            StringSerializer.class,
+            new HashMap<>());
+
+        var timeoutPromise = Promise.<Void>promise();
+        var timeoutTimer = vertx.setTimer(timeout.toMillis(), __ -> {
+            LOGGER.error("timeout after {} waiting for {} messages on topic {}; {}", timeout, messageCount, topicName, verifier);
+            timeoutPromise.tryFail(message("timeout after {} waiting for {} messages on topic: {}", timeout, messageCount, topicName));
+        });
+
+        var stats = Promise.<SendStats>promise();
+
+        // the records are verified from the context of each consumer
+        var complete = consumer.receiveAsync(topicName, messageCount, record -> {
+            synchronized (verifier) {
+                verifier.accept(record);
+            }
+        }).compose(consumeFuture -> {
+
+            LOGGER.info("start sending {} sequenced messages from {} producers on topic {}", messageCount, numberOfProducers, topicName);
+            var produceFuture = producer.sendAsync(
+                    topicName,
+                    i -> new PayloadGenerator(minMessageSize, maxMessageSize).strings(messagesPerProducer),
+                    SendRate.unlimited(),
+                    partitionAffine,
+                    (i, topic, partition, value) -> stampers[i].stamp(KafkaProducerRecord.create(topic, null, value, null, partition)))
+                .onSuccess(l -> stats.complete(SendStats.aggregate(l)));
+
+            return CompositeFuture.all(produceFuture, consumeFuture);
+        }).onComplete(__ -> {
+            vertx.cancelTimer(timeoutTimer);
+            timeoutPromise.tryComplete();
+        });
+
+        return CompositeFuture.all(complete, timeoutPromise.future())
+
+            .eventually(__ -> {
+                LOGGER.info("close the consumers and the producers for topic {}", topicName);
+                return CompositeFuture.join(producer.asyncClose(), consumer.asyncClose());
+            })
+
+            .compose(__ -> {
+                LOGGER.info("verify {} sequenced messages on topic {}; {}", messageCount, topicName, verifier);
+                synchronized (verifier) {
+                    return verifier.verify(stampers);
+                }
+            })
+            .compose(__ -> stats.future());
     }
 
     public static Future<RecordMetadata> sendSingleMessage(
@@ -257,7 +581,7 @@ public class KafkaMessagingUtils {
         return producer.send(record);
     }
 
-    public static Future<List<ConsumerRecord<String, String>>> produceAndConsumeMessages(
+    public static Future<Void> produceAndConsumeMessages(
         Vertx vertx,
         KafkaProducerClient<String, String> producer,
         KafkaAsyncConsumer<String, String> consumer,
@@ -265,17 +589,70 @@ public class KafkaMessagingUtils {
         Duration timeout,
         List<String> messages) {
 
+        return produceAndConsumeMessages(vertx, producer, consumer, topicName, timeout, messages, null);
+    }
+
+    /**
+     * Same as {@link #produceAndConsumeMessages(Vertx, KafkaProducerClient, KafkaAsyncConsumer, String, Duration, List)}
+     * but if the latency recorder is set each message is stamped with the send time and the consumer records
+     * the end-to-end latency of each message.
+     * <p>
+     * Each received record is verified against the messages as it arrives, and the future fails if any message
+     * is missing, unexpected or duplicated.
+     */
+    public static Future<Void> produceAndConsumeMessages(
+        Vertx vertx,
+        KafkaProducerClient<String, String> producer,
+        KafkaAsyncConsumer<String, String> consumer,
+        String topicName,
+        Duration timeout,
+        List<String> messages,
+        LatencyRecorder latency) {
+
         LOGGER.info("start listening for {} messages on topic {}", messages.size(), topicName);
 
-        return consumer.receiveAsync(topicName, messages.size())
+        var verifier = new MessageVerifier(messages);
+        consumer.recordLatency(latency);
+        return produceAndConsumeMessages(vertx, producer, consumer.receiveAsync(topicName, messages.size(), verifier::accept), topicName, timeout, messages, latency)
+            .compose(__ -> {
+                LOGGER.info("received {} messages on topic {}", verifier.received(), topicName);
+                return verifier.verify();
+            });
+    }
+
+    /**
+     * Send the messages once the consumers have subscribed and wait until all messages are sent and received.
+     *
+     * @param subscribe The consumers subscription, which completes with the future of the received messages
+     * @param latency   Stamp each message with its send time if set
+     * @return the received messages or a failure if they are not sent and received before the timeout
+     */
+    public static <T> Future<T> produceAndConsumeMessages(
+        Vertx vertx,
+        KafkaProducerClient<String, String> producer,
+        Future<Future<T>> subscribe,
+        String topicName,
+        Duration timeout,
+        List<String> messages,
+        LatencyRecorder latency) {
+
+        return subscribe
             .compose(consumeFuture -> {
                 LOGGER.info("start sending {} messages on topic {}", messages.size(), topicName);
-                var produceFuture = producer.sendAsync(topicName, messages);
+                Future<?> produceFuture;
+                if (latency == null) {
+                    produceFuture = producer.sendAsync(topicName, messages);
+                } else {
+                    produceFuture = producer.sendAsync(
+                        messages.iterator(),
+                        m -> latency.stamp(KafkaProducerRecord.create(topicName, m)),
+                        SendRate.unlimited());
+                }
 
                 var timeoutPromise = Promise.promise();
                 var timeoutTimer = vertx.setTimer(timeout.toMillis(), __ -> {
                     LOGGER.error("timeout after {} waiting for {} messages on topic {}", timeout, messages.size(), topicName);
-                    timeoutPromise.fail(message("timeout after {} waiting for {} messages on topic: {}", timeout, messages.size(), topicName));
+                    timeoutPromise.tryFail(message("timeout after {} waiting for {} messages on topic: {}", timeout, messages.size(), topicName));
                 });
 
                 var completeFuture = CompositeFuture.join(produceFuture, consumeFuture)
@@ -288,22 +665,22 @@ public class KafkaMessagingUtils {
 
                 return completeOrTimeoutFuture.map(__ -> {
                     LOGGER.info("producer and consumer has complete for topic {}", topicName);
-
-                    var records = consumeFuture.result();
-                    LOGGER.info("received {} messages on topic {}", records.size(), topicName);
-
-                    return records;
+                    return consumeFuture.result();
                 });
             });
     }
 
+    /**
+     * @param verifiers The verifier of each consumer in the same order, to which the consumer passes each record
+     */
     public static Future<CompositeFuture> produceAndConsumeMessagesWithNConsumers(
         Vertx vertx,
         KafkaProducerClient<String, String> producer,
         List<KafkaConsumerClient<String, String>> consumersList,
         String topicName,
         Duration timeout,
-        List<String> messages) {
+        List<String> messages,
+        List<MessageVerifier> verifiers) {
 
         List<Future> fn = consumersList
                 .stream()
@@ -327,7 +704,9 @@ public class KafkaMessagingUtils {
                     });
                     var completeFuture = produceFuture
                             .compose(q -> {
-                                List<Future> l = consumersList.stream().map(consumer -> consumer.consumeMessages(messages.size())).collect(Collectors.toList());
+                                List<Future> l = IntStream.range(0, consumersList.size())
+                                    .mapToObj(i -> consumersList.get(i).consumeMessages((long) messages.size(), verifiers.get(i)::accept))
+                                    .collect(Collectors.toList());
                                 var cmp = CompositeFuture.all(l);
 
                                 return cmp;
@@ -349,10 +728,12 @@ public class KafkaMessagingUtils {
     }
 
     public static List<String> generateRandomMessages(int messageCount, int minMessageSize, int maxMessageSize) {
-        return IntStream.range(0, messageCount)
-            .boxed()
-            .map(v -> RandomStringUtils.random((int) random(minMessageSize, maxMessageSize), true, true))
-            .collect(Collectors.toList());
+        var generator = new PayloadGenerator(minMessageSize, maxMessageSize);
+        var messages = new ArrayList<String>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messages.add(generator.nextString());
+        }
+        return messages;
     }
 
     private static Future<Void> assertUnusedConsumers(
@@ -376,30 +757,9 @@ public class KafkaMessagingUtils {
         return Future.failedFuture(new AssertionError(message));
     }
 
-    private static Future<Void> assertRecords(List<String> expectedMessages, List<ConsumerRecord<String, String>> receivedRecords) {
-        return assertMessages(expectedMessages, receivedRecords.stream().map(r -> r.record().value()).collect(Collectors.toList()));
-    }
-
-    private static Future<Void> assertMessages(List<String> expectedMessages, List<String> receivedMessages) {
-
-        var extraReceivedMessages = receivedMessages.stream()
-            .filter(r -> {
-                var i = expectedMessages.indexOf(r);
-                if (i != -1) {
-                    expectedMessages.remove(i);
-                    return false;
-                }
-                return true;
-            })
-            .collect(Collectors.toList());
-
-        if (extraReceivedMessages.isEmpty() && expectedMessages.isEmpty()) {
-            return Future.succeededFuture();
-        }
-
-        var message = format("failed to send all messages or/and received some extra messages;"
-            + " not-received-messages: {}, extra-received-messages: {}", expectedMessages, extraReceivedMessages).getMessage();
-        return Future.failedFuture(new AssertionError(message));
+    private static Future<Void> verifyEachConsumer(List<MessageVerifier> verifiers) {
+        List<Future> results = verifiers.stream().map(MessageVerifier::verify).collect(Collectors.toList());
+        return CompositeFuture.all(results).mapEmpty();
     }
 
     public static long random(long from, long to) {
@@ -0,0 +1,222 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Consumer built on the poll loop of the native Kafka consumer running on its own thread.
+ * <p>
+ * The records are handled in batches on the poll thread without dispatching each record through the
+ * event loop, and only the results are handed back to the Vert.x context that created the consumer,
+ * so it can be used in place of the {@link KafkaConsumerClient} to compare the throughput of the two engines.
+ */
+public class KafkaPollConsumerClient<K, V> extends KafkaAsyncConsumer<K, V> {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaPollConsumerClient.class);
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
+    private final Context context;
+    private final ExecutorService thread;
+    private final KafkaConsumer<K, V> consumer;
+    private final KafkaClientMetrics.Registration metrics;
+    private volatile boolean closed;
+    private Future<Void> close;
+
+    public KafkaPollConsumerClient(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod method,
+        String groupID,
+        String offset,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer) {
+
+        this(vertx, bootstrapHost, clientID, clientSecret, method, groupID, offset, keyDeserializer, valueDeserializer, new HashMap<>());
+    }
+
+    public KafkaPollConsumerClient(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod method,
+        String groupID,
+        String offset,
+        Class<? extends Deserializer<K>> keyDeserializer,
+        Class<? extends Deserializer<V>> valueDeserializer,
+        Map<String, String> additionalConfig) {
+
+        LOGGER.info("initialize kafka poll consumer; host: {}; clientID: {}; clientSecret: ***", bootstrapHost, clientID);
+        this.context = vertx.getOrCreateContext();
+
+        Map<String, Object> config = new HashMap<>(consumerConfig(bootstrapHost, clientID, clientSecret, method,
+            groupID, offset, keyDeserializer, valueDeserializer, additionalConfig));
+        this.consumer = new KafkaConsumer<>(config);
+        this.metrics = KafkaClientMetrics.register(consumer::metrics);
+
+        this.thread = Executors.newSingleThreadExecutor(r -> {
+            var t = new Thread(r, "kafka-poll-consumer-" + groupID);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Run the task on the poll thread, because the native consumer is not thread-safe, and complete the
+     * future on the Vert.x context.
+     */
+    private <T> Future<T> execute(Callable<T> task) {
+        Promise<T> promise = Promise.promise();
+        thread.execute(() -> {
+            try {
+                var result = task.call();
+                context.runOnContext(__ -> promise.complete(result));
+            } catch (Exception e) {
+                context.runOnContext(__ -> promise.fail(e));
+            }
+        });
+        return promise.future();
+    }
+
+    /**
+     * Commit the end offsets of all partitions of the topic, which are fetched in a single request.
+     */
+    private void resetToEnd(String topicName) {
+        var start = System.nanoTime();
+        var partitions = consumer.partitionsFor(topicName).stream()
+            .map(p -> new TopicPartition(p.topic(), p.partition()))
+            .collect(Collectors.toList());
+
+        var commits = consumer.endOffsets(partitions).entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> new OffsetAndMetadata(e.getValue())));
+        consumer.commitSync(commits);
+
+        LOGGER.info("reset {} partitions of topic {} to the end in {}", commits.size(), topicName,
+            Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private long poll(long expectedMessages, Consumer<ConsumerRecords<K, V>> batchHandler) {
+        long received = 0;
+        try {
+            while (received < expectedMessages && !closed) {
+                var records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    continue;
+                }
+
+                if (latencyRecorder != null) {
+                    records.forEach(latencyRecorder::record);
+                }
+                batchHandler.accept(records);
+                received += records.count();
+            }
+        } catch (WakeupException e) {
+            // the consumer has been closed
+        }
+
+        if (received < expectedMessages) {
+            throw new IllegalStateException(String.format(
+                "consumer closed after receiving %d of %d messages", received, expectedMessages));
+        }
+
+        LOGGER.info("successfully received {} messages", received);
+        consumer.commitSync();
+        consumer.unsubscribe();
+        return received;
+    }
+
+    /**
+     * Subscribe to the end of the topic and pass each batch of records to the batch handler on the poll thread
+     * until the expected messages are received.
+     *
+     * @return a future completed once subscribed which contains the future completed with the number of received
+     * messages, it can be more than the expected messages if the last batch contains more records
+     */
+    public Future<Future<Long>> receiveAsync(String topicName, long expectedMessages, Consumer<ConsumerRecords<K, V>> batchHandler) {
+        return execute(() -> {
+            resetToEnd(topicName);
+
+            LOGGER.info("subscribe to topic: {}", topicName);
+            consumer.subscribe(List.of(topicName));
+            return null;
+        }).map(__ -> {
+            LOGGER.info("consumer successfully subscribed to topic: {}", topicName);
+            return execute(() -> poll(expectedMessages, batchHandler));
+        });
+    }
+
+    /**
+     * Like the {@link KafkaConsumerClient} all received records are returned, including the records of the last
+     * batch above the expected messages, so that duplicated or unexpected records can be detected.
+     */
+    @Override
+    public Future<Future<List<ConsumerRecord<K, V>>>> receiveAsync(String topicName, int expectedMessages) {
+        var consumerHash = hashCode();
+        var messages = new ArrayList<ConsumerRecord<K, V>>(expectedMessages);
+
+        return receiveAsync(topicName, expectedMessages, (ConsumerRecords<K, V> records) -> {
+            for (var record : records) {
+                messages.add(new ConsumerRecord<>(consumerHash, record));
+            }
+        }).map(f -> f.map(__ -> messages));
+    }
+
+    /**
+     * The handler is invoked on the poll thread.
+     */
+    @Override
+    public Future<Future<Void>> receiveAsync(String topicName, long expectedMessages, Handler<KafkaConsumerRecord<K, V>> handler) {
+        var consumerHash = hashCode();
+
+        return receiveAsync(topicName, expectedMessages, (ConsumerRecords<K, V> records) -> {
+            for (var record : records) {
+                handler.handle(new ConsumerRecord<>(consumerHash, record).record());
+            }
+        }).map(f -> f.mapEmpty());
+    }
+
+    @Override
+    public synchronized Future<Void> asyncClose() {
+        // the poll thread is shut down by the first close
+        if (close != null) {
+            return close;
+        }
+
+        metrics.close();
+        closed = true;
+        consumer.wakeup();
+        close = execute(() -> {
+            consumer.close();
+            return null;
+        }).<Void>mapEmpty()
+            .onSuccess(v -> LOGGER.info("KafkaPollConsumerClient closed"))
+            .onFailure(c -> LOGGER.error("failed to close KafkaPollConsumerClient", c));
+        thread.shutdown();
+        return close;
+    }
+}
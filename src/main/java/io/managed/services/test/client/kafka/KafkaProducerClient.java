@@ -1,24 +1,34 @@
 package io.managed.services.test.client.kafka;
 
 import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.kafka.client.common.PartitionInfo;
 import io.vertx.kafka.client.producer.KafkaProducer;
 import io.vertx.kafka.client.producer.KafkaProducerRecord;
 import io.vertx.kafka.client.producer.RecordMetadata;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.serialization.Serializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class KafkaProducerClient<K, V> implements AutoCloseable {
     private static final Logger LOGGER = LogManager.getLogger(KafkaProducerClient.class);
+    private final Vertx vertx;
+    private final Context context;
     private final KafkaProducer<K, V> producer;
+    private final KafkaClientMetrics.Registration metricsRegistration;
 
     public KafkaProducerClient(
         Vertx vertx,
@@ -50,6 +60,8 @@ public class KafkaProducerClient<K, V> implements AutoCloseable {
         Map<String, String> additionalConfig) {
 
         LOGGER.info("initialize kafka producer; host: {}; clientID: {}; clientSecret: ***", bootstrapHost, clientID);
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
         producer = createProducer(
             vertx,
             bootstrapHost,
@@ -59,6 +71,7 @@ public class KafkaProducerClient<K, V> implements AutoCloseable {
             keySerializer,
             valueSerializer,
             additionalConfig);
+        metricsRegistration = KafkaClientMetrics.register(this::metrics);
     }
 
     public Future<List<RecordMetadata>> sendAsync(String topicName, List<V> messages) {
@@ -72,6 +85,45 @@ public class KafkaProducerClient<K, V> implements AutoCloseable {
             .map(c -> c.list());
     }
 
+    public Future<SendStats> sendAsync(String topicName, List<V> messages, SendRate rate) {
+        return sendAsync(topicName, messages.iterator(), rate);
+    }
+
+    /**
+     * Send the messages to the topic at the given rate keeping at most {@link SendRate#maxInFlight()} sends in flight
+     * and pausing while the producer write queue is full.
+     *
+     * @param topicName Topic Name
+     * @param messages  Messages to send, they are pulled from the iterator only when they are due
+     * @param rate      Target rate
+     * @return the achieved throughput and how much the sender fell behind the target schedule
+     */
+    public Future<SendStats> sendAsync(String topicName, Iterator<V> messages, SendRate rate) {
+        return sendAsync(messages, message -> KafkaProducerRecord.create(topicName, message), rate)
+            .onSuccess(s -> LOGGER.info("sent messages to topic: {} at rate {}; {}", topicName, rate, s));
+    }
+
+    /**
+     * Send the messages following the rate, each message is turned into a record by the toRecord function
+     * when it is due.
+     */
+    public <M> Future<SendStats> sendAsync(Iterator<M> messages, Function<M, KafkaProducerRecord<K, V>> toRecord, SendRate rate) {
+        return sendAsync(messages, toRecord, rate, (record, metadata) -> { });
+    }
+
+    /**
+     * Same as {@link #sendAsync(Iterator, Function, SendRate)} and pass each acknowledged record with its
+     * metadata to onAck, which is invoked on the producer context.
+     */
+    public <M> Future<SendStats> sendAsync(
+        Iterator<M> messages,
+        Function<M, KafkaProducerRecord<K, V>> toRecord,
+        SendRate rate,
+        BiConsumer<KafkaProducerRecord<K, V>, RecordMetadata> onAck) {
+
+        return new RateLimitedSend<>(vertx, context, producer, messages, toRecord, rate, onAck).start();
+    }
+
     private static <K, V> KafkaProducer<K, V> createProducer(
         Vertx vertx,
         String bootstrapHost,
@@ -99,7 +151,47 @@ public class KafkaProducerClient<K, V> implements AutoCloseable {
         return producer.send(record);
     }
 
+    /**
+     * The additional config for a transactional producer, {@link #initTransactions()} must be called
+     * once before the first transaction.
+     *
+     * @param transactionalID The transactional id, it must be unique for each producer instance
+     */
+    public static Map<String, String> transactionalConfig(String transactionalID) {
+        return Map.of(
+            ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true",
+            ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalID);
+    }
+
+    public Future<Void> initTransactions() {
+        return producer.initTransactions();
+    }
+
+    public Future<Void> beginTransaction() {
+        return producer.beginTransaction();
+    }
+
+    public Future<Void> commitTransaction() {
+        return producer.commitTransaction();
+    }
+
+    public Future<Void> abortTransaction() {
+        return producer.abortTransaction();
+    }
+
+    /**
+     * @return the metrics of the native Kafka producer
+     */
+    public Map<MetricName, ? extends Metric> metrics() {
+        return producer.unwrap().metrics();
+    }
+
+    public Future<List<PartitionInfo>> partitionsFor(String topic) {
+        return producer.partitionsFor(topic);
+    }
+
     public Future<Void> asyncClose() {
+        metricsRegistration.close();
         return producer.close()
             .onSuccess(v -> LOGGER.info("KafkaProducerClient closed"))
             .onFailure(c -> LOGGER.error("failed to close KafkaProducerClient", c));
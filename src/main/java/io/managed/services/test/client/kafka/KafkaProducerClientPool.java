@@ -0,0 +1,216 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.common.PartitionInfo;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Pool of producers sending to the same topic at the same time.
+ * <p>
+ * Like the {@link KafkaConsumerClientPool} each producer is created in its own verticle so that the sends
+ * and their completions of each producer run on a different event loop. Optionally each producer can be
+ * pinned to its own subset of the topic partitions, in which case producer i sends only to the partitions
+ * p where p % numberOfProducers == i.
+ */
+public class KafkaProducerClientPool<K, V> implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaProducerClientPool.class);
+
+    private final Vertx vertx;
+    private final Future<List<ProducerVerticle<K, V>>> deployed;
+
+    /**
+     * Create the record to send for the producer with the given index.
+     */
+    @FunctionalInterface
+    public interface RecordFactory<K, V> {
+
+        /**
+         * @param producer  The index of the producer in the pool
+         * @param partition The partition assigned to the record or null if the producer is not pinned to partitions
+         */
+        KafkaProducerRecord<K, V> create(int producer, String topicName, Integer partition, V value);
+    }
+
+    public KafkaProducerClientPool(
+        Vertx vertx,
+        String bootstrapHost,
+        String clientID,
+        String clientSecret,
+        KafkaAuthMethod authMethod,
+        int numberOfProducers,
+        Class<? extends Serializer<K>> keySerializer,
+        Class<? extends Serializer<V>> valueSerializer,
+        Map<String, String> additionalConfig) {
+
+        if (numberOfProducers < 1) {
+            throw new InvalidParameterException("the numberOfProducers can not be smaller then 1");
+        }
+
+        this.vertx = vertx;
+
+        Supplier<KafkaProducerClient<K, V>> factory = () -> new KafkaProducerClient<>(
+            vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            authMethod,
+            keySerializer,
+            valueSerializer,
+            additionalConfig);
+
+        List<Future> deployments = IntStream.range(0, numberOfProducers)
+            .boxed()
+            .map(__ -> {
+                var verticle = new ProducerVerticle<>(factory);
+                return vertx.deployVerticle(verticle, new DeploymentOptions()).map(verticle);
+            })
+            .collect(Collectors.toList());
+
+        this.deployed = CompositeFuture.all(deployments).map(c -> c.list());
+    }
+
+    /**
+     * Create the producer in the verticle context so that its sends are executed on that context.
+     */
+    private static class ProducerVerticle<K, V> extends AbstractVerticle {
+        private final Supplier<KafkaProducerClient<K, V>> factory;
+        private KafkaProducerClient<K, V> producer;
+
+        ProducerVerticle(Supplier<KafkaProducerClient<K, V>> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            producer = factory.get();
+        }
+    }
+
+    private Future<List<KafkaProducerClient<K, V>>> producers() {
+        return deployed.map(l -> l.stream().map(v -> v.producer).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return the producers once they have all been deployed
+     */
+    public List<KafkaProducerClient<K, V>> getProducers() {
+        if (!deployed.succeeded()) {
+            throw new IllegalStateException("the producers are not deployed yet");
+        }
+        return producers().result();
+    }
+
+    public Future<List<SendStats>> sendAsync(
+        String topicName,
+        IntFunction<Iterator<V>> messages,
+        SendRate ratePerProducer,
+        boolean partitionAffine) {
+
+        return sendAsync(topicName, messages, ratePerProducer, partitionAffine,
+            (producer, topic, partition, value) -> KafkaProducerRecord.create(topic, null, value, null, partition));
+    }
+
+    /**
+     * Send the messages of each producer at the same time, each producer with its own {@link SendRate}.
+     *
+     * @param messages        Return the messages to send for the producer with the given index
+     * @param ratePerProducer The target rate of each producer
+     * @param partitionAffine Pin each producer to its own subset of the topic partitions
+     * @param factory         Create the records, the partition should be passed to the record when not null
+     * @return the stats of each producer in the pool order, use {@link SendStats#aggregate(List)} for the pool stats
+     */
+    public Future<List<SendStats>> sendAsync(
+        String topicName,
+        IntFunction<Iterator<V>> messages,
+        SendRate ratePerProducer,
+        boolean partitionAffine,
+        RecordFactory<K, V> factory) {
+
+        return producers().compose(producers -> partitions(producers.get(0), topicName, partitionAffine)
+            .compose(partitions -> {
+
+                if (partitionAffine && partitions.size() < producers.size()) {
+                    return Future.failedFuture(new InvalidParameterException(String.format(
+                        "can not pin %d producers to the %d partitions of topic %s", producers.size(), partitions.size(), topicName)));
+                }
+
+                List<Future> sent = new ArrayList<>();
+                for (int i = 0; i < producers.size(); i++) {
+                    var producer = i;
+                    var assigned = assign(partitions, producer, producers.size());
+                    var next = new int[] {0};
+                    sent.add(producers.get(producer).sendAsync(messages.apply(producer), value -> {
+                        Integer partition = null;
+                        if (partitionAffine) {
+                            partition = assigned[next[0]];
+                            next[0] = (next[0] + 1) % assigned.length;
+                        }
+                        return factory.create(producer, topicName, partition, value);
+                    }, ratePerProducer));
+                }
+
+                return CompositeFuture.join(sent);
+            })
+            .map(c -> {
+                List<SendStats> stats = c.list();
+                for (int i = 0; i < stats.size(); i++) {
+                    LOGGER.info("producer {} sent messages to topic: {}; {}", i, topicName, stats.get(i));
+                }
+                LOGGER.info("pool of {} producers sent messages to topic: {}; {}",
+                    stats.size(), topicName, SendStats.aggregate(stats));
+                return stats;
+            }));
+    }
+
+    private static <K, V> Future<List<Integer>> partitions(KafkaProducerClient<K, V> producer, String topicName, boolean partitionAffine) {
+        if (!partitionAffine) {
+            return Future.succeededFuture(List.of());
+        }
+        return producer.partitionsFor(topicName)
+            .map(l -> l.stream().map(PartitionInfo::getPartition).sorted().collect(Collectors.toList()));
+    }
+
+    private static int[] assign(List<Integer> partitions, int producer, int producers) {
+        return partitions.stream()
+            .filter(p -> p % producers == producer)
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    private Future<Void> closeAll() {
+        return deployed.compose(verticles -> {
+            List<Future> closed = verticles.stream()
+                .map(verticle -> verticle.producer.asyncClose()
+                    .compose(__ -> vertx.undeploy(verticle.deploymentID())))
+                .collect(Collectors.toList());
+            return CompositeFuture.join(closed);
+        }).mapEmpty();
+    }
+
+    public Future<Void> asyncClose() {
+        return closeAll();
+    }
+
+    @Override
+    public void close() throws Exception {
+        LOGGER.warn("force closing KafkaProducerClientPool");
+        asyncClose().toCompletionStage().toCompletableFuture().get();
+    }
+}
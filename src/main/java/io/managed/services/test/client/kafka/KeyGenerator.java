@@ -0,0 +1,113 @@
+package io.managed.services.test.client.kafka;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Distribution of the record keys over a key space of "key-0" to "key-N".
+ * <p>
+ * The keys decide the partition of each record through the default partitioner, so a skewed key distribution
+ * results in skewed partitions. The uniform distribution spreads the records evenly, the Zipfian distribution
+ * follows the long tail of real key spaces where the key of rank k is picked with a probability proportional
+ * to 1/k^s, and the hot-key distribution sends a fixed fraction of the records to a single key.
+ * <p>
+ * The generator is stateless and the same random always generates the same sequence of keys.
+ */
+public abstract class KeyGenerator {
+
+    private static final String KEY_PREFIX = "key-";
+
+    private final int keys;
+
+    private KeyGenerator(int keys) {
+        if (keys < 1) {
+            throw new IllegalArgumentException("the key space must contain at least one key");
+        }
+        this.keys = keys;
+    }
+
+    public static KeyGenerator uniform(int keys) {
+        return new KeyGenerator(keys) {
+            @Override
+            int nextIndex(SplittableRandom random) {
+                return random.nextInt(keys);
+            }
+
+            @Override
+            public String toString() {
+                return String.format("uniform(%d)", keys);
+            }
+        };
+    }
+
+    /**
+     * The key of rank k, starting from 1, is picked with a probability proportional to 1/k^exponent. The
+     * cumulative distribution is computed once, so the generator uses 8 bytes per key.
+     *
+     * @param exponent The skew, 0 is uniform and around 1 is the usual Zipf's law
+     */
+    public static KeyGenerator zipfian(int keys, double exponent) {
+        var cdf = new double[keys];
+        var sum = 0d;
+        for (int k = 0; k < keys; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < keys; k++) {
+            cdf[k] /= sum;
+        }
+
+        return new KeyGenerator(keys) {
+            @Override
+            int nextIndex(SplittableRandom random) {
+                var i = Arrays.binarySearch(cdf, random.nextDouble());
+                return Math.min(keys - 1, i >= 0 ? i : -i - 1);
+            }
+
+            @Override
+            public String toString() {
+                return String.format(Locale.ROOT, "zipfian(%d, %.2f)", keys, exponent);
+            }
+        };
+    }
+
+    /**
+     * The first key receives the hot ratio of the records and the other keys share the rest evenly.
+     *
+     * @param hotRatio The fraction of records with the hot key between 0 and 1
+     */
+    public static KeyGenerator hotKey(int keys, double hotRatio) {
+        if (hotRatio < 0 || hotRatio > 1) {
+            throw new IllegalArgumentException("the hot ratio must be between 0 and 1");
+        }
+
+        return new KeyGenerator(keys) {
+            @Override
+            int nextIndex(SplittableRandom random) {
+                if (keys == 1 || random.nextDouble() < hotRatio) {
+                    return 0;
+                }
+                return 1 + random.nextInt(keys - 1);
+            }
+
+            @Override
+            public String toString() {
+                return String.format(Locale.ROOT, "hot-key(%d, %.2f)", keys, hotRatio);
+            }
+        };
+    }
+
+    /**
+     * @return the index of the next key between 0 and the key space size excluded
+     */
+    abstract int nextIndex(SplittableRandom random);
+
+    public String next(SplittableRandom random) {
+        return KEY_PREFIX + nextIndex(random);
+    }
+
+    public int keys() {
+        return keys;
+    }
+}
@@ -0,0 +1,161 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Send the same workload with different {@link KeyGenerator}s to a topic and compare how the records spread
+ * over the partitions and how the end-to-end latency of the hottest partition grows with the skew.
+ * <p>
+ * The records are keyed, so the default partitioner sends all records of a key to the same partition. The
+ * produced side is counted from the metadata of the acknowledged records and the consumed side from the records
+ * received by a pool of consumers, both by a {@link PartitionSkewAnalyzer}.
+ */
+public class KeySkewBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(KeySkewBenchmark.class);
+
+    private static final String GROUP_ID = "key-skew-benchmark";
+
+    private final KafkaConnectionSettings connection;
+
+    public KeySkewBenchmark(KafkaConnectionSettings connection) {
+        this.connection = connection;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final String keys;
+        private final int partitions;
+        private final long messages;
+        private final long errors;
+        private final double sendMessagesPerSecond;
+        private final PartitionSkewAnalyzer.Skew produced;
+        private final PartitionSkewAnalyzer.Skew consumed;
+        private final long hottestP99Micros;
+        private final long othersP99Micros;
+        private final long p99Micros;
+        private final List<PartitionSkewAnalyzer.PartitionStats> partitionStats;
+
+        static final String CSV_HEADER = "keys,partitions,messages,errors,send_messages_per_second,produced_cv,"
+            + "produced_max_to_mean,hottest_partition,hottest_share,empty_partitions,consumed_records,consumed_cv,"
+            + "hottest_p99_e2e_latency_us,others_p99_e2e_latency_us,p99_e2e_latency_us";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%d,%.1f,%.3f,%.2f,%d,%.3f,%d,%d,%.3f,%d,%d,%d",
+                keys, partitions, messages, errors, sendMessagesPerSecond, produced.getCoefficientOfVariation(),
+                produced.getMaxToMean(), produced.getHottestPartition(), produced.getHottestShare(),
+                produced.getEmptyPartitions(), consumed.getRecords(), consumed.getCoefficientOfVariation(),
+                hottestP99Micros, othersP99Micros, p99Micros);
+        }
+    }
+
+    /**
+     * Run the workload once for each key generator.
+     *
+     * @param partitions The partitions of the topic
+     * @param consumers  The consumers of the group that receives the records
+     * @param messages   The messages sent with each key generator
+     * @return a result for each key generator in the same order
+     */
+    public Future<List<Result>> run(
+        String topicName,
+        int partitions,
+        int consumers,
+        List<KeyGenerator> generators,
+        long messages,
+        int messageSize,
+        SendRate rate) {
+
+        var results = new ArrayList<Result>();
+        Future<?> runs = Future.succeededFuture();
+        for (var generator : generators) {
+            runs = runs.compose(__ -> measure(topicName, partitions, consumers, generator, messages, messageSize, rate))
+                .map(results::add);
+        }
+        return runs.map(__ -> {
+            LOGGER.info("records per partition of topic {} by key distribution:{}", topicName, chart(results));
+            return results;
+        });
+    }
+
+    private Future<Result> measure(
+        String topicName,
+        int partitions,
+        int consumers,
+        KeyGenerator generator,
+        long messages,
+        int messageSize,
+        SendRate rate) {
+
+        var analyzer = new PartitionSkewAnalyzer(topicName, partitions);
+        var stamper = new LatencyRecorder();
+        var random = new SplittableRandom();
+
+        var consumerPool = connection.consumerPool(GROUP_ID, consumers, StringDeserializer.class, StringDeserializer.class);
+
+        var producer = connection.producer(StringSerializer.class, StringSerializer.class);
+
+        LOGGER.info("send {} messages with {} keys to topic {}", messages, generator, topicName);
+        return consumerPool.receiveAsync(topicName, messages, analyzer::consumed)
+            .compose(received -> producer.sendAsync(new PayloadGenerator(messageSize, messageSize).strings(messages),
+                    value -> stamper.stamp(KafkaProducerRecord.create(topicName, generator.next(random), value)),
+                    rate,
+                    analyzer.onAck())
+                .compose(stats -> received.map(__ -> {
+                    var produced = analyzer.producedSkew();
+                    var hottest = produced.getHottestPartition();
+                    var latency = new LatencyHistogram();
+                    for (int i = 0; i < partitions; i++) {
+                        latency.add(analyzer.latency(i));
+                    }
+                    return new Result(generator.toString(),
+                        partitions,
+                        stats.messages(),
+                        stats.errors(),
+                        stats.messagesPerSecond(),
+                        produced,
+                        analyzer.consumedSkew(),
+                        analyzer.latency(hottest).percentile(99),
+                        analyzer.latencyExcept(hottest).percentile(99),
+                        latency.percentile(99),
+                        analyzer.partitionStats());
+                })))
+            .eventually(__ -> CompositeFuture.join(producer.asyncClose(), consumerPool.asyncClose()))
+            .onSuccess(r -> LOGGER.info("key skew with {} keys; produced {}; consumed {}; hottest partition p99: {}us; other partitions p99: {}us",
+                r.keys, r.produced, r.consumed, r.hottestP99Micros, r.othersP99Micros));
+    }
+
+    /**
+     * @return the share of records of each partition for each key distribution as horizontal bar charts
+     */
+    private static String chart(List<Result> results) {
+        var chart = new StringBuilder();
+        for (var r : results) {
+            chart.append(String.format(Locale.ROOT, "%n%s cv %.3f hottest p99 %d us others p99 %d us", r.keys,
+                r.produced.getCoefficientOfVariation(), r.hottestP99Micros, r.othersP99Micros));
+            var total = Math.max(1, r.produced.getRecords());
+            chart.append(Reports.chart(r.partitionStats, p -> p.getProducedRecords(), total,
+                p -> String.format(Locale.ROOT, "%6d %5.1f%%", p.getPartition(), 100d * p.getProducedRecords() / total)));
+        }
+        return chart.toString();
+    }
+
+    public static Path writeReport(String name, List<Result> results) throws IOException {
+        return Reports.write(name, Result.CSV_HEADER, results, Result::toCsv);
+    }
+}
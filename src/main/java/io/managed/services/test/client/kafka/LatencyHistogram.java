@@ -0,0 +1,118 @@
+package io.managed.services.test.client.kafka;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram (HdrHistogram style) of latencies in microseconds.
+ * <p>
+ * Values below 128 are counted exactly, bigger values are counted in buckets with a relative
+ * error below 2% (64 linear sub buckets for each power of two), so the whole long range fits in
+ * a few thousand primitive counters and recording a value never allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_SUB_COUNT = SUB_COUNT / 2;
+    private static final int BUCKETS = SUB_COUNT + (64 - SUB_BITS) * HALF_SUB_COUNT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private long sum;
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        var shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + (shift - 1) * HALF_SUB_COUNT + (int) ((value >>> shift) - HALF_SUB_COUNT);
+    }
+
+    /**
+     * @return the highest value that is counted in the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        var k = index - SUB_COUNT;
+        var shift = k / HALF_SUB_COUNT + 1;
+        long m = k % HALF_SUB_COUNT + HALF_SUB_COUNT;
+        return (m << shift) + (1L << shift) - 1;
+    }
+
+    public synchronized void record(long micros) {
+        var v = Math.max(0, micros);
+        counts[index(v)]++;
+        total++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    public synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public synchronized long count() {
+        return total;
+    }
+
+    public synchronized long min() {
+        return total == 0 ? 0 : min;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    public synchronized double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return the latency in microseconds below which the given percentile of the values fall
+     */
+    public synchronized long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        var rank = (long) Math.ceil(percentile / 100d * total);
+        rank = Math.max(1, Math.min(total, rank));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %d; p50: %dus; p90: %dus; p99: %dus; p99.9: %dus; max: %dus",
+            count(), percentile(50), percentile(90), percentile(99), percentile(99.9), max());
+    }
+}
@@ -0,0 +1,150 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.prometheus.client.Gauge;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the end-to-end latency of the records sent by a producer and received by a consumer.
+ * <p>
+ * The producer stamps the send time and a sequence number in the record headers using {@link #stamp(KafkaProducerRecord)}
+ * and the consumer records the receive minus send time for each partition using {@link #record(KafkaConsumerRecord)}.
+ * The send time is the wall clock time in nanoseconds, so producer and consumer can also run in different processes
+ * as long as their clocks are synchronized.
+ */
+public class LatencyRecorder {
+    private static final Logger LOGGER = LogManager.getLogger(LatencyRecorder.class);
+
+    public static final String SEND_TIMESTAMP_HEADER = "e2e-send-ts";
+    public static final String SEQUENCE_HEADER = "e2e-seq";
+
+    static final Gauge LATENCY = Gauge.build()
+        .name("kafka_e2e_latency_microseconds")
+        .labelNames("launch", "topic", "partition", "quantile")
+        .help("End-to-end produce/consume latency in microseconds.")
+        .register();
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Map<Integer, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    public static long nowNanos() {
+        var now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    public <K, V> KafkaProducerRecord<K, V> stamp(KafkaProducerRecord<K, V> record) {
+        return record
+            .addHeader(SEQUENCE_HEADER, Buffer.buffer(Long.BYTES).appendLong(sequence.getAndIncrement()))
+            .addHeader(SEND_TIMESTAMP_HEADER, Buffer.buffer(Long.BYTES).appendLong(nowNanos()));
+    }
+
+    /**
+     * Record the latency of a record stamped with {@link #stamp(KafkaProducerRecord)}, records without
+     * the send timestamp header are ignored.
+     */
+    public void record(KafkaConsumerRecord<?, ?> record) {
+        var micros = latency(record);
+        if (micros >= 0) {
+            record(record.topic(), record.partition(), micros);
+        }
+    }
+
+    /**
+     * @return the microseconds since the record has been stamped with {@link #stamp(KafkaProducerRecord)}
+     * or -1 if the record doesn't have the send timestamp header
+     */
+    public static long latency(KafkaConsumerRecord<?, ?> record) {
+        return latency(record.record());
+    }
+
+    /**
+     * Same as {@link #latency(KafkaConsumerRecord)} for the records of the native Kafka consumer
+     */
+    public static long latency(org.apache.kafka.clients.consumer.ConsumerRecord<?, ?> record) {
+        var receivedAt = nowNanos();
+        var header = record.headers().lastHeader(SEND_TIMESTAMP_HEADER);
+        if (header == null) {
+            return -1;
+        }
+        var sentAt = ByteBuffer.wrap(header.value()).getLong();
+        return Math.max(0, (receivedAt - sentAt) / 1_000);
+    }
+
+    /**
+     * Same as {@link #record(KafkaConsumerRecord)} for the records of the native Kafka consumer
+     */
+    public void record(org.apache.kafka.clients.consumer.ConsumerRecord<?, ?> record) {
+        var micros = latency(record);
+        if (micros >= 0) {
+            record(record.topic(), record.partition(), micros);
+        }
+    }
+
+    public void record(String topic, int partition, long micros) {
+        histograms.computeIfAbsent(topic, __ -> new ConcurrentHashMap<>())
+            .computeIfAbsent(partition, __ -> new LatencyHistogram())
+            .record(micros);
+    }
+
+    public LatencyHistogram histogram(String topic, int partition) {
+        var partitions = histograms.get(topic);
+        if (partitions == null) {
+            return new LatencyHistogram();
+        }
+        return partitions.getOrDefault(partition, new LatencyHistogram());
+    }
+
+    /**
+     * @return the histogram of all partitions in the topic
+     */
+    public LatencyHistogram histogram(String topic) {
+        var total = new LatencyHistogram();
+        histograms.getOrDefault(topic, Map.of()).values().forEach(total::add);
+        return total;
+    }
+
+    public Map<Integer, LatencyHistogram> partitions(String topic) {
+        return new TreeMap<>(histograms.getOrDefault(topic, Map.of()));
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * Log the latency for each topic and partition and set the Prometheus gauges in the default registry
+     * which is pushed by the PrometheusSuiteListener at the end of the suite.
+     */
+    public void report() {
+        for (var topic : histograms.keySet()) {
+            var total = histogram(topic);
+            LOGGER.info("e2e latency for topic {}: {}", topic, total);
+            publish(topic, "all", total);
+
+            partitions(topic).forEach((partition, h) -> {
+                LOGGER.info("e2e latency for topic {} partition {}: {}", topic, partition, h);
+                publish(topic, partition.toString(), h);
+            });
+        }
+    }
+
+    private static void publish(String topic, String partition, LatencyHistogram h) {
+        for (var p : PERCENTILES) {
+            LATENCY.labels(Environment.LAUNCH_KEY, topic, partition, Double.toString(p / 100)).set(h.percentile(p));
+        }
+        LATENCY.labels(Environment.LAUNCH_KEY, topic, partition, "1.0").set(h.max());
+    }
+}
@@ -0,0 +1,179 @@
+package io.managed.services.test.client.kafka;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Open addressing hash map from long to long with linear probing.
+ * <p>
+ * The keys and the values are interleaved in a single long array, so a lookup usually touches a single
+ * cache line and each entry costs 16 bytes divided by the load factor, against the 100 or more bytes of a
+ * {@code HashMap<Long, Long>} entry. The zero key is stored apart because zero marks the empty slots.
+ * <p>
+ * The map is not thread-safe.
+ */
+public class LongLongHashMap {
+
+    /**
+     * Returned by {@link #get(long)} and {@link #put(long, long)} when the key is not in the map.
+     */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final double LOAD_FACTOR = 0.75;
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    /**
+     * Functional interface for {@link #forEach(EntryConsumer)}.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    /**
+     * @param expectedSize The number of keys that can be added without resizing
+     */
+    public LongLongHashMap(int expectedSize) {
+        var needed = Math.max(2, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        allocate((int) Math.min(MAX_CAPACITY, Long.highestOneBit(needed - 1) << 1));
+    }
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    private void allocate(int capacity) {
+        slots = new long[capacity * 2];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * The murmur3 64-bit finalizer, so that sequential keys are spread over the whole table.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @return the index of the slot of the key or of the empty slot where the key would be added
+     */
+    private int slot(long key) {
+        var i = (int) mix(key) & mask;
+        while (slots[i * 2] != 0 && slots[i * 2] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * @return the value of the key or {@link #NO_VALUE}
+     */
+    public long get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : NO_VALUE;
+        }
+        var i = slot(key);
+        return slots[i * 2] == 0 ? NO_VALUE : slots[i * 2 + 1];
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : slots[slot(key) * 2] != 0;
+    }
+
+    /**
+     * @return the previous value of the key or {@link #NO_VALUE}
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            var previous = hasZeroKey ? zeroValue : NO_VALUE;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        var i = slot(key);
+        if (slots[i * 2] != 0) {
+            var previous = slots[i * 2 + 1];
+            slots[i * 2 + 1] = value;
+            return previous;
+        }
+
+        if (size >= resizeAt) {
+            resize();
+            i = slot(key);
+        }
+        slots[i * 2] = key;
+        slots[i * 2 + 1] = value;
+        size++;
+        return NO_VALUE;
+    }
+
+    private void resize() {
+        var capacity = mask + 1;
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("the map can not hold more than " + size + " keys");
+        }
+
+        var old = slots;
+        allocate(capacity * 2);
+        for (int j = 0; j < old.length; j += 2) {
+            if (old[j] != 0) {
+                var i = slot(old[j]);
+                slots[i * 2] = old[j];
+                slots[i * 2 + 1] = old[j + 1];
+            }
+        }
+    }
+
+    /**
+     * Replace the value of each key with the result of the operator.
+     */
+    public void replaceAll(LongUnaryOperator operator) {
+        if (hasZeroKey) {
+            zeroValue = operator.applyAsLong(zeroValue);
+        }
+        for (int j = 0; j < slots.length; j += 2) {
+            if (slots[j] != 0) {
+                slots[j + 1] = operator.applyAsLong(slots[j + 1]);
+            }
+        }
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int j = 0; j < slots.length; j += 2) {
+            if (slots[j] != 0) {
+                consumer.accept(slots[j], slots[j + 1]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes used by the table
+     */
+    public long tableBytes() {
+        return (long) slots.length * Long.BYTES;
+    }
+}
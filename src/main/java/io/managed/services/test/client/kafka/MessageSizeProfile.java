@@ -0,0 +1,148 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Future;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measure the producer throughput at increasing message sizes up to the instance message size limit.
+ * <p>
+ * For each size a single probe message is sent first to detect the {@link RecordTooLargeException},
+ * then a steady load of messages of that size is sent. A point is marked as a cliff when its MB/s
+ * falls below {@link #CLIFF_RATIO} of the best MB/s of the smaller sizes, because the MB/s should
+ * keep growing, or at least stay flat, with the message size. The producer max.request.size is raised
+ * above the largest size so that the limit is enforced by the brokers and not by the client.
+ */
+public class MessageSizeProfile {
+    private static final Logger LOGGER = LogManager.getLogger(MessageSizeProfile.class);
+
+    public static final double CLIFF_RATIO = 0.7;
+
+    private static final int MIN_MESSAGES_PER_SIZE = 20;
+
+    private final KafkaConnectionSettings connection;
+
+    public MessageSizeProfile(KafkaConnectionSettings connection) {
+        this.connection = connection;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Point {
+        private final int size;
+        private final long messages;
+        private final long errors;
+        private final double messagesPerSecond;
+        private final double megabytesPerSecond;
+        private final long p99AckLatencyMicros;
+        private final boolean tooLarge;
+        private final boolean cliff;
+
+        static final String CSV_HEADER = "size,messages,errors,messages_per_second,megabytes_per_second,p99_ack_latency_us,too_large,cliff";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.3f,%d,%b,%b",
+                size, messages, errors, messagesPerSecond, megabytesPerSecond, p99AckLatencyMicros, tooLarge, cliff);
+        }
+    }
+
+    /**
+     * The limit applies to the whole record batch, so the largest valid value is the limit minus the
+     * {@link PayloadChunker#RECORD_OVERHEAD} and the first invalid one is one byte above the limit.
+     *
+     * @return the sizes doubling from min up to the largest valid value, the largest valid value itself and the
+     * first invalid one
+     */
+    public static List<Integer> sizes(int min, int limit) {
+        var largest = limit - PayloadChunker.RECORD_OVERHEAD;
+        var sizes = new ArrayList<Integer>();
+        for (long size = min; size < largest; size *= 2) {
+            sizes.add((int) size);
+        }
+        sizes.add(largest);
+        sizes.add(limit + 1);
+        return sizes;
+    }
+
+    /**
+     * Send a steady load for each size, the sizes are run from the smallest to the largest.
+     *
+     * @param bytesPerSize The bytes to send for each size, at least 20 messages are sent for each size
+     * @return the curve of the throughput against the message size
+     */
+    public Future<List<Point>> run(String topicName, List<Integer> sizes, long bytesPerSize) {
+        var maxSize = sizes.stream().mapToInt(Integer::intValue).max().orElse(0);
+
+        // leave room for the record and batch overhead
+        var config = Map.of(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, String.valueOf(maxSize + 64 * 1024));
+
+        var producer = connection.producer(StringSerializer.class, ByteBufferSerializer.class, config);
+
+        var points = new ArrayList<Point>();
+        Future<?> steps = Future.succeededFuture();
+        for (var size : sizes) {
+            steps = steps.compose(__ -> measure(producer, topicName, size, bytesPerSize, best(points)).map(points::add));
+        }
+
+        return steps
+            .eventually(__ -> producer.asyncClose())
+            .map(__ -> {
+                LOGGER.info("throughput by message size on topic {}:{}", topicName, chart(points));
+                return points;
+            });
+    }
+
+    private Future<Point> measure(KafkaProducerClient<String, ByteBuffer> producer, String topicName, int size, long bytesPerSize, double best) {
+        var payloads = new PayloadGenerator(size, size);
+
+        return producer.send(KafkaProducerRecord.create(topicName, payloads.nextBuffer()))
+            .compose(__ -> {
+                var messages = Math.max(MIN_MESSAGES_PER_SIZE, bytesPerSize / size);
+                return producer.sendAsync(topicName, payloads.buffers(messages), SendRate.unlimited().withFailFast(false))
+                    .map(stats -> {
+                        var mbs = stats.bytesPerSecond() / 1_000_000;
+                        return new Point(size, stats.messages(), stats.errors(), stats.messagesPerSecond(), mbs,
+                            stats.ackLatency().percentile(99), false, mbs < best * CLIFF_RATIO);
+                    });
+            }, t -> {
+                if (t instanceof RecordTooLargeException) {
+                    LOGGER.info("message of {} bytes is too large", size);
+                    return Future.succeededFuture(new Point(size, 1, 1, 0, 0, 0, true, false));
+                }
+                return Future.failedFuture(t);
+            })
+            .onSuccess(p -> LOGGER.info("message size profile {}", p.toCsv()));
+    }
+
+    private static double best(List<Point> points) {
+        return points.stream().mapToDouble(p -> p.megabytesPerSecond).max().orElse(0);
+    }
+
+    /**
+     * @return the MB/s of each size as a horizontal bar chart
+     */
+    private static String chart(List<Point> points) {
+        return Reports.chart(points, p -> p.megabytesPerSecond, best(points),
+            p -> String.format(Locale.ROOT, "%10d B %10.1f msg/s %8.3f MB/s %-9s",
+                p.size, p.messagesPerSecond, p.megabytesPerSecond, p.tooLarge ? "too large" : p.cliff ? "cliff" : ""));
+    }
+
+    public static Path writeReport(String name, List<Point> points) throws IOException {
+        return Reports.write(name, Point.CSV_HEADER, points, Point::toCsv);
+    }
+}
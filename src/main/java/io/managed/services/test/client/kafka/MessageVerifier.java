@@ -0,0 +1,224 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Future;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.managed.services.test.TestUtils.message;
+
+/**
+ * Verify the received messages against the expected messages while they arrive.
+ * <p>
+ * Each message is reduced to a 64bit digest and counted in an open-addressing multiset, so every
+ * received message is checked in O(1) and the memory used doesn't depend on the message size.
+ * Only a few samples of the missing and unexpected messages are kept for the error report.
+ */
+public class MessageVerifier {
+
+    private static final int MAX_SAMPLES = 10;
+    private static final int MAX_SAMPLE_LENGTH = 64;
+
+    private final List<String> expectedMessages;
+    private final DigestMultiset expected;
+
+    private final List<String> extraSamples = new ArrayList<>();
+    private final List<String> duplicatedSamples = new ArrayList<>();
+
+    private long received;
+    private long extra;
+    private long duplicated;
+
+    public MessageVerifier(List<String> expectedMessages) {
+        this.expectedMessages = expectedMessages;
+        this.expected = new DigestMultiset(expectedMessages.size());
+        for (var m : expectedMessages) {
+            expected.add(digest(m));
+        }
+    }
+
+    private MessageVerifier(MessageVerifier other) {
+        this.expectedMessages = other.expectedMessages;
+        this.expected = other.expected.copy();
+    }
+
+    /**
+     * Create a new verifier for the same expected messages without rebuilding the multiset.
+     */
+    public MessageVerifier copy() {
+        return new MessageVerifier(this);
+    }
+
+    public void accept(String message) {
+        accept(digest(message), message);
+    }
+
+    /**
+     * Accept a message by its {@link #digest(String)}, the unexpected messages are reported by their digest.
+     */
+    public void acceptDigest(long digest) {
+        accept(digest, null);
+    }
+
+    private void accept(long digest, String message) {
+        received++;
+
+        var r = expected.remove(digest);
+        if (r == DigestMultiset.REMOVED) {
+            return;
+        }
+
+        var sample = message == null ? "digest:" + Long.toHexString(digest) : message;
+        if (r == DigestMultiset.EXHAUSTED) {
+            duplicated++;
+            sample(duplicatedSamples, sample);
+        } else {
+            extra++;
+            sample(extraSamples, sample);
+        }
+    }
+
+    public void accept(KafkaConsumerRecord<?, String> record) {
+        accept(record.value());
+    }
+
+    public long received() {
+        return received;
+    }
+
+    public long missing() {
+        return expected.remaining();
+    }
+
+    public long extra() {
+        return extra;
+    }
+
+    public long duplicated() {
+        return duplicated;
+    }
+
+    public Future<Void> verify() {
+        if (missing() == 0 && extra == 0 && duplicated == 0) {
+            return Future.succeededFuture();
+        }
+
+        var message = message("failed to send all messages or/and received some extra messages;"
+                + " received: {}, not-received: {}, extra: {}, duplicated: {};"
+                + " not-received-messages: {}, extra-received-messages: {}, duplicated-messages: {}",
+            received, missing(), extra, duplicated, missingSamples(), extraSamples, duplicatedSamples);
+        return Future.failedFuture(new AssertionError(message));
+    }
+
+    private List<String> missingSamples() {
+        // consume a copy of the remaining counts so that the same message is reported only
+        // as many times as it is missing
+        var remaining = expected.copy();
+        var samples = new ArrayList<String>();
+        for (var m : expectedMessages) {
+            if (samples.size() == MAX_SAMPLES || remaining.remaining() == 0) {
+                break;
+            }
+            if (remaining.remove(digest(m)) == DigestMultiset.REMOVED) {
+                samples.add(StringUtils.abbreviate(m, MAX_SAMPLE_LENGTH));
+            }
+        }
+        return samples;
+    }
+
+    private static void sample(List<String> samples, String message) {
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(StringUtils.abbreviate(message, MAX_SAMPLE_LENGTH));
+        }
+    }
+
+    /**
+     * 64bit FNV-1a over the string chars with a final avalanche mix.
+     */
+    static long digest(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= s.length();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Open-addressing multiset of digests backed by primitive arrays.
+     */
+    static class DigestMultiset {
+
+        static final int REMOVED = 0;
+        static final int EXHAUSTED = 1;
+        static final int UNKNOWN = 2;
+
+        private final long[] keys;
+        private final int[] counts;
+        private final boolean[] used;
+        private final int mask;
+        private long remaining;
+
+        DigestMultiset(int expectedSize) {
+            var capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            keys = new long[capacity];
+            counts = new int[capacity];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        private DigestMultiset(DigestMultiset other) {
+            keys = Arrays.copyOf(other.keys, other.keys.length);
+            counts = Arrays.copyOf(other.counts, other.counts.length);
+            used = Arrays.copyOf(other.used, other.used.length);
+            mask = other.mask;
+            remaining = other.remaining;
+        }
+
+        DigestMultiset copy() {
+            return new DigestMultiset(this);
+        }
+
+        private int slot(long key) {
+            var i = (int) key & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        void add(long key) {
+            var i = slot(key);
+            keys[i] = key;
+            used[i] = true;
+            counts[i]++;
+            remaining++;
+        }
+
+        int remove(long key) {
+            var i = slot(key);
+            if (!used[i]) {
+                return UNKNOWN;
+            }
+            if (counts[i] == 0) {
+                return EXHAUSTED;
+            }
+            counts[i]--;
+            remaining--;
+            return REMOVED;
+        }
+
+        long remaining() {
+            return remaining;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.javatuples.Pair;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.managed.services.test.TestUtils.waitFor;
+
+/**
+ * Measure how the throughput and the end-to-end latency change while a topic grows from 1 partition
+ * up to the partition limit of the instance.
+ * <p>
+ * At each step the topic is grown to the next partition count and a single message is sent to each new
+ * partition until all of them are acknowledged, which gives the time for the new partitions to become
+ * writable. Then the same workload is sent by a pool of producers and received by a pool of consumers.
+ * The pools are created again at each step so that their metadata and the consumer group assignment
+ * always contain all the partitions of the topic.
+ */
+public class PartitionScalingBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(PartitionScalingBenchmark.class);
+
+    private static final String GROUP_ID = "partition-scaling-benchmark";
+    private static final Duration WRITABLE_TIMEOUT = Duration.ofMinutes(5);
+    private static final Duration WRITABLE_INTERVAL = Duration.ofMillis(500);
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+    private final TopicResizer resizer;
+
+    /**
+     * Grow the topic to the given number of partitions, for example with the Kafka instance API.
+     * <p>
+     * It is invoked on a worker thread and can block.
+     */
+    @FunctionalInterface
+    public interface TopicResizer {
+        void resize(String topicName, int partitions) throws Exception;
+    }
+
+    public PartitionScalingBenchmark(KafkaConnectionSettings connection, TopicResizer resizer) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+        this.resizer = resizer;
+    }
+
+    /**
+     * The workload sent and received at each step.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Workload {
+        private final int producers;
+        private final int consumers;
+        private final long messagesPerProducer;
+        private final int messageSize;
+        private final SendRate ratePerProducer;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Point {
+        private final int partitions;
+        private final long writableMillis;
+        private final long messages;
+        private final long errors;
+        private final double sendMessagesPerSecond;
+        private final double sendMegabytesPerSecond;
+        private final double receiveMessagesPerSecond;
+        private final long p50LatencyMicros;
+        private final long p99LatencyMicros;
+
+        static final String CSV_HEADER = "partitions,writable_ms,messages,errors,send_messages_per_second,"
+            + "send_megabytes_per_second,receive_messages_per_second,p50_e2e_latency_us,p99_e2e_latency_us";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%.3f,%.1f,%d,%d",
+                partitions, writableMillis, messages, errors, sendMessagesPerSecond, sendMegabytesPerSecond,
+                receiveMessagesPerSecond, p50LatencyMicros, p99LatencyMicros);
+        }
+    }
+
+    /**
+     * @return 1, 3 and then doubling up to the max plus the max itself
+     */
+    public static List<Integer> partitionCounts(int max) {
+        var counts = new ArrayList<Integer>();
+        counts.add(1);
+        for (long count = 3; count < max; count *= 2) {
+            counts.add((int) count);
+        }
+        if (max > 1) {
+            counts.add(max);
+        }
+        return counts;
+    }
+
+    /**
+     * Grow the topic through the partition counts and run the workload at each count, the counts
+     * smaller than the current partitions of the topic are skipped because partitions can not be removed.
+     *
+     * @return the scaling curve in order of partition count
+     */
+    public Future<List<Point>> run(String topicName, List<Integer> partitionCounts, Workload workload) {
+
+        // a send to a partition that is not in the metadata yet blocks until max.block.ms
+        var probe = connection.producer(StringSerializer.class, StringSerializer.class, Map.of(ProducerConfig.MAX_BLOCK_MS_CONFIG, "5000"));
+
+        var points = new ArrayList<Point>();
+        var current = new int[] {0};
+
+        Future<?> steps = probe.partitionsFor(topicName).map(l -> current[0] = l.size());
+        for (var partitions : partitionCounts) {
+            steps = steps.compose(__ -> {
+                if (partitions < current[0]) {
+                    LOGGER.info("skip {} partitions because topic {} has already {} partitions", partitions, topicName, current[0]);
+                    return Future.succeededFuture();
+                }
+                return grow(probe, topicName, current[0], partitions)
+                    .compose(writable -> {
+                        current[0] = partitions;
+                        return measure(topicName, partitions, writable, workload);
+                    })
+                    .map(points::add);
+            });
+        }
+
+        return steps
+            .eventually(__ -> probe.asyncClose())
+            .map(__ -> {
+                LOGGER.info("throughput by partition count on topic {}:{}", topicName, chart(points));
+                return points;
+            });
+    }
+
+    /**
+     * @return the time from the resize request until all new partitions are writable
+     */
+    private Future<Duration> grow(KafkaProducerClient<String, String> probe, String topicName, int current, int partitions) {
+        if (partitions == current) {
+            return Future.succeededFuture(Duration.ZERO);
+        }
+
+        LOGGER.info("grow topic {} from {} to {} partitions", topicName, current, partitions);
+        var start = System.nanoTime();
+        return vertx.<Void>executeBlocking(p -> {
+            try {
+                resizer.resize(topicName, partitions);
+                p.complete();
+            } catch (Exception e) {
+                p.fail(e);
+            }
+        }).compose(__ -> waitFor(vertx, String.format("partitions %d to %d of topic %s to be writable", current, partitions - 1, topicName),
+            WRITABLE_INTERVAL, WRITABLE_TIMEOUT, last -> probe(probe, topicName, current, partitions)
+                .map(writable -> Pair.with(writable, (Void) null))))
+            .map(__ -> {
+                var writable = Duration.ofNanos(System.nanoTime() - start);
+                LOGGER.info("partitions {} to {} of topic {} are writable after {}", current, partitions - 1, topicName, writable);
+                return writable;
+            });
+    }
+
+    /**
+     * @return true if a message has been sent to each partition from the first to the last excluded
+     */
+    private static Future<Boolean> probe(KafkaProducerClient<String, String> probe, String topicName, int first, int last) {
+        List<Future> sent = IntStream.range(first, last)
+            .mapToObj(p -> (Future) probe.send(KafkaProducerRecord.create(topicName, null, "probe", null, p)))
+            .collect(Collectors.toList());
+
+        return CompositeFuture.all(sent)
+            .map(__ -> true)
+            .otherwise(t -> {
+                LOGGER.debug("partitions of topic {} are not writable yet: {}", topicName, t.getMessage());
+                return false;
+            });
+    }
+
+    private Future<Point> measure(String topicName, int partitions, Duration writable, Workload workload) {
+        var recorder = new LatencyRecorder();
+
+        var consumers = connection.consumerPool(GROUP_ID, workload.consumers, StringDeserializer.class, StringDeserializer.class);
+        consumers.recordLatency(recorder);
+
+        var producers = connection.producerPool(workload.producers, StringSerializer.class, StringSerializer.class, Map.of());
+
+        // pin the producers to the partitions when there are enough partitions so that all of them receive messages
+        var partitionAffine = partitions >= workload.producers;
+        var expected = workload.producers * workload.messagesPerProducer;
+
+        return consumers.receiveAsync(topicName, expected, r -> { })
+            .compose(received -> {
+                var start = System.nanoTime();
+                return producers.sendAsync(topicName,
+                        producer -> new PayloadGenerator(producer, workload.messageSize, workload.messageSize).strings(workload.messagesPerProducer),
+                        workload.ratePerProducer,
+                        partitionAffine,
+                        (producer, topic, partition, value) -> recorder.stamp(KafkaProducerRecord.create(topic, null, value, null, partition)))
+                    .compose(stats -> received.map(__ -> {
+                        var elapsed = (System.nanoTime() - start) / 1e9;
+                        var sent = SendStats.aggregate(stats);
+                        var latency = recorder.histogram(topicName);
+                        return new Point(partitions,
+                            writable.toMillis(),
+                            sent.messages(),
+                            sent.errors(),
+                            sent.messagesPerSecond(),
+                            sent.bytesPerSecond() / 1_000_000,
+                            expected / elapsed,
+                            latency.percentile(50),
+                            latency.percentile(99));
+                    }));
+            })
+            .eventually(__ -> CompositeFuture.join(producers.asyncClose(), consumers.asyncClose()))
+            .onSuccess(p -> LOGGER.info("partition scaling {}", p.toCsv()));
+    }
+
+    /**
+     * @return the send MB/s of each partition count as a horizontal bar chart
+     */
+    private static String chart(List<Point> points) {
+        return Reports.chart(points, p -> p.sendMegabytesPerSecond,
+            p -> String.format(Locale.ROOT, "%6d partitions %8.3f MB/s %10.1f msg/s p99 %8d us",
+                p.partitions, p.sendMegabytesPerSecond, p.receiveMessagesPerSecond, p.p99LatencyMicros));
+    }
+
+    public static Path writeReport(String name, List<Point> points) throws IOException {
+        return Reports.write(name, Point.CSV_HEADER, points, Point::toCsv);
+    }
+}
@@ -0,0 +1,224 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import io.vertx.kafka.client.producer.RecordMetadata;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Aggregate the records and the bytes of each partition of a topic on the producer side, from the metadata
+ * of the acknowledged records, and on the consumer side, together with the end-to-end latency of the
+ * records stamped by a {@link LatencyRecorder}.
+ * <p>
+ * The skew of a side is summarized by the coefficient of variation of the records per partition, which is 0
+ * when all partitions receive the same records, and by the ratio between the hottest partition and the mean.
+ * The latency of the hottest partition compared to the others shows what the skew costs.
+ * <p>
+ * The analyzer is thread-safe so it can be shared by a pool of producers and consumers.
+ */
+public class PartitionSkewAnalyzer {
+
+    private final String topic;
+    private final int partitions;
+    private final AtomicLongArray producedRecords;
+    private final AtomicLongArray producedBytes;
+    private final AtomicLongArray consumedRecords;
+    private final AtomicLongArray consumedBytes;
+    private final LatencyHistogram[] latency;
+
+    public PartitionSkewAnalyzer(String topic, int partitions) {
+        this.topic = topic;
+        this.partitions = partitions;
+        this.producedRecords = new AtomicLongArray(partitions);
+        this.producedBytes = new AtomicLongArray(partitions);
+        this.consumedRecords = new AtomicLongArray(partitions);
+        this.consumedBytes = new AtomicLongArray(partitions);
+        this.latency = new LatencyHistogram[partitions];
+        for (int i = 0; i < partitions; i++) {
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PartitionStats {
+        private final int partition;
+        private final long producedRecords;
+        private final long producedBytes;
+        private final long consumedRecords;
+        private final long consumedBytes;
+        private final long latencyP50Micros;
+        private final long latencyP99Micros;
+        private final long latencyMaxMicros;
+
+        static final String CSV_HEADER = "partition,produced_records,produced_bytes,consumed_records,consumed_bytes,"
+            + "e2e_latency_p50_micros,e2e_latency_p99_micros,e2e_latency_max_micros";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%d",
+                partition, producedRecords, producedBytes, consumedRecords, consumedBytes,
+                latencyP50Micros, latencyP99Micros, latencyMaxMicros);
+        }
+    }
+
+    /**
+     * The skew of the records over the partitions.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Skew {
+        private final long records;
+        private final double coefficientOfVariation;
+        private final double maxToMean;
+        private final int hottestPartition;
+        private final double hottestShare;
+        private final int emptyPartitions;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "records: %d; cv: %.3f; max/mean: %.2f; hottest partition: %d (%.1f%%); empty partitions: %d",
+                records, coefficientOfVariation, maxToMean, hottestPartition, hottestShare * 100, emptyPartitions);
+        }
+    }
+
+    /**
+     * Count an acknowledged record, the record must be of the analyzed topic.
+     */
+    public void produced(RecordMetadata metadata, long bytes) {
+        producedRecords.incrementAndGet(metadata.getPartition());
+        producedBytes.addAndGet(metadata.getPartition(), bytes);
+    }
+
+    /**
+     * @return an ack handler for {@link KafkaProducerClient#sendAsync(java.util.Iterator, java.util.function.Function, SendRate, BiConsumer)}
+     */
+    public <K, V> BiConsumer<KafkaProducerRecord<K, V>, RecordMetadata> onAck() {
+        return (record, metadata) -> produced(metadata, sizeOf(record.value()));
+    }
+
+    /**
+     * Count a consumed record and record its latency if it has been stamped by a {@link LatencyRecorder}.
+     */
+    public void consumed(KafkaConsumerRecord<?, ?> record) {
+        consumedRecords.incrementAndGet(record.partition());
+        consumedBytes.addAndGet(record.partition(), Math.max(0, record.record().serializedValueSize()));
+        var micros = LatencyRecorder.latency(record);
+        if (micros >= 0) {
+            latency[record.partition()].record(micros);
+        }
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    public int partitions() {
+        return partitions;
+    }
+
+    public Skew producedSkew() {
+        return skew(producedRecords);
+    }
+
+    public Skew consumedSkew() {
+        return skew(consumedRecords);
+    }
+
+    public LatencyHistogram latency(int partition) {
+        return latency[partition];
+    }
+
+    /**
+     * @return the latency of all partitions except the given one
+     */
+    public LatencyHistogram latencyExcept(int partition) {
+        var total = new LatencyHistogram();
+        for (int i = 0; i < partitions; i++) {
+            if (i != partition) {
+                total.add(latency[i]);
+            }
+        }
+        return total;
+    }
+
+    public List<PartitionStats> partitionStats() {
+        var stats = new ArrayList<PartitionStats>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            stats.add(new PartitionStats(i,
+                producedRecords.get(i),
+                producedBytes.get(i),
+                consumedRecords.get(i),
+                consumedBytes.get(i),
+                latency[i].percentile(50),
+                latency[i].percentile(99),
+                latency[i].max()));
+        }
+        return stats;
+    }
+
+    static Skew skew(AtomicLongArray records) {
+        var n = records.length();
+        long total = 0;
+        long max = -1;
+        var hottest = 0;
+        var empty = 0;
+        for (int i = 0; i < n; i++) {
+            var r = records.get(i);
+            total += r;
+            if (r > max) {
+                max = r;
+                hottest = i;
+            }
+            if (r == 0) {
+                empty++;
+            }
+        }
+        if (total == 0) {
+            return new Skew(0, 0, 0, hottest, 0, empty);
+        }
+
+        var mean = (double) total / n;
+        var variance = 0d;
+        for (int i = 0; i < n; i++) {
+            var d = records.get(i) - mean;
+            variance += d * d;
+        }
+        var cv = Math.sqrt(variance / n) / mean;
+        return new Skew(total, cv, max / mean, hottest, (double) max / total, empty);
+    }
+
+    /**
+     * @return the serialized size of a produced value, which is not part of the metadata of the acknowledged record
+     */
+    private static int sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Buffer) {
+            return ((Buffer) value).length();
+        }
+        if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return value.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public Path writeReport(String name) throws IOException {
+        return Reports.write(name, PartitionStats.CSV_HEADER, partitionStats(), PartitionStats::toCsv);
+    }
+}
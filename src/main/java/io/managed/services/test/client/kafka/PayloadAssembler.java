@@ -0,0 +1,246 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Reassemble the payloads split by the {@link PayloadChunker} in a bounded buffer.
+ * <p>
+ * The chunks of each payload are copied at their offset in a buffer of the payload size that is allocated
+ * when the first chunk is received. When a new payload does not fit in the max buffered bytes the oldest
+ * incomplete payloads are evicted, and a payload larger than the max buffered bytes is dropped. The chunks
+ * received after their payload has been evicted start a new payload that is eventually evicted too.
+ * <p>
+ * The assembler is not thread-safe.
+ */
+public class PayloadAssembler {
+
+    private final long maxBufferedBytes;
+    private final Map<String, Partial> partials = new LinkedHashMap<>();
+    private final CRC32C crc = new CRC32C();
+
+    private long buffered;
+    private long maxBuffered;
+    private long assembled;
+    private long unchunked;
+    private long duplicated;
+    private long evicted;
+    private long dropped;
+    private long corrupted;
+
+    private static class Partial {
+        private final byte[] payload;
+        private final BitSet received;
+        private final int crc;
+        private int remaining;
+
+        Partial(int size, int count, int crc) {
+            this.payload = new byte[size];
+            this.received = new BitSet(count);
+            this.crc = crc;
+            this.remaining = count;
+        }
+    }
+
+    public PayloadAssembler(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * The chunk headers of a record.
+     */
+    private static class Chunk {
+        private String id;
+        private int index = -1;
+        private int offset = -1;
+        private int count = -1;
+        private int size = -1;
+        private int crc;
+
+        /**
+         * @return the chunk headers or null if the record is not a chunk
+         */
+        static Chunk of(KafkaConsumerRecord<?, ?> record) {
+            var chunk = new Chunk();
+            for (var header : record.headers()) {
+                switch (header.key()) {
+                    case PayloadChunker.ID_HEADER:
+                        chunk.id = header.value().toString();
+                        break;
+                    case PayloadChunker.INDEX_HEADER:
+                        chunk.index = intOf(header.value());
+                        break;
+                    case PayloadChunker.OFFSET_HEADER:
+                        chunk.offset = intOf(header.value());
+                        break;
+                    case PayloadChunker.COUNT_HEADER:
+                        chunk.count = intOf(header.value());
+                        break;
+                    case PayloadChunker.SIZE_HEADER:
+                        chunk.size = intOf(header.value());
+                        break;
+                    case PayloadChunker.CRC_HEADER:
+                        chunk.crc = intOf(header.value());
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (chunk.id == null || chunk.index < 0 || chunk.offset < 0 || chunk.count < 1 || chunk.size < 0) {
+                return null;
+            }
+            return chunk;
+        }
+
+        private static int intOf(Buffer value) {
+            return value.length() == Integer.BYTES ? value.getInt(0) : -1;
+        }
+    }
+
+    /**
+     * @return the payload if the record completes it, the value itself if the record is not a chunk, or null
+     */
+    public ByteBuffer accept(KafkaConsumerRecord<?, ByteBuffer> record) {
+        var chunk = Chunk.of(record);
+        if (chunk == null) {
+            unchunked++;
+            return record.value();
+        }
+
+        var value = record.value();
+        if (chunk.index >= chunk.count || chunk.offset + value.remaining() > chunk.size) {
+            corrupted++;
+            return null;
+        }
+
+        if (chunk.count == 1) {
+            return complete(value, chunk.crc);
+        }
+
+        var partial = partials.get(chunk.id);
+        if (partial == null) {
+            if (!reserve(chunk.size)) {
+                dropped++;
+                return null;
+            }
+            partial = new Partial(chunk.size, chunk.count, chunk.crc);
+            partials.put(chunk.id, partial);
+        }
+
+        if (partial.received.get(chunk.index)) {
+            duplicated++;
+            return null;
+        }
+        value.duplicate().get(partial.payload, chunk.offset, value.remaining());
+        partial.received.set(chunk.index);
+
+        if (--partial.remaining > 0) {
+            return null;
+        }
+
+        partials.remove(chunk.id);
+        buffered -= partial.payload.length;
+        return complete(ByteBuffer.wrap(partial.payload), partial.crc);
+    }
+
+    /**
+     * Evict the oldest incomplete payloads until the size fits in the max buffered bytes.
+     *
+     * @return false if the size is larger than the max buffered bytes
+     */
+    private boolean reserve(int size) {
+        if (size > maxBufferedBytes) {
+            return false;
+        }
+
+        var oldest = partials.values().iterator();
+        while (buffered + size > maxBufferedBytes) {
+            buffered -= oldest.next().payload.length;
+            oldest.remove();
+            evicted++;
+        }
+
+        buffered += size;
+        maxBuffered = Math.max(maxBuffered, buffered);
+        return true;
+    }
+
+    private ByteBuffer complete(ByteBuffer payload, int expectedCRC) {
+        crc.reset();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != expectedCRC) {
+            corrupted++;
+            return null;
+        }
+        assembled++;
+        return payload;
+    }
+
+    /**
+     * @return the number of payloads reassembled and verified
+     */
+    public long assembled() {
+        return assembled;
+    }
+
+    /**
+     * @return the number of records without chunk headers
+     */
+    public long unchunked() {
+        return unchunked;
+    }
+
+    public long duplicated() {
+        return duplicated;
+    }
+
+    /**
+     * @return the number of incomplete payloads evicted to make room for newer payloads
+     */
+    public long evicted() {
+        return evicted;
+    }
+
+    /**
+     * @return the number of chunks dropped because their payload is larger than the max buffered bytes
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of payloads that don't match their CRC32C once reassembled
+     */
+    public long corrupted() {
+        return corrupted;
+    }
+
+    /**
+     * @return the number of incomplete payloads in the buffer
+     */
+    public int pending() {
+        return partials.size();
+    }
+
+    public long bufferedBytes() {
+        return buffered;
+    }
+
+    public long maxBufferedBytes() {
+        return maxBuffered;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("assembled: %d; unchunked: %d; pending: %d; duplicated: %d; evicted: %d; dropped: %d; corrupted: %d;"
+                + " max buffered bytes: %d",
+            assembled, unchunked, partials.size(), duplicated, evicted, dropped, corrupted, maxBuffered);
+    }
+}
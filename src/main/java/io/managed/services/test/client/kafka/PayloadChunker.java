@@ -0,0 +1,137 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * Split payloads larger than the instance message size limit into chunks that are sent as separate records
+ * and reassembled by the {@link PayloadAssembler}.
+ * <p>
+ * Each chunk is a slice of the payload, so splitting doesn't copy anything, and is sent with the payload id
+ * as key so that all the chunks of a payload go to the same partition in order. Each chunk carries in its
+ * headers the payload id, the chunk index and offset, the number of chunks and the size and the CRC32C of
+ * the whole payload.
+ * <p>
+ * Use {@link #chunks(Iterator)} as the messages and {@link #toRecord(String)} as the record factory of
+ * {@link KafkaProducerClient#sendAsync(Iterator, Function, SendRate)}: the record factory must be applied to each
+ * chunk right after it has been pulled from the iterator because the headers are taken from the current chunk.
+ * The chunker is not thread-safe.
+ */
+public class PayloadChunker {
+
+    public static final String ID_HEADER = "chunk-payload-id";
+    public static final String INDEX_HEADER = "chunk-index";
+    public static final String COUNT_HEADER = "chunk-count";
+    public static final String OFFSET_HEADER = "chunk-offset";
+    public static final String SIZE_HEADER = "chunk-payload-size";
+    public static final String CRC_HEADER = "chunk-payload-crc";
+
+    /**
+     * Room left in each record for the key, the headers and the record and batch overhead.
+     */
+    public static final int RECORD_OVERHEAD = 1024;
+
+    private final int chunkSize;
+    private final CRC32C crc = new CRC32C();
+
+    private ByteBuffer payload;
+    private Buffer payloadId;
+    private Buffer payloadHeaders;
+    private String key;
+    private int count;
+    private int index;
+    private ByteBuffer chunk;
+
+    public PayloadChunker(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("the chunk size must be greater than 0");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the largest chunk that fits in a record below the message size limit
+     */
+    public static int chunkSize(int messageSizeLimit) {
+        return messageSizeLimit - RECORD_OVERHEAD;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the number of chunks for a payload of the given size
+     */
+    public int chunks(int payloadSize) {
+        return Math.max(1, (payloadSize + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * @return the chunks of all payloads pulled from the payloads iterator only when the previous payload has been split
+     */
+    public Iterator<ByteBuffer> chunks(Iterator<ByteBuffer> payloads) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return index < count || payloads.hasNext();
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (index == count) {
+                    if (!payloads.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    start(payloads.next());
+                }
+
+                var offset = index * chunkSize;
+                chunk = payload.duplicate().position(offset).limit(Math.min(offset + chunkSize, payload.limit())).slice();
+                index++;
+                return chunk;
+            }
+        };
+    }
+
+    private void start(ByteBuffer next) {
+        payload = next.duplicate().rewind();
+        key = UUID.randomUUID().toString();
+        payloadId = Buffer.buffer(key);
+        count = chunks(payload.remaining());
+        index = 0;
+
+        crc.reset();
+        crc.update(payload.duplicate());
+        payloadHeaders = Buffer.buffer(Integer.BYTES * 3)
+            .appendInt(count)
+            .appendInt(payload.remaining())
+            .appendInt((int) crc.getValue());
+    }
+
+    /**
+     * @return the record factory for the chunks returned by {@link #chunks(Iterator)}
+     */
+    public Function<ByteBuffer, KafkaProducerRecord<String, ByteBuffer>> toRecord(String topicName) {
+        return value -> {
+            if (value != chunk) {
+                throw new IllegalStateException("the record must be created for the last chunk returned by the iterator");
+            }
+
+            return KafkaProducerRecord.create(topicName, key, value)
+                .addHeader(ID_HEADER, payloadId)
+                .addHeader(INDEX_HEADER, Buffer.buffer(Integer.BYTES).appendInt(index - 1))
+                .addHeader(OFFSET_HEADER, Buffer.buffer(Integer.BYTES).appendInt((index - 1) * chunkSize))
+                .addHeader(COUNT_HEADER, payloadHeaders.slice(0, Integer.BYTES))
+                .addHeader(SIZE_HEADER, payloadHeaders.slice(Integer.BYTES, Integer.BYTES * 2))
+                .addHeader(CRC_HEADER, payloadHeaders.slice(Integer.BYTES * 2, Integer.BYTES * 3));
+        };
+    }
+}
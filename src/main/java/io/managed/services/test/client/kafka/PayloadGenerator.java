@@ -0,0 +1,210 @@
+package io.managed.services.test.client.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/**
+ * Deterministic generator of random alphanumeric payloads.
+ * <p>
+ * A pool of random alphanumeric bytes is generated once and each payload is a random slice of the pool,
+ * so generating a payload doesn't copy or encode anything. Use {@link #nextBuffer()} with the
+ * {@link org.apache.kafka.common.serialization.ByteBufferSerializer} to send the slices without allocating
+ * a String for each message, or {@link #nextBytes()} with the {@link org.apache.kafka.common.serialization.ByteArraySerializer}.
+ * <p>
+ * The payloads of a small pool overlap and compress much better than real data, so the workloads that measure
+ * the compression must use {@link #forCompression(long, SizeDistribution)}.
+ * <p>
+ * The same seed and distribution always generate the same sequence of payloads. The generator is not thread-safe.
+ */
+public class PayloadGenerator {
+
+    private static final byte[] ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+        .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MIN_POOL_SIZE = 64 * 1024;
+
+    // much larger than the max batch size and the window of the compression codecs
+    private static final int COMPRESSION_POOL_SIZE = 64 * 1024 * 1024;
+
+    private final SplittableRandom random;
+    private final SizeDistribution distribution;
+    private final byte[] pool;
+
+    public PayloadGenerator(long seed, SizeDistribution distribution) {
+        this(seed, distribution, MIN_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize The size of the pool of random bytes, it is raised to twice the max size if smaller
+     */
+    public PayloadGenerator(long seed, SizeDistribution distribution, int poolSize) {
+        this.random = new SplittableRandom(seed);
+        this.distribution = distribution;
+
+        // the pool is at least twice the max size so that payloads of the max size can still start at different offsets
+        this.pool = new byte[Math.max(poolSize, distribution.max() * 2)];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)];
+        }
+    }
+
+    public PayloadGenerator(long seed, int minMessageSize, int maxMessageSize) {
+        this(seed, SizeDistribution.of(minMessageSize, maxMessageSize));
+    }
+
+    public PayloadGenerator(int minMessageSize, int maxMessageSize) {
+        this(System.nanoTime(), minMessageSize, maxMessageSize);
+    }
+
+    /**
+     * @return a generator with a pool large enough that the payloads of the same batch almost never overlap,
+     * so that they compress like independent random alphanumeric strings
+     */
+    public static PayloadGenerator forCompression(long seed, SizeDistribution distribution) {
+        return new PayloadGenerator(seed, distribution, COMPRESSION_POOL_SIZE);
+    }
+
+    private int nextOffset(int size) {
+        return random.nextInt(pool.length - size + 1);
+    }
+
+    /**
+     * @return a read-only view of the next payload, the content is shared with the pool
+     */
+    public ByteBuffer nextBuffer() {
+        var size = distribution.next(random);
+        return ByteBuffer.wrap(pool, nextOffset(size), size).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of a payload of the given size, the size must not be larger than the max size
+     */
+    public ByteBuffer nextBuffer(int size) {
+        if (size > pool.length) {
+            throw new IllegalArgumentException("the size can not be larger than " + pool.length);
+        }
+        return ByteBuffer.wrap(pool, nextOffset(size), size).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the next payload
+     */
+    public byte[] nextBytes() {
+        var size = distribution.next(random);
+        var offset = nextOffset(size);
+        return Arrays.copyOfRange(pool, offset, offset + size);
+    }
+
+    public String nextString() {
+        var size = distribution.next(random);
+        return new String(pool, nextOffset(size), size, StandardCharsets.US_ASCII);
+    }
+
+    public Iterator<ByteBuffer> buffers(long count) {
+        return iterator(count, this::nextBuffer);
+    }
+
+    public Iterator<byte[]> bytes(long count) {
+        return iterator(count, this::nextBytes);
+    }
+
+    public Iterator<String> strings(long count) {
+        return iterator(count, this::nextString);
+    }
+
+    private static <T> Iterator<T> iterator(long count, Supplier<T> next) {
+        return new Iterator<>() {
+            private long left = count;
+
+            @Override
+            public boolean hasNext() {
+                return left > 0;
+            }
+
+            @Override
+            public T next() {
+                if (left <= 0) {
+                    throw new NoSuchElementException();
+                }
+                left--;
+                return next.get();
+            }
+        };
+    }
+
+    /**
+     * Distribution of the payload sizes
+     */
+    public static class SizeDistribution {
+
+        private final int min;
+        private final int max;
+        private final int smallMax;
+        private final int largeMin;
+        private final double largeRatio;
+
+        private SizeDistribution(int min, int max, int smallMax, int largeMin, double largeRatio) {
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException(String.format("invalid size range [%d, %d]", min, max));
+            }
+            this.min = min;
+            this.max = max;
+            this.smallMax = smallMax;
+            this.largeMin = largeMin;
+            this.largeRatio = largeRatio;
+        }
+
+        public static SizeDistribution fixed(int size) {
+            return new SizeDistribution(size, size, size, size, 0);
+        }
+
+        public static SizeDistribution uniform(int min, int max) {
+            return new SizeDistribution(min, max, max, max, 0);
+        }
+
+        /**
+         * Mostly small payloads close to min with a fraction of large payloads close to max. Each mode
+         * covers the 10% of the range closest to min or max.
+         *
+         * @param largeRatio The fraction of large payloads between 0 and 1
+         */
+        public static SizeDistribution bimodal(int min, int max, double largeRatio) {
+            var tenth = (max - min) / 10;
+            return new SizeDistribution(min, max, min + tenth, max - tenth, largeRatio);
+        }
+
+        /**
+         * Fixed if min and max are the same otherwise uniform, which is the same behaviour of
+         * {@link KafkaMessagingUtils#generateRandomMessages(int, int, int)}.
+         */
+        public static SizeDistribution of(int minMessageSize, int maxMessageSize) {
+            if (minMessageSize == maxMessageSize) {
+                return fixed(minMessageSize);
+            }
+            return uniform(minMessageSize, maxMessageSize);
+        }
+
+        public int min() {
+            return min;
+        }
+
+        public int max() {
+            return max;
+        }
+
+        int next(SplittableRandom random) {
+            if (min == max) {
+                return min;
+            }
+            if (largeRatio > 0 && random.nextDouble() < largeRatio) {
+                return random.nextInt(largeMin, max + 1);
+            }
+            return random.nextInt(min, smallMax + 1);
+        }
+    }
+}
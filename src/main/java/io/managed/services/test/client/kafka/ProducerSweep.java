@@ -0,0 +1,187 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.vertx.core.Future;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Run the same producer workload over a grid of compression.type, batch.size, linger.ms and acks
+ * and write the throughput, the p99 ack latency, the bytes sent on the wire and the CPU time of
+ * each combination to a CSV and a JSON report under {@link Environment#LOG_DIR}.
+ * <p>
+ * The combinations are run one after the other, each one with a new producer and the same payloads,
+ * so the CPU time of the whole process measured during a combination can be compared between them.
+ */
+public class ProducerSweep {
+    private static final Logger LOGGER = LogManager.getLogger(ProducerSweep.class);
+
+    private static final long PAYLOAD_SEED = 42;
+
+    private final KafkaConnectionSettings connection;
+
+    public ProducerSweep(KafkaConnectionSettings connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * The values of each parameter, every combination of them is run.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Grid {
+        private final List<String> compressionTypes;
+        private final List<Integer> batchSizes;
+        private final List<Integer> lingerMs;
+        private final List<String> acks;
+
+        public static Grid defaults() {
+            return new Grid(
+                List.of("none", "gzip", "snappy", "lz4", "zstd"),
+                List.of(16 * 1024, 128 * 1024),
+                List.of(0, 5, 50),
+                List.of("1", "all"));
+        }
+
+        public int size() {
+            return compressionTypes.size() * batchSizes.size() * lingerMs.size() * acks.size();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final String compressionType;
+        private final int batchSize;
+        private final int lingerMs;
+        private final String acks;
+        private final long messages;
+        private final long bytes;
+        private final long errors;
+        private final long elapsedMillis;
+        private final double messagesPerSecond;
+        private final double bytesPerSecond;
+        private final long p99AckLatencyMicros;
+        private final double outgoingBytes;
+        private final double compressionRate;
+        private final long cpuMillis;
+
+        static final String CSV_HEADER = "compression_type,batch_size,linger_ms,acks,messages,bytes,errors,elapsed_ms,"
+            + "messages_per_second,bytes_per_second,p99_ack_latency_us,outgoing_bytes,compression_rate,cpu_ms";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%s,%d,%d,%d,%d,%.1f,%.1f,%d,%.0f,%.3f,%d",
+                compressionType, batchSize, lingerMs, acks, messages, bytes, errors, elapsedMillis,
+                messagesPerSecond, bytesPerSecond, p99AckLatencyMicros, outgoingBytes, compressionRate, cpuMillis);
+        }
+    }
+
+    /**
+     * Run all combinations of the grid sending the messages to the topic.
+     *
+     * @param messagesPerCell The number of messages to send for each combination
+     * @param sizes           The size distribution of the messages
+     * @param rate            The rate at which each combination sends the messages
+     * @return the results in the order they have been run
+     */
+    public Future<List<Result>> run(String topicName, Grid grid, long messagesPerCell, PayloadGenerator.SizeDistribution sizes, SendRate rate) {
+        LOGGER.info("start producer sweep of {} combinations on topic {}", grid.size(), topicName);
+
+        var results = new ArrayList<Result>();
+        Future<?> cells = Future.succeededFuture();
+        for (var compression : grid.compressionTypes) {
+            for (var batchSize : grid.batchSizes) {
+                for (var linger : grid.lingerMs) {
+                    for (var acks : grid.acks) {
+                        cells = cells.compose(__ -> runCell(topicName, compression, batchSize, linger, acks, messagesPerCell, sizes, rate)
+                            .map(results::add));
+                    }
+                }
+            }
+        }
+        return cells.map(__ -> results);
+    }
+
+    private Future<Result> runCell(
+        String topicName,
+        String compression,
+        int batchSize,
+        int linger,
+        String acks,
+        long messages,
+        PayloadGenerator.SizeDistribution sizes,
+        SendRate rate) {
+
+        var config = Map.of(
+            ProducerConfig.COMPRESSION_TYPE_CONFIG, compression,
+            ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(batchSize),
+            ProducerConfig.LINGER_MS_CONFIG, String.valueOf(linger),
+            ProducerConfig.ACKS_CONFIG, acks);
+
+        var producer = connection.producer(StringSerializer.class, ByteBufferSerializer.class, config);
+
+        // the same seed sends the same payloads for each combination
+        var payloads = PayloadGenerator.forCompression(PAYLOAD_SEED, sizes).buffers(messages);
+
+        var cpuStart = processCpuTime();
+        return producer.sendAsync(topicName, payloads, rate)
+            .map(stats -> {
+                var cpu = processCpuTime() - cpuStart;
+                var metrics = producer.metrics();
+                var result = new Result(compression, batchSize, linger, acks,
+                    stats.messages(),
+                    stats.bytes(),
+                    stats.errors(),
+                    stats.elapsed().toMillis(),
+                    stats.messagesPerSecond(),
+                    stats.bytesPerSecond(),
+                    stats.ackLatency().percentile(99),
+                    metric(metrics, "outgoing-byte-total"),
+                    metric(metrics, "compression-rate-avg"),
+                    cpu / 1_000_000);
+                LOGGER.info("producer sweep {}", result.toCsv());
+                return result;
+            })
+            .eventually(__ -> producer.asyncClose());
+    }
+
+    private static double metric(Map<MetricName, ? extends Metric> metrics, String name) {
+        return metrics.entrySet().stream()
+            .filter(e -> "producer-metrics".equals(e.getKey().group()) && name.equals(e.getKey().name()))
+            .map(e -> e.getValue().metricValue())
+            .filter(v -> v instanceof Number)
+            .mapToDouble(v -> ((Number) v).doubleValue())
+            .findFirst()
+            .orElse(Double.NaN);
+    }
+
+    /**
+     * @return the CPU time used by the whole process in nanoseconds or 0 if it is not supported by the JVM
+     */
+    private static long processCpuTime() {
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    public static Path writeReport(String name, List<Result> results) throws IOException {
+        return Reports.write(name, Result.CSV_HEADER, results, Result::toCsv);
+    }
+}
@@ -0,0 +1,201 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.producer.KafkaProducer;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import io.vertx.kafka.client.producer.RecordMetadata;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Pump messages from an iterator into a producer following the schedule given by the {@link SendRate}.
+ * <p>
+ * The messages are pulled from the iterator only when they are due, except with a scheduled rate where the
+ * next message is pulled in advance to know when it is due.
+ * <p>
+ * All state is only touched from a single Vert.x context: the pump stops and waits for a timer when it is
+ * ahead of the schedule, for a completed send when there are too many sends in flight, and for the
+ * producer drainHandler when the producer write queue is full.
+ */
+class RateLimitedSend<M, K, V> {
+    private static final Logger LOGGER = LogManager.getLogger(RateLimitedSend.class);
+
+    private final Vertx vertx;
+    private final Context context;
+    private final KafkaProducer<K, V> producer;
+    private final Iterator<M> messages;
+    private final Function<M, KafkaProducerRecord<K, V>> toRecord;
+    private final SendRate rate;
+    private final BiConsumer<KafkaProducerRecord<K, V>, RecordMetadata> onAck;
+
+    private final Promise<SendStats> promise = Promise.promise();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+    private long start;
+    private long messagesSent;
+    private long bytesSent;
+    private long maxSlip;
+    private long lastSlip;
+    private long errors;
+    private int inFlight;
+    private boolean paused;
+    private boolean timerPending;
+
+    private M next;
+    private boolean hasNext;
+
+    RateLimitedSend(
+        Vertx vertx,
+        Context context,
+        KafkaProducer<K, V> producer,
+        Iterator<M> messages,
+        Function<M, KafkaProducerRecord<K, V>> toRecord,
+        SendRate rate,
+        BiConsumer<KafkaProducerRecord<K, V>, RecordMetadata> onAck) {
+
+        this.vertx = vertx;
+        this.context = context;
+        this.producer = producer;
+        this.messages = messages;
+        this.toRecord = toRecord;
+        this.rate = rate;
+        this.onAck = onAck;
+    }
+
+    Future<SendStats> start() {
+        context.runOnContext(__ -> {
+            start = System.nanoTime();
+            producer.drainHandler(v -> resume());
+            pump();
+        });
+        return promise.future();
+    }
+
+    private void resume() {
+        if (paused) {
+            paused = false;
+            pump();
+        }
+    }
+
+    private boolean hasNext() {
+        return hasNext || messages.hasNext();
+    }
+
+    private M peek() {
+        if (!hasNext) {
+            next = messages.next();
+            hasNext = true;
+        }
+        return next;
+    }
+
+    private M take() {
+        var message = peek();
+        next = null;
+        hasNext = false;
+        return message;
+    }
+
+    /**
+     * @return the nano time at which the next message should be sent
+     */
+    private long due() {
+        if (rate.isUnlimited()) {
+            return start;
+        }
+        if (rate.isScheduled()) {
+            return start + (long) (rate.scheduleOf(peek()) / rate.rate());
+        }
+        var units = rate.isBytes() ? bytesSent : messagesSent;
+        return start + (long) (units / rate.rate() * 1_000_000_000d);
+    }
+
+    private void pump() {
+        while (!promise.future().isComplete()) {
+
+            if (!hasNext()) {
+                if (inFlight == 0) {
+                    complete();
+                }
+                return;
+            }
+
+            if (inFlight >= rate.maxInFlight() || producer.writeQueueFull()) {
+                paused = true;
+                return;
+            }
+
+            var now = System.nanoTime();
+            var due = due();
+            if (due > now) {
+                if (!timerPending) {
+                    timerPending = true;
+                    var delay = Math.max(1, (due - now) / 1_000_000);
+                    vertx.setTimer(delay, __ -> {
+                        timerPending = false;
+                        pump();
+                    });
+                }
+                return;
+            }
+
+            if (!rate.isUnlimited()) {
+                lastSlip = now - due;
+                maxSlip = Math.max(maxSlip, lastSlip);
+            }
+
+            var message = take();
+            messagesSent++;
+            bytesSent += rate.sizeOf(message);
+            inFlight++;
+
+            var sentAt = now;
+            var record = toRecord.apply(message);
+            producer.send(record).onComplete(r -> onSent(r, record, sentAt));
+        }
+    }
+
+    private void onSent(AsyncResult<RecordMetadata> r, KafkaProducerRecord<K, V> record, long sentAt) {
+        inFlight--;
+        ackLatency.record((System.nanoTime() - sentAt) / 1_000);
+        if (r.succeeded()) {
+            onAck.accept(record, r.result());
+        } else {
+            errors++;
+            if (rate.isFailFast()) {
+                LOGGER.error("failed to send message {} at rate {}", messagesSent, rate, r.cause());
+                promise.tryFail(r.cause());
+                return;
+            }
+            LOGGER.debug("failed to send message {} at rate {}", messagesSent, rate, r.cause());
+        }
+        if (paused) {
+            resume();
+        } else if (inFlight == 0 && !hasNext()) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        producer.drainHandler(null);
+        var stats = new SendStats(
+            messagesSent,
+            bytesSent,
+            errors,
+            Duration.ofNanos(System.nanoTime() - start),
+            Duration.ofNanos(maxSlip),
+            Duration.ofNanos(lastSlip),
+            ackLatency);
+        promise.tryComplete(stats);
+    }
+}
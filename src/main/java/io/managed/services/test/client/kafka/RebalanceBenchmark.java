@@ -0,0 +1,315 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.prometheus.client.Gauge;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.common.TopicPartition;
+import io.vertx.kafka.client.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.RangeAssignor;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static io.managed.services.test.TestUtils.message;
+
+/**
+ * Measure how long the consumer group takes to rebalance while it grows from 1 to N consumers
+ * and shrinks back to 1.
+ * <p>
+ * For each step two latencies are measured from the moment the new consumer subscribes, or the leaving
+ * consumer is closed: the time until the last consumer of the group receives its first partitions
+ * assigned callback, and the time until the group is stable, which is when all consumers received the
+ * callback and every partition of the topic is assigned to exactly one consumer. With the cooperative
+ * assignors the second latency includes the follow-up rebalance that assigns the revoked partitions.
+ */
+public class RebalanceBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(RebalanceBenchmark.class);
+
+    static final Gauge REBALANCE_LATENCY = Gauge.build()
+        .name("kafka_rebalance_latency_seconds")
+        .labelNames("launch", "assignor", "step", "action", "consumers", "phase")
+        .help("Consumer group rebalance latency in seconds.")
+        .register();
+
+    private static final Duration STEP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+
+    public RebalanceBenchmark(KafkaConnectionSettings connection) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+    }
+
+    public static class Step {
+        private final int index;
+        private final String action;
+        private final int consumers;
+        private final Duration firstAssignment;
+        private final Duration stable;
+
+        Step(int index, String action, int consumers, Duration firstAssignment, Duration stable) {
+            this.index = index;
+            this.action = action;
+            this.consumers = consumers;
+            this.firstAssignment = firstAssignment;
+            this.stable = stable;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return join or leave
+         */
+        public String action() {
+            return action;
+        }
+
+        /**
+         * @return the number of consumers in the group after the step
+         */
+        public int consumers() {
+            return consumers;
+        }
+
+        public Duration firstAssignment() {
+            return firstAssignment;
+        }
+
+        public Duration stable() {
+            return stable;
+        }
+    }
+
+    private static class Member {
+        private final KafkaConsumer<String, String> consumer;
+        private final Set<TopicPartition> assignment = new HashSet<>();
+        private long firstAssignedAt = -1;
+
+        Member(KafkaConsumer<String, String> consumer) {
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * The state of a single run, the consumer handlers can be invoked from different contexts.
+     */
+    private class Run {
+        private final String topicName;
+        private final String assignor;
+        private final List<Member> members = new ArrayList<>();
+        private final List<Step> steps = new ArrayList<>();
+        private Set<TopicPartition> partitions;
+
+        private Promise<Void> stable;
+        private long stepStart;
+
+        Run(String topicName, String assignor) {
+            this.topicName = topicName;
+            this.assignor = assignor;
+        }
+
+        synchronized void onAssigned(Member member, Set<TopicPartition> assigned) {
+            member.assignment.addAll(assigned);
+            if (member.firstAssignedAt < 0) {
+                member.firstAssignedAt = System.nanoTime();
+            }
+            checkStable();
+        }
+
+        synchronized void onRevoked(Member member, Set<TopicPartition> revoked) {
+            member.assignment.removeAll(revoked);
+        }
+
+        private void checkStable() {
+            if (stable == null || members.stream().anyMatch(m -> m.firstAssignedAt < 0)) {
+                return;
+            }
+
+            var assigned = members.stream().mapToInt(m -> m.assignment.size()).sum();
+            var union = members.stream().flatMap(m -> m.assignment.stream()).collect(Collectors.toSet());
+            if (assigned == union.size() && union.equals(partitions)) {
+                stable.tryComplete();
+            }
+        }
+
+        synchronized Future<Void> startStep() {
+            members.forEach(m -> m.firstAssignedAt = -1);
+            stepStart = System.nanoTime();
+            stable = Promise.promise();
+            return stable.future();
+        }
+
+        synchronized Step endStep(String action) {
+            var now = System.nanoTime();
+            var first = members.stream().mapToLong(m -> m.firstAssignedAt).max().orElse(now);
+            var step = new Step(steps.size(), action, members.size(),
+                Duration.ofNanos(first - stepStart), Duration.ofNanos(now - stepStart));
+            steps.add(step);
+            stable = null;
+            return step;
+        }
+
+        Future<Step> step(String action, Runnable change) {
+            var future = startStep();
+            var timer = vertx.setTimer(STEP_TIMEOUT.toMillis(), __ -> {
+                synchronized (this) {
+                    if (stable != null) {
+                        stable.tryFail(message("timeout after {} waiting for the group of {} consumers to be stable with {}",
+                            STEP_TIMEOUT, members.size(), assignor));
+                    }
+                }
+            });
+
+            change.run();
+
+            return future
+                .onComplete(__ -> vertx.cancelTimer(timer))
+                .map(__ -> {
+                    var step = endStep(action);
+                    LOGGER.info("{} step {}: {} consumer, {} consumers in the group; first assignment: {}; stable: {}",
+                        assignor, step.index, action, step.consumers, step.firstAssignment, step.stable);
+                    return step;
+                });
+        }
+
+        Future<Step> join(Map<String, String> config) {
+            var consumer = KafkaConsumerClient.<String, String>createConsumer(vertx,
+                connection.getBootstrapHost(),
+                connection.getClientID(),
+                connection.getClientSecret(),
+                connection.getAuthMethod(),
+                "rebalance-benchmark-" + assignor,
+                "latest",
+                StringDeserializer.class,
+                StringDeserializer.class,
+                config);
+
+            var member = new Member(consumer);
+            consumer.partitionsAssignedHandler(tps -> onAssigned(member, tps));
+            consumer.partitionsRevokedHandler(tps -> onRevoked(member, tps));
+
+            // the consumer polls only when a handler is set
+            consumer.handler(__ -> { });
+
+            return step("join", () -> {
+                synchronized (this) {
+                    members.add(member);
+                }
+                consumer.subscribe(topicName);
+            });
+        }
+
+        Future<Step> leave() {
+            Member member;
+            synchronized (this) {
+                member = members.remove(members.size() - 1);
+            }
+            return step("leave", () -> member.consumer.close());
+        }
+
+        Future<Void> closeAll() {
+            List<Future> closed;
+            synchronized (this) {
+                closed = members.stream().map(m -> (Future) m.consumer.close()).collect(Collectors.toList());
+                members.clear();
+            }
+            return CompositeFuture.join(closed).mapEmpty();
+        }
+    }
+
+    /**
+     * Grow the group from 1 to maxConsumers and shrink it back to 1 using the given assignor.
+     *
+     * @return the join and leave steps in order
+     */
+    public Future<List<Step>> run(String topicName, int maxConsumers, Class<? extends ConsumerPartitionAssignor> assignor) {
+        var run = new Run(topicName, assignor.getSimpleName());
+        var config = Map.of(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, assignor.getName());
+
+        // used only to get the topic partitions
+        var metadata = KafkaConsumerClient.<String, String>createConsumer(vertx,
+            connection.getBootstrapHost(),
+            connection.getClientID(),
+            connection.getClientSecret(),
+            connection.getAuthMethod(),
+            "rebalance-benchmark-" + run.assignor,
+            "latest",
+            StringDeserializer.class,
+            StringDeserializer.class,
+            config);
+
+        Future<?> steps = metadata.partitionsFor(topicName)
+            .<Void>map(l -> {
+                run.partitions = l.stream().map(p -> new TopicPartition(p.getTopic(), p.getPartition())).collect(Collectors.toSet());
+                return null;
+            })
+            .eventually(__ -> metadata.close());
+
+        for (int i = 0; i < maxConsumers; i++) {
+            steps = steps.compose(__ -> run.join(config));
+        }
+        for (int i = 1; i < maxConsumers; i++) {
+            steps = steps.compose(__ -> run.leave());
+        }
+
+        return steps
+            .eventually(__ -> run.closeAll())
+            .map(__ -> {
+                report(run.assignor, run.steps);
+                return run.steps;
+            });
+    }
+
+    /**
+     * Run the benchmark with the eager range assignor and the cooperative sticky assignor one after the other.
+     *
+     * @return the steps of each assignor
+     */
+    public Future<Map<String, List<Step>>> compare(String topicName, int maxConsumers) {
+        Map<String, List<Step>> results = new LinkedHashMap<>();
+        return run(topicName, maxConsumers, RangeAssignor.class)
+            .compose(s -> {
+                results.put(RangeAssignor.class.getSimpleName(), s);
+                return run(topicName, maxConsumers, CooperativeStickyAssignor.class);
+            })
+            .map(s -> {
+                results.put(CooperativeStickyAssignor.class.getSimpleName(), s);
+                return results;
+            });
+    }
+
+    private static void report(String assignor, List<Step> steps) {
+        var table = new StringBuilder();
+        table.append(String.format("%n%-6s %-6s %-10s %-18s %-18s", "step", "action", "consumers", "first-assignment", "stable"));
+        for (var step : steps) {
+            table.append(String.format("%n%-6d %-6s %-10d %-18s %-18s",
+                step.index, step.action, step.consumers, step.firstAssignment, step.stable));
+
+            var index = String.valueOf(step.index);
+            var consumers = String.valueOf(step.consumers);
+            REBALANCE_LATENCY.labels(Environment.LAUNCH_KEY, assignor, index, step.action, consumers, "first_assignment")
+                .set(step.firstAssignment.toNanos() / 1e9);
+            REBALANCE_LATENCY.labels(Environment.LAUNCH_KEY, assignor, index, step.action, consumers, "stable")
+                .set(step.stable.toNanos() / 1e9);
+        }
+        LOGGER.info("rebalance latency with {}:{}", assignor, table);
+    }
+}
@@ -0,0 +1,454 @@
+package io.managed.services.test.client.kafka;
+
+import io.managed.services.test.Environment;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Columnar store of what the assertions need from the consumed records: the partition, the offset,
+ * the timestamp, the hash of the consumer that received it and the digest and the serialized size
+ * of the key and of the value.
+ * <p>
+ * Each attribute is a column of primitives, so a record costs 48 bytes instead of the hundreds of bytes of
+ * a retained {@link KafkaConsumerRecord}. The first heapRows records are kept in arrays on the heap and the
+ * following ones are spilled to a file in {@link Environment#LOG_DIR} mapped in segments of
+ * {@link #SEGMENT_ROWS} records, each segment laid out column by column, so the heap used by the store stays
+ * flat however many records are captured. The spill file is deleted when the store is closed.
+ * <p>
+ * The records can be appended concurrently from multiple consumers, but they must be read only after all
+ * appends have completed.
+ */
+public class RecordCaptureStore implements AutoCloseable, Iterable<RecordCaptureStore.Row> {
+    private static final Logger LOGGER = LogManager.getLogger(RecordCaptureStore.class);
+
+    public static final int DEFAULT_HEAP_ROWS = 1 << 20;
+    public static final int SEGMENT_ROWS = 1 << 20;
+
+    private static final int INITIAL_HEAP_ROWS = 1024;
+
+    // start of each column in a segment in bytes per row
+    private static final int PARTITION = 0;
+    private static final int OFFSET = PARTITION + Integer.BYTES;
+    private static final int TIMESTAMP = OFFSET + Long.BYTES;
+    private static final int CONSUMER = TIMESTAMP + Long.BYTES;
+    private static final int KEY_DIGEST = CONSUMER + Integer.BYTES;
+    private static final int VALUE_DIGEST = KEY_DIGEST + Long.BYTES;
+    private static final int KEY_SIZE = VALUE_DIGEST + Long.BYTES;
+    private static final int VALUE_SIZE = KEY_SIZE + Integer.BYTES;
+    public static final int ROW_BYTES = VALUE_SIZE + Integer.BYTES;
+
+    private static final long SEGMENT_BYTES = (long) SEGMENT_ROWS * ROW_BYTES;
+
+    private final String name;
+    private final int heapRows;
+
+    private int[] partitions = new int[0];
+    private long[] offsets = new long[0];
+    private long[] timestamps = new long[0];
+    private int[] consumers = new int[0];
+    private long[] keyDigests = new long[0];
+    private long[] valueDigests = new long[0];
+    private int[] keySizes = new int[0];
+    private int[] valueSizes = new int[0];
+
+    private Path spillPath;
+    private FileChannel spill;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    private long size;
+
+    /**
+     * @param name     The prefix of the spill file name
+     * @param heapRows The number of records kept on the heap before spilling to the mapped file
+     */
+    public RecordCaptureStore(String name, int heapRows) {
+        this.name = name;
+        this.heapRows = heapRows;
+    }
+
+    public RecordCaptureStore(String name) {
+        this(name, DEFAULT_HEAP_ROWS);
+    }
+
+    /**
+     * Capture a consumed record.
+     *
+     * @param consumerHash The hash of the consumer that received the record
+     */
+    public synchronized void append(int consumerHash, KafkaConsumerRecord<?, ?> record) {
+        var r = record.record();
+        append(r.partition(), r.offset(), r.timestamp(), consumerHash,
+            digest(r.key()), digest(r.value()), r.serializedKeySize(), r.serializedValueSize());
+    }
+
+    synchronized void append(int partition, long offset, long timestamp, int consumerHash,
+                             long keyDigest, long valueDigest, int keySize, int valueSize) {
+
+        if (size < heapRows) {
+            var i = (int) size;
+            if (i == partitions.length) {
+                grow();
+            }
+            partitions[i] = partition;
+            offsets[i] = offset;
+            timestamps[i] = timestamp;
+            consumers[i] = consumerHash;
+            keyDigests[i] = keyDigest;
+            valueDigests[i] = valueDigest;
+            keySizes[i] = keySize;
+            valueSizes[i] = valueSize;
+        } else {
+            var spilled = size - heapRows;
+            var r = (int) (spilled % SEGMENT_ROWS);
+            var segment = segment((int) (spilled / SEGMENT_ROWS));
+            segment.putInt(PARTITION * SEGMENT_ROWS + r * Integer.BYTES, partition);
+            segment.putLong(OFFSET * SEGMENT_ROWS + r * Long.BYTES, offset);
+            segment.putLong(TIMESTAMP * SEGMENT_ROWS + r * Long.BYTES, timestamp);
+            segment.putInt(CONSUMER * SEGMENT_ROWS + r * Integer.BYTES, consumerHash);
+            segment.putLong(KEY_DIGEST * SEGMENT_ROWS + r * Long.BYTES, keyDigest);
+            segment.putLong(VALUE_DIGEST * SEGMENT_ROWS + r * Long.BYTES, valueDigest);
+            segment.putInt(KEY_SIZE * SEGMENT_ROWS + r * Integer.BYTES, keySize);
+            segment.putInt(VALUE_SIZE * SEGMENT_ROWS + r * Integer.BYTES, valueSize);
+        }
+        size++;
+    }
+
+    private void grow() {
+        var capacity = (int) Math.min(heapRows, Math.max(INITIAL_HEAP_ROWS, partitions.length * 2L));
+        partitions = Arrays.copyOf(partitions, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        consumers = Arrays.copyOf(consumers, capacity);
+        keyDigests = Arrays.copyOf(keyDigests, capacity);
+        valueDigests = Arrays.copyOf(valueDigests, capacity);
+        keySizes = Arrays.copyOf(keySizes, capacity);
+        valueSizes = Arrays.copyOf(valueSizes, capacity);
+    }
+
+    private MappedByteBuffer segment(int index) {
+        if (index < segments.size()) {
+            return segments.get(index);
+        }
+
+        try {
+            if (spill == null) {
+                Files.createDirectories(Environment.LOG_DIR);
+                spillPath = Environment.LOG_DIR.resolve(name + "-" + UUID.randomUUID() + ".capture");
+                spill = FileChannel.open(spillPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                LOGGER.info("spill captured records after {} records to {}", heapRows, spillPath);
+            }
+            var segment = spill.map(FileChannel.MapMode.READ_WRITE, index * SEGMENT_BYTES, SEGMENT_BYTES);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 64bit digest of a String, byte[] or ByteBuffer key or value, the digest of a String is the same
+     * as the {@link MessageVerifier} one, the other types are digested on their toString.
+     */
+    static long digest(Object o) {
+        if (o == null) {
+            return 0;
+        }
+        if (o instanceof String) {
+            return MessageVerifier.digest((String) o);
+        }
+
+        ByteBuffer bytes;
+        if (o instanceof byte[]) {
+            bytes = ByteBuffer.wrap((byte[]) o);
+        } else if (o instanceof ByteBuffer) {
+            bytes = ((ByteBuffer) o).duplicate();
+        } else {
+            return MessageVerifier.digest(o.toString());
+        }
+
+        long h = 0xcbf29ce484222325L;
+        while (bytes.hasRemaining()) {
+            h ^= bytes.get() & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of records spilled to the mapped file
+     */
+    public long spilled() {
+        return Math.max(0, size - heapRows);
+    }
+
+    private void check(long row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " out of " + size);
+        }
+    }
+
+    private int intAt(int[] heap, int column, long row) {
+        check(row);
+        if (row < heapRows) {
+            return heap[(int) row];
+        }
+        var spilled = row - heapRows;
+        return segments.get((int) (spilled / SEGMENT_ROWS)).getInt(column * SEGMENT_ROWS + (int) (spilled % SEGMENT_ROWS) * Integer.BYTES);
+    }
+
+    private long longAt(long[] heap, int column, long row) {
+        check(row);
+        if (row < heapRows) {
+            return heap[(int) row];
+        }
+        var spilled = row - heapRows;
+        return segments.get((int) (spilled / SEGMENT_ROWS)).getLong(column * SEGMENT_ROWS + (int) (spilled % SEGMENT_ROWS) * Long.BYTES);
+    }
+
+    public int partition(long row) {
+        return intAt(partitions, PARTITION, row);
+    }
+
+    public long offset(long row) {
+        return longAt(offsets, OFFSET, row);
+    }
+
+    public long timestamp(long row) {
+        return longAt(timestamps, TIMESTAMP, row);
+    }
+
+    public int consumerHash(long row) {
+        return intAt(consumers, CONSUMER, row);
+    }
+
+    public long keyDigest(long row) {
+        return longAt(keyDigests, KEY_DIGEST, row);
+    }
+
+    public long valueDigest(long row) {
+        return longAt(valueDigests, VALUE_DIGEST, row);
+    }
+
+    public int keySize(long row) {
+        return intAt(keySizes, KEY_SIZE, row);
+    }
+
+    public int valueSize(long row) {
+        return intAt(valueSizes, VALUE_SIZE, row);
+    }
+
+    /**
+     * A captured record.
+     */
+    public static class Row {
+        private long index;
+        private int partition;
+        private long offset;
+        private long timestamp;
+        private int consumerHash;
+        private long keyDigest;
+        private long valueDigest;
+        private int keySize;
+        private int valueSize;
+
+        public long index() {
+            return index;
+        }
+
+        public int partition() {
+            return partition;
+        }
+
+        public long offset() {
+            return offset;
+        }
+
+        public long timestamp() {
+            return timestamp;
+        }
+
+        public int consumerHash() {
+            return consumerHash;
+        }
+
+        public long keyDigest() {
+            return keyDigest;
+        }
+
+        public long valueDigest() {
+            return valueDigest;
+        }
+
+        public int keySize() {
+            return keySize;
+        }
+
+        public int valueSize() {
+            return valueSize;
+        }
+    }
+
+    /**
+     * Iterate over the records in the order they have been captured, the same {@link Row} instance is
+     * returned at each step and must not be retained.
+     */
+    @Override
+    public Iterator<Row> iterator() {
+        var row = new Row();
+        return new Iterator<>() {
+            private long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Row next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                row.index = next;
+                row.partition = partition(next);
+                row.offset = offset(next);
+                row.timestamp = timestamp(next);
+                row.consumerHash = consumerHash(next);
+                row.keyDigest = keyDigest(next);
+                row.valueDigest = valueDigest(next);
+                row.keySize = keySize(next);
+                row.valueSize = valueSize(next);
+                next++;
+                return row;
+            }
+        };
+    }
+
+    /**
+     * The records captured from a partition.
+     */
+    public static class PartitionSummary {
+        private long records;
+        private long minOffset = Long.MAX_VALUE;
+        private long maxOffset = Long.MIN_VALUE;
+        private long outOfOrder;
+        private long lastOffset = -1;
+
+        public long records() {
+            return records;
+        }
+
+        public long minOffset() {
+            return minOffset;
+        }
+
+        public long maxOffset() {
+            return maxOffset;
+        }
+
+        /**
+         * @return the offsets between the min and the max offset that have not been captured, or minus the number of
+         * duplicated offsets if more records than offsets have been captured
+         */
+        public long gaps() {
+            return records == 0 ? 0 : maxOffset - minOffset + 1 - records;
+        }
+
+        /**
+         * @return the number of records captured after a record with a higher offset
+         */
+        public long outOfOrder() {
+            return outOfOrder;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("records: %d; offsets: %d-%d; gaps: %d; out of order: %d", records, minOffset, maxOffset, gaps(), outOfOrder);
+        }
+    }
+
+    /**
+     * @return the summary of each partition in a single pass over the partition and offset columns
+     */
+    public Map<Integer, PartitionSummary> partitionSummaries() {
+        var summaries = new TreeMap<Integer, PartitionSummary>();
+        for (long row = 0; row < size; row++) {
+            var summary = summaries.computeIfAbsent(partition(row), __ -> new PartitionSummary());
+            var offset = offset(row);
+            summary.records++;
+            summary.minOffset = Math.min(summary.minOffset, offset);
+            summary.maxOffset = Math.max(summary.maxOffset, offset);
+            if (offset < summary.lastOffset) {
+                summary.outOfOrder++;
+            }
+            summary.lastOffset = offset;
+        }
+        return summaries;
+    }
+
+    /**
+     * @return the number of records captured by each consumer
+     */
+    public Map<Integer, Long> recordsByConsumer() {
+        var counts = new TreeMap<Integer, Long>();
+        for (long row = 0; row < size; row++) {
+            counts.merge(consumerHash(row), 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the sum of the serialized key and value sizes of all records
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (long row = 0; row < size; row++) {
+            bytes += Math.max(0, keySize(row)) + Math.max(0, valueSize(row));
+        }
+        return bytes;
+    }
+
+    /**
+     * Release the mapped segments and delete the spill file.
+     */
+    @Override
+    public synchronized void close() {
+        segments.clear();
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.close();
+            Files.deleteIfExists(spillPath);
+        } catch (IOException e) {
+            LOGGER.error("failed to delete the capture spill file {}", spillPath, e);
+        }
+        spill = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("records: %d; spilled: %d; consumers: %d", size, spilled(), recordsByConsumer().size());
+    }
+}
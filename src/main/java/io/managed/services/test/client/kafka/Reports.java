@@ -0,0 +1,79 @@
+package io.managed.services.test.client.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.managed.services.test.Environment;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Write the results of the benchmarks as machine-readable reports in {@link Environment#LOG_DIR} and draw them
+ * as horizontal bar charts for the logs.
+ */
+final class Reports {
+    private static final Logger LOGGER = LogManager.getLogger(Reports.class);
+
+    private static final int CHART_WIDTH = 50;
+
+    private Reports() {
+    }
+
+    /**
+     * Write the CSV rows to name.csv and the results serialized with Jackson to name.json.
+     *
+     * @return the path of the CSV report
+     */
+    static Path write(String name, String csvHeader, List<String> csvRows, Object results) throws IOException {
+        Files.createDirectories(Environment.LOG_DIR);
+
+        var csv = new ArrayList<String>(csvRows.size() + 1);
+        csv.add(csvHeader);
+        csv.addAll(csvRows);
+        var csvPath = Environment.LOG_DIR.resolve(name + ".csv");
+        Files.write(csvPath, csv, StandardCharsets.UTF_8);
+
+        var jsonPath = Environment.LOG_DIR.resolve(name + ".json");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(jsonPath.toFile(), results);
+
+        LOGGER.info("report written to {} and {}", csvPath, jsonPath);
+        return csvPath;
+    }
+
+    /**
+     * Write a CSV row for each result and all results to name.json.
+     *
+     * @return the path of the CSV report
+     */
+    static <T> Path write(String name, String csvHeader, List<T> results, Function<T, String> toCsv) throws IOException {
+        return write(name, csvHeader, results.stream().map(toCsv).collect(Collectors.toList()), results);
+    }
+
+    /**
+     * @return a line for each row with its label followed by a bar proportional to the largest value
+     */
+    static <T> String chart(List<T> rows, ToDoubleFunction<T> value, Function<T, String> label) {
+        return chart(rows, value, rows.stream().mapToDouble(value).max().orElse(0), label);
+    }
+
+    /**
+     * @return a line for each row with its label followed by a bar proportional to the value, the bar is full at max
+     */
+    static <T> String chart(List<T> rows, ToDoubleFunction<T> value, double max, Function<T, String> label) {
+        var chart = new StringBuilder();
+        for (var row : rows) {
+            var width = max > 0 ? (int) Math.round(value.applyAsDouble(row) / max * CHART_WIDTH) : 0;
+            chart.append(String.format(Locale.ROOT, "%n%s |%-" + CHART_WIDTH + "s|", label.apply(row), "#".repeat(width)));
+        }
+        return chart.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package io.managed.services.test.client.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Target rate and in-flight limit for {@link KafkaProducerClient#sendAsync(String, java.util.Iterator, SendRate)}.
+ */
+public class SendRate {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private final double rate;
+    private final boolean bytes;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private boolean failFast = true;
+    private ToIntFunction<Object> sizeOf = SendRate::defaultSizeOf;
+    private ToLongFunction<Object> scheduleOf;
+
+    private SendRate(double rate, boolean bytes) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("the rate must be greater than 0");
+        }
+        this.rate = rate;
+        this.bytes = bytes;
+    }
+
+    public static SendRate messagesPerSecond(double rate) {
+        return new SendRate(rate, false);
+    }
+
+    public static SendRate bytesPerSecond(double rate) {
+        return new SendRate(rate, true);
+    }
+
+    /**
+     * Send as fast as possible but still keep a bounded number of sends in flight.
+     */
+    public static SendRate unlimited() {
+        return new SendRate(Double.POSITIVE_INFINITY, false);
+    }
+
+    /**
+     * Send each message at the time given by the schedule function, in nanoseconds from the start of the send,
+     * divided by the speed, so that a recorded workload can be replayed at its original pace or N times faster.
+     * An infinite speed sends the messages as fast as possible.
+     */
+    public static SendRate scheduled(double speed, ToLongFunction<Object> scheduleOf) {
+        var rate = new SendRate(speed, false);
+        rate.scheduleOf = scheduleOf;
+        return rate;
+    }
+
+    public SendRate withMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("the maxInFlight can not be smaller then 1");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * If false the send errors are only counted in {@link SendStats#errors()} and the sender continues
+     * with the next messages, by default the send fails on the first error.
+     */
+    public SendRate withFailFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * Function used to compute the size in bytes of each message, by default String, byte[] and ByteBuffer are supported.
+     */
+    public SendRate withSizeOf(ToIntFunction<Object> sizeOf) {
+        this.sizeOf = sizeOf;
+        return this;
+    }
+
+    public double rate() {
+        return rate;
+    }
+
+    public boolean isBytes() {
+        return bytes;
+    }
+
+    public boolean isUnlimited() {
+        return Double.isInfinite(rate);
+    }
+
+    public boolean isScheduled() {
+        return scheduleOf != null;
+    }
+
+    public long scheduleOf(Object message) {
+        return scheduleOf.applyAsLong(message);
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public int sizeOf(Object message) {
+        return sizeOf.applyAsInt(message);
+    }
+
+    private static int defaultSizeOf(Object message) {
+        if (message == null) {
+            return 0;
+        }
+        if (message instanceof byte[]) {
+            return ((byte[]) message).length;
+        }
+        if (message instanceof ByteBuffer) {
+            return ((ByteBuffer) message).remaining();
+        }
+        if (message instanceof String) {
+            return ((String) message).length();
+        }
+        throw new IllegalArgumentException(String.format("can not compute the size of '%s'; set a custom sizeOf function", message.getClass().getName()));
+    }
+
+    @Override
+    public String toString() {
+        if (isUnlimited()) {
+            return "unlimited";
+        }
+        if (isScheduled()) {
+            return String.format("%.1fx schedule", rate);
+        }
+        return String.format("%.1f %s/s", rate, bytes ? "bytes" : "msgs");
+    }
+}
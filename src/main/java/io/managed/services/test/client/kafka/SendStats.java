@@ -0,0 +1,119 @@
+package io.managed.services.test.client.kafka;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Result of a rate limited send.
+ */
+public class SendStats {
+    private final long messages;
+    private final long bytes;
+    private final long errors;
+    private final Duration elapsed;
+    private final Duration maxSlip;
+    private final Duration endSlip;
+    private final LatencyHistogram ackLatency;
+
+    public SendStats(long messages, long bytes, long errors, Duration elapsed, Duration maxSlip, Duration endSlip,
+                     LatencyHistogram ackLatency) {
+        this.messages = messages;
+        this.bytes = bytes;
+        this.errors = errors;
+        this.elapsed = elapsed;
+        this.maxSlip = maxSlip;
+        this.endSlip = endSlip;
+        this.ackLatency = ackLatency;
+    }
+
+    public long messages() {
+        return messages;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of messages that failed to be sent, they are also counted in the messages
+     */
+    public long errors() {
+        return errors;
+    }
+
+    public Duration elapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the latency in microseconds between the send of each message and its ack from the broker
+     */
+    public LatencyHistogram ackLatency() {
+        return ackLatency;
+    }
+
+    public double messagesPerSecond() {
+        return perSecond(messages);
+    }
+
+    public double bytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    /**
+     * The max delay between the time a message should have been sent according to the target rate
+     * and the time it was actually sent.
+     */
+    public Duration maxSlip() {
+        return maxSlip;
+    }
+
+    /**
+     * How much later the last message was sent compared to the target schedule.
+     */
+    public Duration endSlip() {
+        return endSlip;
+    }
+
+    /**
+     * Sum the messages, bytes and errors of multiple senders running at the same time, the elapsed time and
+     * the slips are the max of all senders.
+     */
+    public static SendStats aggregate(List<SendStats> stats) {
+        long messages = 0;
+        long bytes = 0;
+        long errors = 0;
+        var elapsed = Duration.ZERO;
+        var maxSlip = Duration.ZERO;
+        var endSlip = Duration.ZERO;
+        var ackLatency = new LatencyHistogram();
+        for (var s : stats) {
+            messages += s.messages;
+            bytes += s.bytes;
+            errors += s.errors;
+            elapsed = max(elapsed, s.elapsed);
+            maxSlip = max(maxSlip, s.maxSlip);
+            endSlip = max(endSlip, s.endSlip);
+            ackLatency.add(s.ackLatency);
+        }
+        return new SendStats(messages, bytes, errors, elapsed, maxSlip, endSlip, ackLatency);
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private double perSecond(long v) {
+        var nanos = elapsed.toNanos();
+        if (nanos == 0) {
+            return 0;
+        }
+        return v * 1_000_000_000d / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("messages: %d; bytes: %d; errors: %d; elapsed: %s; msgs/s: %.1f; bytes/s: %.1f; max-slip: %s; end-slip: %s; ack-latency: %s",
+            messages, bytes, errors, elapsed, messagesPerSecond(), bytesPerSecond(), maxSlip, endSlip, ackLatency);
+    }
+}
@@ -0,0 +1,93 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Stamp each produced record with the producer id, a per producer sequence number and the CRC32C of
+ * the value, so that the records can be verified by the {@link SequenceVerifier} without keeping
+ * the produced messages in memory.
+ * <p>
+ * The stamper is not thread-safe, use one stamper per producer.
+ */
+public class SequenceStamper {
+
+    public static final String PRODUCER_HEADER = "seq-producer";
+    public static final String SEQUENCE_HEADER = "seq-number";
+    public static final String CRC_HEADER = "seq-crc";
+
+    private final String producerId;
+    private final Buffer producerIdBuffer;
+    private final Checksum checksum = new Checksum();
+    private long sequence;
+
+    public SequenceStamper(String producerId) {
+        this.producerId = producerId;
+        this.producerIdBuffer = Buffer.buffer(producerId);
+    }
+
+    public SequenceStamper() {
+        this(UUID.randomUUID().toString());
+    }
+
+    public String producerId() {
+        return producerId;
+    }
+
+    /**
+     * @return the number of stamped records
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    public <K, V> KafkaProducerRecord<K, V> stamp(KafkaProducerRecord<K, V> record) {
+        return record
+            .addHeader(PRODUCER_HEADER, producerIdBuffer)
+            .addHeader(SEQUENCE_HEADER, Buffer.buffer(Long.BYTES).appendLong(sequence++))
+            .addHeader(CRC_HEADER, Buffer.buffer(Integer.BYTES).appendInt(checksum.of(record.value())));
+    }
+
+    /**
+     * CRC32C of a String, byte[] or ByteBuffer value. Strings are checksummed on their UTF-16 chars
+     * through a reusable scratch buffer so that no encoded copy of the value is allocated.
+     */
+    static class Checksum {
+        private final CRC32C crc = new CRC32C();
+        private final byte[] scratch = new byte[8192];
+
+        int of(Object value) {
+            crc.reset();
+            if (value == null) {
+                return 0;
+            } else if (value instanceof byte[]) {
+                crc.update((byte[]) value);
+            } else if (value instanceof ByteBuffer) {
+                crc.update(((ByteBuffer) value).duplicate());
+            } else if (value instanceof String) {
+                update((String) value);
+            } else {
+                throw new IllegalArgumentException(String.format("can not checksum value of type '%s'", value.getClass().getName()));
+            }
+            return (int) crc.getValue();
+        }
+
+        private void update(String s) {
+            int n = 0;
+            for (int i = 0; i < s.length(); i++) {
+                var c = s.charAt(i);
+                scratch[n++] = (byte) c;
+                scratch[n++] = (byte) (c >>> 8);
+                if (n == scratch.length) {
+                    crc.update(scratch, 0, n);
+                    n = 0;
+                }
+            }
+            crc.update(scratch, 0, n);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Future;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.managed.services.test.TestUtils.message;
+
+/**
+ * Verify the records stamped by the {@link SequenceStamper} in constant memory.
+ * <p>
+ * For each producer only the lowest sequence not received yet and a bitset of the sequences received
+ * after it are kept, so the memory depends on how far apart the records are received and not on the
+ * number of records. For each partition only the last sequence of each producer is kept to detect
+ * records reordered within the partition.
+ * <p>
+ * The verifier is not thread-safe.
+ */
+public class SequenceVerifier {
+
+    private final Map<String, ProducerState> producers = new HashMap<>();
+    private final SequenceStamper.Checksum checksum = new SequenceStamper.Checksum();
+
+    private long received;
+    private long duplicated;
+    private long reordered;
+    private long corrupted;
+    private long unstamped;
+
+    private static class ProducerState {
+        private final SequenceWindow window = new SequenceWindow();
+        private final Map<String, Map<Integer, long[]>> lastSequenceByPartition = new HashMap<>();
+    }
+
+    public void accept(KafkaConsumerRecord<?, ?> record) {
+        received++;
+
+        String producerId = null;
+        long sequence = -1;
+        Integer crc = null;
+        for (var header : record.headers()) {
+            switch (header.key()) {
+                case SequenceStamper.PRODUCER_HEADER:
+                    producerId = header.value().toString();
+                    break;
+                case SequenceStamper.SEQUENCE_HEADER:
+                    sequence = header.value().getLong(0);
+                    break;
+                case SequenceStamper.CRC_HEADER:
+                    crc = header.value().getInt(0);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (producerId == null || sequence < 0 || crc == null) {
+            unstamped++;
+            return;
+        }
+
+        if (checksum.of(record.value()) != crc) {
+            corrupted++;
+        }
+
+        var producer = producers.computeIfAbsent(producerId, __ -> new ProducerState());
+        if (!producer.window.add(sequence)) {
+            duplicated++;
+            return;
+        }
+
+        var last = producer.lastSequenceByPartition
+            .computeIfAbsent(record.topic(), __ -> new HashMap<>())
+            .computeIfAbsent(record.partition(), __ -> new long[] {-1});
+        if (last[0] > sequence) {
+            reordered++;
+        }
+        last[0] = sequence;
+    }
+
+    public long received() {
+        return received;
+    }
+
+    public long duplicated() {
+        return duplicated;
+    }
+
+    public long reordered() {
+        return reordered;
+    }
+
+    public long corrupted() {
+        return corrupted;
+    }
+
+    public long unstamped() {
+        return unstamped;
+    }
+
+    /**
+     * @return the number of sequences not received yet below the highest received sequence of each producer
+     */
+    public long gaps() {
+        return producers.values().stream().mapToLong(p -> p.window.missingBelow(p.window.highest() + 1)).sum();
+    }
+
+    /**
+     * Verify that the sequences 0 to expectedPerProducer - 1 of each producer have been received exactly once
+     * in order within each partition and without corruption.
+     */
+    public Future<Void> verify(long expectedPerProducer) {
+        long missing = producers.values().stream().mapToLong(p -> p.window.missingBelow(expectedPerProducer)).sum();
+        long extra = producers.values().stream().filter(p -> p.window.highest() >= expectedPerProducer).count();
+        return verify(missing, extra);
+    }
+
+    /**
+     * Verify that all the records stamped by the stampers have been received exactly once in order within
+     * each partition and without corruption.
+     */
+    public Future<Void> verify(SequenceStamper... stampers) {
+        long missing = 0;
+        for (var stamper : stampers) {
+            var producer = producers.get(stamper.producerId());
+            missing += producer == null ? stamper.sequence() : producer.window.missingBelow(stamper.sequence());
+        }
+        return verify(missing, 0);
+    }
+
+    /**
+     * Verify that no sequence is missing below the highest received sequence of each producer
+     * and that no record has been duplicated, reordered within a partition or corrupted.
+     */
+    public Future<Void> verify() {
+        return verify(gaps(), 0);
+    }
+
+    private Future<Void> verify(long missing, long extraProducers) {
+        if (missing == 0 && extraProducers == 0 && duplicated == 0 && reordered == 0 && corrupted == 0 && unstamped == 0) {
+            return Future.succeededFuture();
+        }
+
+        var message = message("sequence verification failed; producers: {}, received: {}, missing: {},"
+                + " producers-with-extra-sequences: {}, duplicated: {}, reordered: {}, corrupted: {}, unstamped: {}",
+            producers.size(), received, missing, extraProducers, duplicated, reordered, corrupted, unstamped);
+        return Future.failedFuture(new AssertionError(message));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("producers: %d; received: %d; gaps: %d; duplicated: %d; reordered: %d; corrupted: %d; unstamped: %d",
+            producers.size(), received, gaps(), duplicated, reordered, corrupted, unstamped);
+    }
+
+    /**
+     * Set of received sequences stored as a watermark (all sequences below it have been received)
+     * and a bitset of the received sequences above the watermark.
+     */
+    static class SequenceWindow {
+        private long base;
+        private long[] bits = new long[16];
+        private long highest = -1;
+
+        /**
+         * @return false if the sequence was already received
+         */
+        boolean add(long sequence) {
+            if (sequence < base) {
+                return false;
+            }
+
+            var offset = sequence - base;
+            var word = (int) (offset >>> 6);
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(bits.length * 2, word + 1));
+            }
+
+            var mask = 1L << offset;
+            if ((bits[word] & mask) != 0) {
+                return false;
+            }
+            bits[word] |= mask;
+            highest = Math.max(highest, sequence);
+
+            advance();
+            return true;
+        }
+
+        /**
+         * Move the watermark over the received sequences and drop the bitset words below it.
+         */
+        private void advance() {
+            int full = 0;
+            while (full < bits.length && bits[full] == -1L) {
+                full++;
+            }
+            if (full > 0) {
+                System.arraycopy(bits, full, bits, 0, bits.length - full);
+                Arrays.fill(bits, bits.length - full, bits.length, 0);
+                base += (long) full * 64;
+            }
+        }
+
+        long highest() {
+            return highest;
+        }
+
+        long missingBelow(long limit) {
+            if (limit <= base) {
+                return 0;
+            }
+
+            long received = 0;
+            var words = (int) Math.min(bits.length, ((limit - base) + 63) >>> 6);
+            for (int i = 0; i < words; i++) {
+                var w = bits[i];
+                var wordStart = base + (long) i * 64;
+                if (wordStart + 64 > limit) {
+                    w &= (1L << (limit - wordStart)) - 1;
+                }
+                received += Long.bitCount(w);
+            }
+            return (limit - base) - received;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static io.managed.services.test.TestUtils.message;
+
+/**
+ * Send transactional batches with a transactional producer and receive them with a read_committed consumer
+ * to measure the cost of exactly-once delivery and verify its guarantees.
+ * <p>
+ * The same number of messages is first sent by a non transactional producer to get the baseline throughput.
+ * Then each batch is sent in its own transaction, which is kept open for at least the commit interval and
+ * then committed, or aborted when it is one of the batches to abort. The records of the committed and of the
+ * aborted batches are stamped by two different {@link SequenceStamper}, so that the consumer can verify that
+ * all the committed records are received exactly once and that none of the aborted records is visible.
+ */
+public class TransactionalWorkload {
+    private static final Logger LOGGER = LogManager.getLogger(TransactionalWorkload.class);
+
+    private static final String GROUP_ID = "transactional-workload";
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+
+    public TransactionalWorkload(KafkaConnectionSettings connection) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final int committedBatches;
+        private final int abortedBatches;
+        private final int batchSize;
+        private final long commitIntervalMillis;
+        private final double transactionalMessagesPerSecond;
+        private final double plainMessagesPerSecond;
+        private final long p50CommitLatencyMicros;
+        private final long p99CommitLatencyMicros;
+        private final long maxCommitLatencyMicros;
+        private final long received;
+        private final long abortedVisible;
+        private final long duplicated;
+
+        /**
+         * @return the transactional throughput as a fraction of the non transactional throughput
+         */
+        public double throughputRatio() {
+            return plainMessagesPerSecond > 0 ? transactionalMessagesPerSecond / plainMessagesPerSecond : 0;
+        }
+
+        static final String CSV_HEADER = "committed_batches,aborted_batches,batch_size,commit_interval_ms,"
+            + "transactional_messages_per_second,plain_messages_per_second,throughput_ratio,p50_commit_latency_us,"
+            + "p99_commit_latency_us,max_commit_latency_us,received,aborted_visible,duplicated";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%.1f,%.3f,%d,%d,%d,%d,%d,%d",
+                committedBatches, abortedBatches, batchSize, commitIntervalMillis, transactionalMessagesPerSecond,
+                plainMessagesPerSecond, throughputRatio(), p50CommitLatencyMicros, p99CommitLatencyMicros,
+                maxCommitLatencyMicros, received, abortedVisible, duplicated);
+        }
+    }
+
+    /**
+     * Run the baseline and the transactional batches and verify the records received by the read_committed consumer.
+     *
+     * @param batches        The number of transactions
+     * @param batchSize      The number of messages in each transaction
+     * @param commitInterval The minimum time each transaction is kept open before it is committed or aborted
+     * @param abortEvery     Abort every n-th transaction, 0 to commit all of them
+     * @param messageSize    The size of each message
+     * @return the result or an AssertionError if a record of an aborted transaction is visible or a committed record
+     * is missing, duplicated or reordered
+     */
+    public Future<Result> run(String topicName, int batches, int batchSize, Duration commitInterval, int abortEvery, int messageSize) {
+        var total = (long) batches * batchSize;
+        var abortedBatches = abortEvery > 0 ? batches / abortEvery : 0;
+        var committedBatches = batches - abortedBatches;
+
+        return baseline(topicName, total, messageSize)
+            .compose(plain -> {
+                var consumer = connection.consumer(
+                    GROUP_ID,
+                    "latest",
+                    StringDeserializer.class,
+                    StringDeserializer.class,
+                    KafkaConsumerClient.readCommittedConfig());
+
+                var producer = connection.producer(
+                    StringSerializer.class,
+                    StringSerializer.class,
+                    KafkaProducerClient.transactionalConfig("transactional-workload-" + UUID.randomUUID()));
+
+                var committedStamper = new SequenceStamper();
+                var abortedStamper = new SequenceStamper();
+                var verifier = new SequenceVerifier();
+                var abortedVisible = new long[] {0};
+
+                return consumer.resetToEnd(topicName)
+                    .compose(__ -> consumer.subscribe(topicName))
+                    .map(__ -> consumer.consumeMessages((long) committedBatches * batchSize, r -> {
+                        if (isStampedBy(r, abortedStamper)) {
+                            abortedVisible[0]++;
+                        } else {
+                            verifier.accept(r);
+                        }
+                    }))
+                    .compose(received -> producer.initTransactions()
+                        .compose(__ -> {
+                            var commitLatency = new LatencyHistogram();
+                            var payloads = new PayloadGenerator(messageSize, messageSize);
+                            var start = System.nanoTime();
+
+                            Future<?> steps = Future.succeededFuture();
+                            for (int i = 1; i <= batches; i++) {
+                                var abort = abortEvery > 0 && i % abortEvery == 0;
+                                var stamper = abort ? abortedStamper : committedStamper;
+                                steps = steps.compose(___ -> transaction(producer, topicName, payloads, batchSize, stamper, commitInterval, abort, commitLatency));
+                            }
+
+                            return steps.compose(___ -> {
+                                var txn = total / ((System.nanoTime() - start) / 1e9);
+                                LOGGER.info("sent {} transactions of {} messages to topic {} at {} msg/s; commit latency: {}",
+                                    batches, batchSize, topicName, String.format(Locale.ROOT, "%.1f", txn), commitLatency);
+                                return received.map(____ -> new Result(committedBatches,
+                                    abortedBatches,
+                                    batchSize,
+                                    commitInterval.toMillis(),
+                                    txn,
+                                    plain,
+                                    commitLatency.percentile(50),
+                                    commitLatency.percentile(99),
+                                    commitLatency.max(),
+                                    verifier.received(),
+                                    abortedVisible[0],
+                                    verifier.duplicated()));
+                            });
+                        }))
+                    .compose(result -> verify(result, verifier, committedStamper))
+                    .eventually(__ -> CompositeFuture.join(producer.asyncClose(), consumer.asyncClose()));
+            })
+            .onSuccess(r -> LOGGER.info("transactional workload {}", r.toCsv()));
+    }
+
+    /**
+     * @return the non transactional messages per second
+     */
+    private Future<Double> baseline(String topicName, long messages, int messageSize) {
+        var producer = connection.producer(StringSerializer.class, StringSerializer.class);
+
+        return producer.sendAsync(topicName, new PayloadGenerator(messageSize, messageSize).strings(messages), SendRate.unlimited())
+            .map(SendStats::messagesPerSecond)
+            .eventually(__ -> producer.asyncClose());
+    }
+
+    /**
+     * Send a batch in a new transaction, keep it open until the commit interval is elapsed and then commit or abort it,
+     * the transaction is aborted if any send fails.
+     */
+    private Future<Void> transaction(
+        KafkaProducerClient<String, String> producer,
+        String topicName,
+        PayloadGenerator payloads,
+        int batchSize,
+        SequenceStamper stamper,
+        Duration commitInterval,
+        boolean abort,
+        LatencyHistogram commitLatency) {
+
+        var start = System.nanoTime();
+        return producer.beginTransaction()
+            .compose(__ -> producer.sendAsync(payloads.strings(batchSize),
+                v -> stamper.stamp(KafkaProducerRecord.create(topicName, v)),
+                SendRate.unlimited()))
+            .compose(__ -> {
+                var remaining = commitInterval.toMillis() - (System.nanoTime() - start) / 1_000_000;
+                if (remaining < 1) {
+                    return Future.succeededFuture();
+                }
+                Promise<Void> elapsed = Promise.promise();
+                vertx.setTimer(remaining, t -> elapsed.complete());
+                return elapsed.future();
+            })
+            .compose(__ -> {
+                var commitStart = System.nanoTime();
+                return (abort ? producer.abortTransaction() : producer.commitTransaction())
+                    .onSuccess(___ -> commitLatency.record((System.nanoTime() - commitStart) / 1000));
+            })
+            .recover(t -> {
+                LOGGER.error("abort transaction after error", t);
+                return producer.abortTransaction().transform(__ -> Future.failedFuture(t));
+            });
+    }
+
+    private static boolean isStampedBy(KafkaConsumerRecord<?, ?> record, SequenceStamper stamper) {
+        for (var header : record.headers()) {
+            if (SequenceStamper.PRODUCER_HEADER.equals(header.key())) {
+                return stamper.producerId().equals(header.value().toString());
+            }
+        }
+        return false;
+    }
+
+    private static Future<Result> verify(Result result, SequenceVerifier verifier, SequenceStamper committed) {
+        if (result.abortedVisible > 0) {
+            return Future.failedFuture(new AssertionError(message(
+                "{} records of aborted transactions are visible to the read_committed consumer; {}", result.abortedVisible, verifier)));
+        }
+        return verifier.verify(committed).map(__ -> result);
+    }
+
+    public static Path writeReport(String name, Result result) throws IOException {
+        return Reports.write(name, Result.CSV_HEADER, List.of(result), Result::toCsv);
+    }
+}
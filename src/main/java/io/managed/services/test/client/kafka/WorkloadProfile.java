@@ -0,0 +1,200 @@
+package io.managed.services.test.client.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declarative description of a load scenario run by the {@link WorkloadProfileRunner}.
+ * <p>
+ * The profiles are written in YAML or JSON, for example:
+ * <pre>
+ * name: billing-shaped
+ * warmup: PT10S
+ * duration: PT1M
+ * topics:
+ *   - name: profile-billing
+ *     partitions: 3
+ *     producers: 2
+ *     rate: 100
+ *     keys: 1000
+ *     messageSize:
+ *       distribution: uniform
+ *       min: 1024
+ *       max: 131072
+ *     consumerGroups:
+ *       - name: profile-billing-group
+ *         consumers: 3
+ * </pre>
+ * Each producer sends either the given number of messages or for the warm-up plus the duration, the
+ * throughput and the latency are measured only after the warm-up. The unknown properties are rejected
+ * so that a typo doesn't silently fall back to a default.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class WorkloadProfile {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+
+    private String name;
+
+    /**
+     * ISO-8601 duration before the throughput and the latency are measured.
+     */
+    private String warmup = "PT0S";
+
+    /**
+     * ISO-8601 duration of the measurement after the warm-up, required if the topics don't set the messages.
+     */
+    private String duration;
+
+    /**
+     * ISO-8601 max duration to wait for the consumers to receive all the sent messages.
+     */
+    private String drainTimeout = "PT1M";
+
+    private List<TopicProfile> topics = new ArrayList<>();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class TopicProfile {
+        private String name;
+        private int partitions = 1;
+        private int producers = 1;
+
+        /**
+         * Messages per second of each producer, 0 to send as fast as possible.
+         */
+        private double rate;
+
+        /**
+         * Messages sent by each producer, 0 to send for the profile duration.
+         */
+        private long messages;
+
+        /**
+         * Number of distinct keys, 0 to send the messages without key.
+         */
+        private int keys;
+
+        private SizeProfile messageSize = new SizeProfile();
+        private List<ConsumerGroupProfile> consumerGroups = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class SizeProfile {
+
+        /**
+         * One of fixed (of the max size), uniform or bimodal.
+         */
+        private String distribution = "fixed";
+        private int min = 1024;
+        private int max = 1024;
+
+        /**
+         * The fraction of large messages of the bimodal distribution.
+         */
+        private double largeRatio = 0.1;
+
+        PayloadGenerator.SizeDistribution toDistribution() {
+            switch (distribution) {
+                case "fixed":
+                    return PayloadGenerator.SizeDistribution.fixed(max);
+                case "uniform":
+                    return PayloadGenerator.SizeDistribution.uniform(min, max);
+                case "bimodal":
+                    return PayloadGenerator.SizeDistribution.bimodal(min, max, largeRatio);
+                default:
+                    throw new IllegalArgumentException("unknown message size distribution: " + distribution);
+            }
+        }
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class ConsumerGroupProfile {
+        private String name;
+        private int consumers = 1;
+    }
+
+    public static WorkloadProfile load(Path path) throws IOException {
+        try (var in = Files.newInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Load and validate a YAML or JSON profile, JSON being a subset of YAML.
+     */
+    public static WorkloadProfile load(InputStream in) throws IOException {
+        var profile = MAPPER.readValue(in, WorkloadProfile.class);
+        profile.validate();
+        return profile;
+    }
+
+    public Duration warmupDuration() {
+        return Duration.parse(warmup);
+    }
+
+    /**
+     * @return the measurement duration or null if each producer sends a fixed number of messages
+     */
+    public Duration measureDuration() {
+        return duration == null ? null : Duration.parse(duration);
+    }
+
+    public Duration drainTimeoutDuration() {
+        return Duration.parse(drainTimeout);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the profile is incomplete or inconsistent
+     */
+    public void validate() {
+        if (name == null) {
+            throw new IllegalArgumentException("the profile name is required");
+        }
+        if (topics.isEmpty()) {
+            throw new IllegalArgumentException(String.format("the profile %s has no topics", name));
+        }
+
+        // parse the durations to fail on invalid values before the run
+        warmupDuration();
+        measureDuration();
+        drainTimeoutDuration();
+
+        for (var topic : topics) {
+            if (topic.name == null) {
+                throw new IllegalArgumentException(String.format("a topic of the profile %s has no name", name));
+            }
+            if (topic.partitions < 1 || topic.producers < 1 || topic.rate < 0 || topic.messages < 0 || topic.keys < 0) {
+                throw new IllegalArgumentException(String.format("invalid partitions, producers, rate, messages or keys for topic %s", topic.name));
+            }
+            if (topic.messages == 0 && duration == null) {
+                throw new IllegalArgumentException(String.format("the topic %s must set the messages if the profile has no duration", topic.name));
+            }
+            topic.messageSize.toDistribution();
+
+            for (var group : topic.consumerGroups) {
+                if (group.name == null || group.consumers < 1) {
+                    throw new IllegalArgumentException(String.format("invalid consumer group for topic %s", topic.name));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Run a {@link WorkloadProfile} and report the throughput and the latency of each topic and consumer group.
+ * <p>
+ * For each topic of the profile a {@link KafkaProducerClientPool} sends the messages and a {@link KafkaConsumerClientPool}
+ * consumes them for each consumer group, all topics run at the same time. Each message is stamped by a
+ * {@link LatencyRecorder} and the end-to-end latency is recorded by each consumer group. Only the messages sent
+ * and received after the warm-up are measured, but the consumers wait for all sent messages before closing.
+ * <p>
+ * The topics must exist before the run, see {@link io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils#applyWorkloadTopics}.
+ */
+public class WorkloadProfileRunner {
+    private static final Logger LOGGER = LogManager.getLogger(WorkloadProfileRunner.class);
+
+    private static final long DRAIN_CHECK_INTERVAL_MILLIS = 100;
+
+    private final KafkaConnectionSettings connection;
+    private final Vertx vertx;
+
+    public WorkloadProfileRunner(KafkaConnectionSettings connection) {
+        this.connection = connection;
+        this.vertx = connection.getVertx();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final String profile;
+        private final String topic;
+        private final int partitions;
+        private final int producers;
+        private final String consumerGroup;
+        private final int consumers;
+        private final long sentMessages;
+        private final double sendMessagesPerSecond;
+        private final double sendMegabytesPerSecond;
+        private final long sendErrors;
+        private final long maxSlipMillis;
+        private final long ackLatencyP99Micros;
+        private final long receivedMessages;
+        private final double receiveMessagesPerSecond;
+        private final long e2eLatencyP50Micros;
+        private final long e2eLatencyP99Micros;
+        private final long e2eLatencyMaxMicros;
+        private final long missing;
+
+        static final String CSV_HEADER = "profile,topic,partitions,producers,consumer_group,consumers,sent_messages,"
+            + "send_messages_per_second,send_megabytes_per_second,send_errors,max_slip_millis,ack_latency_p99_micros,"
+            + "received_messages,receive_messages_per_second,e2e_latency_p50_micros,e2e_latency_p99_micros,"
+            + "e2e_latency_max_micros,missing";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%s,%d,%d,%.1f,%.3f,%d,%d,%d,%d,%.1f,%d,%d,%d,%d",
+                profile, topic, partitions, producers, consumerGroup, consumers, sentMessages,
+                sendMessagesPerSecond, sendMegabytesPerSecond, sendErrors, maxSlipMillis, ackLatencyP99Micros,
+                receivedMessages, receiveMessagesPerSecond, e2eLatencyP50Micros, e2eLatencyP99Micros,
+                e2eLatencyMaxMicros, missing);
+        }
+    }
+
+    /**
+     * The consumers of a consumer group and what they have received.
+     */
+    private static class GroupRun {
+        private final WorkloadProfile.ConsumerGroupProfile profile;
+        private final KafkaConsumerClientPool<String, String> consumers;
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong measured = new AtomicLong();
+        private final AtomicLong lastMeasuredAt = new AtomicLong();
+
+        GroupRun(WorkloadProfile.ConsumerGroupProfile profile, KafkaConsumerClientPool<String, String> consumers) {
+            this.profile = profile;
+            this.consumers = consumers;
+        }
+    }
+
+    /**
+     * The messages sent after the warm-up.
+     */
+    private static class Window {
+        private volatile long from = Long.MAX_VALUE;
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        boolean measure(long now) {
+            return now >= from;
+        }
+    }
+
+    public Future<List<Result>> run(WorkloadProfile profile) {
+        LOGGER.info("run workload profile {} with {} topics", profile.getName(), profile.getTopics().size());
+
+        List<Future> topics = profile.getTopics().stream()
+            .map(topic -> run(profile, topic))
+            .collect(Collectors.toList());
+
+        return CompositeFuture.all(topics)
+            .map(c -> {
+                List<Result> results = new ArrayList<>();
+                for (int i = 0; i < c.size(); i++) {
+                    List<Result> r = c.resultAt(i);
+                    results.addAll(r);
+                }
+                return results;
+            })
+            .onSuccess(results -> results.forEach(r -> LOGGER.info("workload profile {}", r.toCsv())));
+    }
+
+    private Future<List<Result>> run(WorkloadProfile profile, WorkloadProfile.TopicProfile topic) {
+        var stamper = new LatencyRecorder();
+        var window = new Window();
+
+        var groups = topic.getConsumerGroups().stream()
+            .map(g -> new GroupRun(g, connection.consumerPool(g.getName(), g.getConsumers(), StringDeserializer.class, StringDeserializer.class)))
+            .collect(Collectors.toList());
+
+        var producers = connection.producerPool(topic.getProducers(), StringSerializer.class, StringSerializer.class, new HashMap<>());
+
+        Future<?> subscribed = Future.succeededFuture();
+        for (var group : groups) {
+            subscribed = subscribed.compose(__ -> group.consumers.receiveAsync(topic.getName(), Long.MAX_VALUE, record -> {
+                group.received.incrementAndGet();
+                var now = System.nanoTime();
+                if (window.measure(now)) {
+                    group.latency.record(record);
+                    group.measured.incrementAndGet();
+                    group.lastMeasuredAt.accumulateAndGet(now, Math::max);
+                }
+            }));
+        }
+
+        var rate = (topic.getRate() == 0 ? SendRate.unlimited() : SendRate.messagesPerSecond(topic.getRate()))
+            .withFailFast(false);
+
+        var keys = new SplittableRandom[topic.getProducers()];
+        var seed = System.nanoTime();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new SplittableRandom(seed + i);
+        }
+
+        return subscribed
+            .compose(__ -> {
+                var start = System.nanoTime();
+                window.from = start + profile.warmupDuration().toNanos();
+                var duration = profile.measureDuration();
+                var until = duration == null ? Long.MAX_VALUE : window.from + duration.toNanos();
+                var messages = topic.getMessages() == 0 ? Long.MAX_VALUE : topic.getMessages();
+
+                LOGGER.info("start sending to topic {} from {} producers at {} per producer", topic.getName(), topic.getProducers(), rate);
+                return producers.sendAsync(topic.getName(),
+                        i -> until(new PayloadGenerator(seed + i, topic.getMessageSize().toDistribution()).strings(messages), until),
+                        rate,
+                        false,
+                        (i, t, partition, value) -> {
+                            if (window.measure(System.nanoTime())) {
+                                window.messages.incrementAndGet();
+                                window.bytes.addAndGet(value.length());
+                            }
+                            var key = topic.getKeys() == 0 ? null : "key-" + keys[i].nextInt(topic.getKeys());
+                            return stamper.stamp(KafkaProducerRecord.create(t, key, value, null, partition));
+                        })
+                    .map(SendStats::aggregate)
+                    .compose(stats -> {
+                        var sentFor = System.nanoTime() - window.from;
+                        var expected = stats.messages() - stats.errors();
+                        return drain(groups, expected, profile)
+                            .map(___ -> results(profile, topic, groups, window, stats, sentFor, expected));
+                    });
+            })
+            .eventually(__ -> {
+                List<Future> closed = new ArrayList<>();
+                closed.add(producers.asyncClose());
+                groups.forEach(g -> closed.add(g.consumers.asyncClose()));
+                return CompositeFuture.join(closed);
+            });
+    }
+
+    /**
+     * Wait for all groups to receive the expected messages or for the drain timeout.
+     */
+    private Future<Void> drain(List<GroupRun> groups, long expected, WorkloadProfile profile) {
+        var deadline = System.nanoTime() + profile.drainTimeoutDuration().toNanos();
+        Promise<Void> promise = Promise.promise();
+        vertx.setPeriodic(DRAIN_CHECK_INTERVAL_MILLIS, timer -> {
+            var drained = groups.stream().allMatch(g -> g.received.get() >= expected);
+            if (drained || System.nanoTime() > deadline) {
+                if (!drained) {
+                    LOGGER.warn("timeout after {} waiting for the consumers to receive {} messages", profile.getDrainTimeout(), expected);
+                }
+                vertx.cancelTimer(timer);
+                promise.complete();
+            }
+        });
+        return promise.future();
+    }
+
+    private static List<Result> results(
+        WorkloadProfile profile,
+        WorkloadProfile.TopicProfile topic,
+        List<GroupRun> groups,
+        Window window,
+        SendStats stats,
+        long sentFor,
+        long expected) {
+
+        var sent = window.messages.get();
+        var sendPerSecond = perSecond(sent, sentFor);
+        var sendMegabytesPerSecond = perSecond(window.bytes.get(), sentFor) / 1_000_000;
+        var maxSlip = stats.maxSlip().toMillis();
+        var ackP99 = stats.ackLatency().percentile(99);
+
+        if (groups.isEmpty()) {
+            return List.of(new Result(profile.getName(), topic.getName(), topic.getPartitions(), topic.getProducers(), "", 0,
+                sent, sendPerSecond, sendMegabytesPerSecond, stats.errors(), maxSlip, ackP99, 0, 0, 0, 0, 0, 0));
+        }
+
+        return groups.stream().map(g -> {
+            var e2e = g.latency.histogram(topic.getName());
+            return new Result(profile.getName(), topic.getName(), topic.getPartitions(), topic.getProducers(),
+                g.profile.getName(), g.profile.getConsumers(),
+                sent, sendPerSecond, sendMegabytesPerSecond, stats.errors(), maxSlip, ackP99,
+                g.measured.get(), perSecond(g.measured.get(), g.lastMeasuredAt.get() - window.from),
+                e2e.percentile(50), e2e.percentile(99), e2e.max(),
+                Math.max(0, expected - g.received.get()));
+        }).collect(Collectors.toList());
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * 1_000_000_000d / nanos;
+    }
+
+    /**
+     * Stop the messages at the given nano time.
+     */
+    private static <T> Iterator<T> until(Iterator<T> messages, long until) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return messages.hasNext() && System.nanoTime() < until;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return messages.next();
+            }
+        };
+    }
+
+    public static Path writeReport(String name, List<Result> results) throws IOException {
+        return Reports.write(name, Result.CSV_HEADER, results, Result::toCsv);
+    }
+}
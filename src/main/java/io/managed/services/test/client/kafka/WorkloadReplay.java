@@ -0,0 +1,78 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.core.Future;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.UnaryOperator;
+
+/**
+ * Replay a {@link WorkloadTrace} with its original timing, N times faster or as fast as possible.
+ * <p>
+ * Each entry is sent when its offset from the first entry divided by the speed has elapsed, and how much the
+ * replay fell behind the recorded schedule is reported as the slip of the {@link SendStats}. The entries
+ * recorded without their value are sent with a random payload of the recorded size, which is the same at
+ * each replay of the same trace.
+ */
+public class WorkloadReplay {
+    private static final Logger LOGGER = LogManager.getLogger(WorkloadReplay.class);
+
+    private static final long PAYLOAD_SEED = 0;
+
+    private final KafkaConnectionSettings connection;
+
+    public WorkloadReplay(KafkaConnectionSettings connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Replay the trace to the topics it has been recorded from.
+     *
+     * @param speed The replay speed, 1 for the original timing or {@link Double#POSITIVE_INFINITY} for as fast as possible
+     */
+    public Future<SendStats> replay(Path trace, double speed) {
+        return replay(trace, speed, UnaryOperator.identity());
+    }
+
+    /**
+     * Replay the trace sending the records of each recorded topic to the topic returned by the topics function.
+     */
+    public Future<SendStats> replay(Path trace, double speed, UnaryOperator<String> topics) {
+        WorkloadTrace.Reader reader;
+        try {
+            reader = new WorkloadTrace.Reader(trace);
+        } catch (IOException e) {
+            return Future.failedFuture(e);
+        }
+
+        var payloads = new PayloadGenerator(PAYLOAD_SEED, PayloadGenerator.SizeDistribution.fixed(Math.max(1, reader.maxValueSize())));
+        var rate = SendRate.scheduled(speed, e -> ((WorkloadTrace.Entry) e).offsetNanos())
+            .withSizeOf(e -> Math.max(0, ((WorkloadTrace.Entry) e).valueSize()));
+
+        var producer = connection.producer(ByteArraySerializer.class, ByteBufferSerializer.class);
+
+        LOGGER.info("replay {} entries recorded over {}ms from {} at {}",
+            reader.entries(), reader.durationNanos() / 1_000_000, trace, rate);
+        return producer.sendAsync(reader, (WorkloadTrace.Entry e) -> {
+                var value = e.value();
+                if (value == null && e.valueSize() >= 0) {
+                    value = payloads.nextBuffer(e.valueSize());
+                }
+                return KafkaProducerRecord.create(topics.apply(e.topic()), e.key(), value, null, e.partition());
+            }, rate)
+            .onSuccess(s -> LOGGER.info("replayed {} at {}; {}", trace, rate, s))
+            .eventually(__ -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.error("failed to close the workload trace {}", trace, e);
+                }
+                return producer.asyncClose();
+            });
+    }
+}
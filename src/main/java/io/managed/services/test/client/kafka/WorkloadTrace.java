@@ -0,0 +1,402 @@
+package io.managed.services.test.client.kafka;
+
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Compact binary trace of a produced workload that can be replayed by the {@link WorkloadReplay}.
+ * <p>
+ * The trace starts with a fixed header followed by one entry for each produced record:
+ * <pre>
+ * header: magic (int), version (int), entries (long), duration nanos (long), max value size (int)
+ * entry:  offset nanos (long), topic index (int) [topic name (short length, UTF-8) the first time],
+ *         partition (int, -1 if not set), key length (int, -1 if null) [key], value size (int, -1 if null),
+ *         value stored (byte) [value]
+ * </pre>
+ * The values can be stored or only their size, in which case the replay sends random payloads of the same size.
+ * The header is written when the writer is closed, so a trace that has not been closed can not be read.
+ */
+public class WorkloadTrace {
+    private static final Logger LOGGER = LogManager.getLogger(WorkloadTrace.class);
+
+    private static final int MAGIC = 0x57545243;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private WorkloadTrace() {
+    }
+
+    /**
+     * A recorded record.
+     */
+    public static class Entry {
+        private final long offsetNanos;
+        private final String topic;
+        private final Integer partition;
+        private final byte[] key;
+        private final int valueSize;
+        private final ByteBuffer value;
+
+        Entry(long offsetNanos, String topic, Integer partition, byte[] key, int valueSize, ByteBuffer value) {
+            this.offsetNanos = offsetNanos;
+            this.topic = topic;
+            this.partition = partition;
+            this.key = key;
+            this.valueSize = valueSize;
+            this.value = value;
+        }
+
+        /**
+         * @return the nanoseconds between the first recorded record and this one
+         */
+        public long offsetNanos() {
+            return offsetNanos;
+        }
+
+        public String topic() {
+            return topic;
+        }
+
+        public Integer partition() {
+            return partition;
+        }
+
+        public byte[] key() {
+            return key;
+        }
+
+        /**
+         * @return the size of the value or -1 if the value is null
+         */
+        public int valueSize() {
+            return valueSize;
+        }
+
+        /**
+         * @return the value or null if only its size has been recorded
+         */
+        public ByteBuffer value() {
+            return value;
+        }
+    }
+
+    /**
+     * Append the records to a trace through a buffered file channel.
+     * <p>
+     * The writer is not thread-safe.
+     */
+    public static class Writer implements AutoCloseable {
+        private final Path path;
+        private final boolean storeValues;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Map<String, Integer> topics = new HashMap<>();
+
+        private long start = -1;
+        private long lastOffset;
+        private long entries;
+        private int maxValueSize;
+
+        /**
+         * @param storeValues Store the values in the trace instead of only their size
+         */
+        public Writer(Path path, boolean storeValues) throws IOException {
+            this.path = path;
+            this.storeValues = storeValues;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+            // reserve the header which is written on close
+            buffer.position(HEADER_BYTES);
+        }
+
+        /**
+         * Record a record as sent now.
+         */
+        public void record(KafkaProducerRecord<?, ?> record) throws IOException {
+            var now = System.nanoTime();
+            if (start == -1) {
+                start = now;
+            }
+            record(now - start, record.topic(), record.partition(), bytesOf(record.key()), record.value());
+        }
+
+        private void record(long offsetNanos, String topic, Integer partition, byte[] key, Object value) throws IOException {
+            ensure(Long.BYTES + Integer.BYTES);
+            buffer.putLong(offsetNanos);
+            var topicIndex = topics.get(topic);
+            if (topicIndex == null) {
+                topicIndex = topics.size();
+                topics.put(topic, topicIndex);
+                var name = topic.getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(topicIndex);
+                ensure(Short.BYTES);
+                buffer.putShort((short) name.length);
+                put(ByteBuffer.wrap(name));
+            } else {
+                buffer.putInt(topicIndex);
+            }
+
+            ensure(Integer.BYTES + Integer.BYTES);
+            buffer.putInt(partition == null ? -1 : partition);
+            buffer.putInt(key == null ? -1 : key.length);
+            if (key != null) {
+                put(ByteBuffer.wrap(key));
+            }
+
+            var bytes = storeValues ? bytesOf(value) : null;
+            var valueSize = bytes == null ? sizeOf(value) : bytes.length;
+            ensure(Integer.BYTES + 1);
+            buffer.putInt(valueSize);
+            buffer.put((byte) (bytes == null ? 0 : 1));
+            if (bytes != null) {
+                put(ByteBuffer.wrap(bytes));
+            }
+
+            lastOffset = offsetNanos;
+            maxValueSize = Math.max(maxValueSize, valueSize);
+            entries++;
+        }
+
+        /**
+         * Wrap a record factory so that each record is recorded when it is created, which for
+         * {@link KafkaProducerClient#sendAsync(Iterator, Function, SendRate)} is when it is sent.
+         */
+        public <M, K, V> Function<M, KafkaProducerRecord<K, V>> recording(Function<M, KafkaProducerRecord<K, V>> toRecord) {
+            return message -> {
+                var record = toRecord.apply(message);
+                try {
+                    record(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return record;
+            };
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void put(ByteBuffer bytes) throws IOException {
+            if (bytes.remaining() > buffer.remaining()) {
+                flush();
+            }
+            if (bytes.remaining() > buffer.remaining()) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                return;
+            }
+            buffer.put(bytes);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public long entries() {
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+
+                var header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(entries)
+                    .putLong(lastOffset)
+                    .putInt(maxValueSize)
+                    .flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                LOGGER.info("recorded {} entries over {}ms in {} ({} bytes)", entries, lastOffset / 1_000_000, path, channel.size());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Read the entries of a trace through a buffered file channel.
+     * <p>
+     * The reader is not thread-safe.
+     */
+    public static class Reader implements Iterator<Entry>, AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final List<String> topics = new ArrayList<>();
+
+        private final long entries;
+        private final long durationNanos;
+        private final int maxValueSize;
+
+        private long read;
+
+        public Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            buffer.limit(0);
+
+            try {
+                ensure(HEADER_BYTES);
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException(path + " is not a workload trace");
+                }
+                var version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported workload trace version " + version + " in " + path);
+                }
+                this.entries = buffer.getLong();
+                this.durationNanos = buffer.getLong();
+                this.maxValueSize = buffer.getInt();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public long entries() {
+            return entries;
+        }
+
+        /**
+         * @return the nanoseconds between the first and the last entry
+         */
+        public long durationNanos() {
+            return durationNanos;
+        }
+
+        public int maxValueSize() {
+            return maxValueSize;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) == -1) {
+                    throw new EOFException("unexpected end of the workload trace after " + read + " entries");
+                }
+            }
+            buffer.flip();
+        }
+
+        private byte[] get(int length) throws IOException {
+            var bytes = new byte[length];
+            var chunk = Math.min(length, buffer.remaining());
+            buffer.get(bytes, 0, chunk);
+
+            var rest = ByteBuffer.wrap(bytes, chunk, length - chunk);
+            while (rest.hasRemaining()) {
+                if (channel.read(rest) == -1) {
+                    throw new EOFException("unexpected end of the workload trace after " + read + " entries");
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < entries;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Entry read() throws IOException {
+            ensure(Long.BYTES + Integer.BYTES);
+            var offsetNanos = buffer.getLong();
+            var topicIndex = buffer.getInt();
+            if (topicIndex == topics.size()) {
+                ensure(Short.BYTES);
+                topics.add(new String(get(buffer.getShort()), StandardCharsets.UTF_8));
+            }
+            var topic = topics.get(topicIndex);
+
+            ensure(Integer.BYTES + Integer.BYTES);
+            var partition = buffer.getInt();
+            var keyLength = buffer.getInt();
+            var key = keyLength == -1 ? null : get(keyLength);
+
+            ensure(Integer.BYTES + 1);
+            var valueSize = buffer.getInt();
+            var value = buffer.get() == 1 ? ByteBuffer.wrap(get(valueSize)) : null;
+
+            read++;
+            return new Entry(offsetNanos, topic, partition == -1 ? null : partition, key, valueSize, value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static byte[] bytesOf(Object o) {
+        if (o == null) {
+            return null;
+        }
+        if (o instanceof byte[]) {
+            return (byte[]) o;
+        }
+        if (o instanceof ByteBuffer) {
+            var b = ((ByteBuffer) o).duplicate();
+            var bytes = new byte[b.remaining()];
+            b.get(bytes);
+            return bytes;
+        }
+        return o.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(Object o) {
+        if (o == null) {
+            return -1;
+        }
+        if (o instanceof byte[]) {
+            return ((byte[]) o).length;
+        }
+        if (o instanceof ByteBuffer) {
+            return ((ByteBuffer) o).remaining();
+        }
+        return o.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -15,6 +15,7 @@ import io.managed.services.test.client.exception.ApiGenericException;
 import io.managed.services.test.client.exception.ApiNotFoundException;
 import io.managed.services.test.client.kafka.KafkaAuthMethod;
 import io.managed.services.test.client.kafka.KafkaConsumerClient;
+import io.managed.services.test.client.kafka.WorkloadProfile;
 import io.managed.services.test.client.oauth.KeycloakLoginSession;
 import io.managed.services.test.client.oauth.KeycloakUser;
 import io.managed.services.test.wait.TReadyFunction;
@@ -198,6 +199,36 @@ public class KafkaInstanceApiUtils {
         }
     }
 
+    /**
+     * Create the topics of the workload profile that don't exist yet.
+     */
+    public static void applyWorkloadTopics(KafkaInstanceApi api, WorkloadProfile profile) throws ApiGenericException {
+        for (var topic : profile.getTopics()) {
+            applyTopic(api, new NewTopicInput()
+                .name(topic.getName())
+                .settings(new TopicSettings().numPartitions(topic.getPartitions())));
+        }
+    }
+
+    public static void deleteWorkloadTopics(KafkaInstanceApi api, WorkloadProfile profile) throws ApiGenericException {
+        for (var topic : profile.getTopics()) {
+            api.deleteTopic(topic.getName());
+        }
+    }
+
+    /**
+     * Delete the topic and wait until the Kafka instance doesn't list it anymore, so that its partitions
+     * are released from the partition limit of the instance.
+     */
+    public static void deleteTopicAndWait(KafkaInstanceApi api, String name)
+        throws ApiGenericException, InterruptedException, TimeoutException {
+
+        api.deleteTopic(name);
+
+        ThrowingFunction<Boolean, Boolean, ApiGenericException> deleted = last -> getTopicByName(api, name).isEmpty();
+        waitFor("topic to be deleted", ofSeconds(2), ofMinutes(1), deleted);
+    }
+
     public static Topic updateTopicPartition(KafkaInstanceApi api, String name, int partitions) throws ApiGenericException {
         TopicSettings topicSettings = new TopicSettings();
         topicSettings.setNumPartitions(partitions);
@@ -1,6 +1,7 @@
 package io.managed.services.test.framework;
 
 import io.managed.services.test.Environment;
+import io.managed.services.test.client.kafka.KafkaClientMetrics;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.PushGateway;
 import lombok.extern.log4j.Log4j2;
@@ -28,5 +29,8 @@ public class PrometheusSuiteListener implements ISuiteListener {
                 log.error("failed to push to prometheus:", e);
             }
         }
+
+        // the closed kafka clients are reported until the end of the suite so that their metrics are pushed
+        KafkaClientMetrics.clearClosed();
     }
 }
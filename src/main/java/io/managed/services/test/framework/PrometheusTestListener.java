@@ -1,7 +1,10 @@
 package io.managed.services.test.framework;
 
 import io.managed.services.test.Environment;
+import io.managed.services.test.client.kafka.KafkaClientMetrics;
 import io.prometheus.client.Counter;
+import org.testng.IClassListener;
+import org.testng.ITestClass;
 import org.testng.ITestListener;
 import org.testng.ITestResult;
 
@@ -10,7 +13,7 @@ import static org.testng.ITestResult.SKIP;
 import static org.testng.ITestResult.SUCCESS;
 import static org.testng.ITestResult.SUCCESS_PERCENTAGE_FAILURE;
 
-public class PrometheusTestListener implements ITestListener {
+public class PrometheusTestListener implements ITestListener, IClassListener {
 
     static final Counter RESULTS = Counter.build()
         .name("test_results")
@@ -44,6 +47,11 @@ public class PrometheusTestListener implements ITestListener {
         RESULTS.labels(Environment.LAUNCH_KEY, suite, test, clasz, method, res).inc();
     }
 
+    @Override
+    public void onBeforeClass(ITestClass testClass) {
+        // label the metrics of the kafka clients created by the test class
+        KafkaClientMetrics.setTestClass(testClass.getName());
+    }
 
     @Override
     public void onTestSuccess(ITestResult result) {
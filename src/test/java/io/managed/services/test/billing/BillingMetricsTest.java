@@ -10,8 +10,9 @@ import io.managed.services.test.TestBase;
 import io.managed.services.test.client.ApplicationServicesApi;
 import io.managed.services.test.client.exception.ApiGenericException;
 import io.managed.services.test.client.kafka.KafkaAuthMethod;
-import io.managed.services.test.client.kafka.KafkaMessagingUtils;
 import io.managed.services.test.client.kafka.KafkaProducerClient;
+import io.managed.services.test.client.kafka.PayloadGenerator;
+import io.managed.services.test.client.kafka.SendRate;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApi;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiAccessUtils;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils;
@@ -26,6 +27,7 @@ import io.managed.services.test.prometheuswebclient.QueryResult;
 import io.vertx.core.Vertx;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -33,7 +35,6 @@ import org.testng.annotations.Test;
 
 import java.time.Duration;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static io.managed.services.test.TestUtils.bwait;
@@ -198,17 +199,18 @@ public class BillingMetricsTest extends TestBase {
         String clientID = serviceAccount.getClientId();
         String clientSecret = serviceAccount.getClientSecret();
 
-        KafkaProducerClient producer = new KafkaProducerClient(
+        var producer = new KafkaProducerClient<>(
                 Vertx.vertx(),
                 bootstrapHost,
                 clientID,
                 clientSecret,
                 KafkaAuthMethod.OAUTH,
                 StringSerializer.class,
-                StringSerializer.class);
+                ByteBufferSerializer.class);
 
-        List<String> producedMessages = KafkaMessagingUtils.generateRandomMessages(this.messageCount, this.messageSize, this.messageSize);
-        bwait(producer.sendAsync(TOPIC_NAME, producedMessages));
+        // send slices of a preallocated payload pool instead of materializing all messages as strings
+        var payloads = new PayloadGenerator(this.messageSize, this.messageSize);
+        bwait(producer.sendAsync(TOPIC_NAME, payloads.buffers(this.messageCount), SendRate.unlimited()));
 
         producer.close();
     }
@@ -12,6 +12,7 @@ import io.managed.services.test.cli.CLIUtils;
 import io.managed.services.test.cli.CliGenericException;
 import io.managed.services.test.cli.CliNotFoundException;
 import io.managed.services.test.cli.ServiceAccountSecret;
+import io.managed.services.test.client.kafka.KafkaClientCache;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils;
 import io.managed.services.test.client.kafkamgmt.KafkaMgmtApiUtils;
 import io.managed.services.test.client.oauth.KeycloakLoginSession;
@@ -69,6 +70,9 @@ public class KafkaCLITest extends TestBase {
 
     private final Vertx vertx = Vertx.vertx();
 
+    // the topic tests use the same service account, so they can reuse the same clients
+    private final KafkaClientCache clientCache = new KafkaClientCache(vertx, KafkaClientCache.DEFAULT_IDLE_TIMEOUT);
+
     private CLI cli;
 
     private KafkaRequest kafka;
@@ -128,6 +132,12 @@ public class KafkaCLITest extends TestBase {
             LOGGER.error("clean workdir error: ", t);
         }
 
+        try {
+            bwait(clientCache.asyncClose());
+        } catch (Throwable t) {
+            LOGGER.error("close kafka client cache error: ", t);
+        }
+
         bwait(vertx.close());
     }
 
@@ -362,7 +372,7 @@ public class KafkaCLITest extends TestBase {
         var clientSecret = serviceAccountSecret.getClientSecret();
 
         bwait(testTopic(
-            vertx,
+            clientCache,
             bootstrapHost,
             clientID,
             clientSecret,
@@ -429,7 +439,7 @@ public class KafkaCLITest extends TestBase {
         var clientSecret = serviceAccountSecret.getClientSecret();
 
         bwait(testTopic(
-            vertx,
+            clientCache,
             bootstrapHost,
             clientID,
             clientSecret,
@@ -20,8 +20,10 @@ import io.managed.services.test.client.exception.ApiForbiddenException;
 import io.managed.services.test.client.exception.ApiNotFoundException;
 import io.managed.services.test.client.kafka.KafkaAdmin;
 import io.managed.services.test.client.kafka.KafkaAuthMethod;
+import io.managed.services.test.client.kafka.KafkaConnectionSettings;
 import io.managed.services.test.client.kafka.KafkaConsumerClient;
 import io.managed.services.test.client.kafka.KafkaProducerClient;
+import io.managed.services.test.client.kafka.TransactionalWorkload;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApi;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiAccessUtils;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils;
@@ -44,11 +46,13 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
 import java.util.List;
 
 import static io.managed.services.test.TestUtils.assumeTeardown;
 import static io.managed.services.test.TestUtils.bwait;
 import static io.managed.services.test.client.kafka.KafkaMessagingUtils.testTopic;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertThrows;
 import static org.testng.Assert.assertTrue;
@@ -92,6 +96,7 @@ public class KafkaAccessMgmtTest extends TestBase {
     private static final String TEST_TOPIC_NAME = "test-topic-01";
     private static final String TEST_TOPIC_02_NAME = "test-topic-02";
     private static final String TEST_TOPIC_03_NAME = "test-topic-03";
+    private static final String TEST_TRANSACTIONAL_TOPIC_NAME = "test-topic-transactional";
 
     private static final String TEST_TOPIC_PREFIX = "prefix-1-";
     private static final String TEST_TOPIC_WITHOUT_PREFIX_NAME = "test-topic-03";
@@ -490,6 +495,37 @@ public class KafkaAccessMgmtTest extends TestBase {
         primaryApacheKafkaAdmin.deleteConsumerGroups(TEST_CONSUMER_GROUP_NAME_01);
     }
 
+    @Test(priority = 2, dependsOnMethods = "testGrantTopicAllTransactionIDAllConsumerGroupAllACLs")
+    @SneakyThrows
+    public void testServiceAccountCanSendExactlyOnce() {
+        LOGGER.info("Test that the service account can send transactions to the topic '{}'", TEST_TRANSACTIONAL_TOPIC_NAME);
+        primaryApacheKafkaAdmin.createTopic(TEST_TRANSACTIONAL_TOPIC_NAME, 3, null);
+
+        var vertx = Vertx.vertx();
+        var workload = new TransactionalWorkload(new KafkaConnectionSettings(vertx,
+            kafka.getBootstrapServerHost(),
+            primaryServiceAccount.getClientId(),
+            primaryServiceAccount.getClientSecret(),
+            KafkaAuthMethod.PLAIN));
+
+        try {
+            // abort every 4th transaction to verify that its records are not visible to the read_committed consumer
+            var result = bwait(workload.run(TEST_TRANSACTIONAL_TOPIC_NAME, 20, 500, Duration.ofMillis(100), 4, 1024));
+            TransactionalWorkload.writeReport("transactional-workload", result);
+
+            assertEquals(result.getAbortedVisible(), 0);
+            assertEquals(result.getDuplicated(), 0);
+            assertEquals(result.getReceived(), (long) result.getCommittedBatches() * result.getBatchSize());
+        } finally {
+            try {
+                primaryKafkaInstanceAPI.deleteTopic(TEST_TRANSACTIONAL_TOPIC_NAME);
+            } catch (Exception e) {
+                LOGGER.error("error while deleting topic {}, {}", TEST_TRANSACTIONAL_TOPIC_NAME, e.getMessage());
+            }
+            bwait(vertx.close());
+        }
+    }
+
 
     @Test(priority = 3, dependsOnMethods = "testGrantTopicAllTransactionIDAllConsumerGroupAllACLs")
     @SneakyThrows
@@ -0,0 +1,360 @@
+package io.managed.services.test.kafka;
+
+import com.openshift.cloud.api.kas.auth.models.ConfigEntry;
+import com.openshift.cloud.api.kas.auth.models.NewTopicInput;
+import com.openshift.cloud.api.kas.auth.models.TopicSettings;
+import com.openshift.cloud.api.kas.models.KafkaRequest;
+import com.openshift.cloud.api.kas.models.ServiceAccount;
+import io.managed.services.test.Environment;
+import io.managed.services.test.TestBase;
+import io.managed.services.test.client.ApplicationServicesApi;
+import io.managed.services.test.client.kafka.ChunkedTransferBenchmark;
+import io.managed.services.test.client.kafka.CompactedTopicWorkload;
+import io.managed.services.test.client.kafka.ConnectionScalingProbe;
+import io.managed.services.test.client.kafka.KafkaAuthMethod;
+import io.managed.services.test.client.kafka.KafkaConnectionSettings;
+import io.managed.services.test.client.kafka.KeyGenerator;
+import io.managed.services.test.client.kafka.KeySkewBenchmark;
+import io.managed.services.test.client.kafka.MessageSizeProfile;
+import io.managed.services.test.client.kafka.PartitionScalingBenchmark;
+import io.managed.services.test.client.kafka.PayloadGenerator;
+import io.managed.services.test.client.kafka.SendRate;
+import io.managed.services.test.client.kafka.WorkloadProfile;
+import io.managed.services.test.client.kafka.WorkloadProfileRunner;
+import io.managed.services.test.client.kafka.WorkloadReplay;
+import io.managed.services.test.client.kafka.WorkloadTrace;
+import io.managed.services.test.client.kafkainstance.KafkaInstanceApi;
+import io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils;
+import io.managed.services.test.client.kafkamgmt.KafkaMgmtApi;
+import io.managed.services.test.client.kafkamgmt.KafkaMgmtApiUtils;
+import io.managed.services.test.client.oauth.KeycloakLoginSession;
+import io.managed.services.test.client.securitymgmt.SecurityMgmtAPIUtils;
+import io.managed.services.test.client.securitymgmt.SecurityMgmtApi;
+import io.vertx.core.Vertx;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import lombok.SneakyThrows;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+import static io.managed.services.test.TestUtils.assumeTeardown;
+import static io.managed.services.test.TestUtils.bwait;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Benchmark the producers and consumers of a Kafka Instance against its limits and write the results to
+ * {@link Environment#LOG_DIR}.
+ * <p>
+ * The tests run for several minutes and consume a large share of the instance quotas, so they are not part of
+ * the kafka suite and run only with the kafka-performance profile.
+ * <p>
+ * <b>Requires:</b>
+ * <ul>
+ *     <li> PRIMARY_USERNAME
+ *     <li> PRIMARY_PASSWORD
+ * </ul>
+ */
+public class KafkaPerformanceTest extends TestBase {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaPerformanceTest.class);
+
+    private static final String KAFKA_INSTANCE_NAME = "mk-e2e-perf-" + Environment.LAUNCH_KEY;
+    private static final String SERVICE_ACCOUNT_NAME = "mk-e2e-perf-sa-" + Environment.LAUNCH_KEY;
+    private static final String TOPIC_NAME = "test-perf-topic";
+    private static final String SCALING_TOPIC_NAME = "test-perf-topic-scaling";
+    private static final String COMPACTED_TOPIC_NAME = "test-perf-topic-compacted";
+    private static final String SKEW_TOPIC_NAME = "test-perf-topic-skew";
+    private static final String WORKLOAD_PROFILES_DIR = "profiles";
+
+    private final Vertx vertx = Vertx.vertx();
+
+    private KafkaInstanceApi kafkaInstanceApi;
+    private KafkaMgmtApi kafkaMgmtApi;
+    private SecurityMgmtApi securityMgmtApi;
+    private KafkaRequest kafka;
+    private ServiceAccount serviceAccount;
+    private KafkaConnectionSettings connection;
+
+    @BeforeClass
+    @SneakyThrows
+    public void bootstrap() {
+        assertNotNull(Environment.PRIMARY_USERNAME, "the PRIMARY_USERNAME env is null");
+        assertNotNull(Environment.PRIMARY_PASSWORD, "the PRIMARY_PASSWORD env is null");
+
+        var auth = new KeycloakLoginSession(Environment.PRIMARY_USERNAME, Environment.PRIMARY_PASSWORD);
+        var apps = ApplicationServicesApi.applicationServicesApi(auth);
+        kafkaMgmtApi = apps.kafkaMgmt();
+        securityMgmtApi = apps.securityMgmt();
+        LOGGER.info("kafka and security mgmt api initialized");
+
+        kafka = KafkaMgmtApiUtils.applyKafkaInstance(kafkaMgmtApi, KAFKA_INSTANCE_NAME);
+
+        kafkaInstanceApi = bwait(KafkaInstanceApiUtils.kafkaInstanceApi(auth, kafka));
+        LOGGER.info("kafka instance api client initialized");
+
+        LOGGER.info("create or retrieve service account '{}'", SERVICE_ACCOUNT_NAME);
+        serviceAccount = SecurityMgmtAPIUtils.applyServiceAccount(securityMgmtApi, SERVICE_ACCOUNT_NAME);
+
+        connection = new KafkaConnectionSettings(vertx,
+            kafka.getBootstrapServerHost(),
+            serviceAccount.getClientId(),
+            serviceAccount.getClientSecret(),
+            KafkaAuthMethod.OAUTH);
+
+        LOGGER.info("create topic '{}'", TOPIC_NAME);
+        KafkaInstanceApiUtils.applyTopic(kafkaInstanceApi, TOPIC_NAME);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void teardown() {
+        assumeTeardown();
+
+        // delete kafka instance
+        try {
+            KafkaMgmtApiUtils.cleanKafkaInstance(kafkaMgmtApi, KAFKA_INSTANCE_NAME);
+        } catch (Throwable t) {
+            LOGGER.error("failed to clean kafka instance: ", t);
+        }
+
+        // delete service account
+        try {
+            SecurityMgmtAPIUtils.cleanServiceAccount(securityMgmtApi, SERVICE_ACCOUNT_NAME);
+        } catch (Throwable t) {
+            LOGGER.error("failed to clean service account: ", t);
+        }
+
+        try {
+            bwait(vertx.close());
+        } catch (Throwable t) {
+            LOGGER.error("failed to close vertx: ", t);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testThroughputByMessageSizeUpToLimit() {
+
+        var limit = KafkaMgmtApiUtils.getMessageSizeLimit(kafkaMgmtApi, kafka);
+        LOGGER.info("message size limit: {}", limit);
+
+        var profile = new MessageSizeProfile(connection);
+
+        var points = bwait(profile.run(TOPIC_NAME, MessageSizeProfile.sizes(100, limit), 20_000_000));
+        MessageSizeProfile.writeReport("message-size-profile", points);
+
+        // the largest valid message must be accepted and the message just above the limit must be rejected
+        assertFalse(points.get(points.size() - 2).isTooLarge());
+        assertTrue(points.get(points.size() - 1).isTooLarge());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testChunkedTransferAboveSizeLimit() {
+
+        var limit = KafkaMgmtApiUtils.getMessageSizeLimit(kafkaMgmtApi, kafka);
+        LOGGER.info("message size limit: {}", limit);
+
+        var benchmark = new ChunkedTransferBenchmark(connection);
+
+        // payloads of 8 times the limit with room in the assembler for 4 incomplete payloads
+        var payloadSize = limit * 8;
+        var points = bwait(benchmark.run(TOPIC_NAME, limit, payloadSize, 10, 4L * payloadSize));
+        ChunkedTransferBenchmark.writeReport("chunked-transfer", points);
+
+        var chunked = points.get(0);
+        assertEquals(chunked.getAssembled(), chunked.getPayloads());
+        assertEquals(chunked.getCorrupted(), 0);
+    }
+
+    @Test
+    @SneakyThrows
+    public void testThroughputByPartitionCountUpToLimit() {
+
+        LOGGER.info("create topic '{}' with 1 partition", SCALING_TOPIC_NAME);
+        KafkaInstanceApiUtils.applyTopic(kafkaInstanceApi, SCALING_TOPIC_NAME);
+
+        // the partition limit is shared by all topics in the instance
+        var limit = KafkaMgmtApiUtils.getPartitionLimitMax(kafkaMgmtApi, kafka);
+        var available = limit - KafkaInstanceApiUtils.getPartitionCountTotal(kafkaInstanceApi) + 1;
+        var max = Math.min(available, Environment.KAFKA_PARTITION_SCALING_MAX);
+        LOGGER.info("partition limit: {}; partitions available for topic '{}': {}; grow up to: {}",
+            limit, SCALING_TOPIC_NAME, available, max);
+
+        var benchmark = new PartitionScalingBenchmark(connection,
+            (topic, partitions) -> KafkaInstanceApiUtils.updateTopicPartition(kafkaInstanceApi, topic, partitions));
+
+        var workload = new PartitionScalingBenchmark.Workload(3, 3, 2000, 1024, SendRate.unlimited());
+        var counts = PartitionScalingBenchmark.partitionCounts(max);
+        try {
+            var points = bwait(benchmark.run(SCALING_TOPIC_NAME, counts, workload));
+            PartitionScalingBenchmark.writeReport("partition-scaling", points);
+
+            assertEquals(points.size(), counts.size());
+            assertTrue(points.stream().allMatch(p -> p.getErrors() == 0));
+        } finally {
+            KafkaInstanceApiUtils.deleteTopicAndWait(kafkaInstanceApi, SCALING_TOPIC_NAME);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCompactedTopicKeepsTheLastValueOfEachKey() {
+
+        // the shortest segment.ms allowed, so that the segments can be compacted while the test waits
+        var payload = new NewTopicInput()
+            .name(COMPACTED_TOPIC_NAME)
+            .settings(new TopicSettings()
+                .numPartitions(3)
+                .addConfigItem(newCE().key("cleanup.policy").value("compact"))
+                .addConfigItem(newCE().key("segment.ms").value(Long.toString(Duration.ofMinutes(10).toMillis()))));
+        LOGGER.info("create topic '{}' with cleanup.policy compact", COMPACTED_TOPIC_NAME);
+        KafkaInstanceApiUtils.applyTopic(kafkaInstanceApi, payload);
+
+        var workload = new CompactedTopicWorkload(connection);
+
+        try {
+            var result = bwait(workload.run(COMPACTED_TOPIC_NAME, 100_000, 500_000, 100,
+                Environment.KAFKA_COMPACTION_TIMEOUT, Duration.ofMinutes(1)));
+            CompactedTopicWorkload.writeReport("compacted-topic", result);
+
+            assertEquals(result.getMissing(), 0);
+            assertEquals(result.getUnexpected(), 0);
+        } finally {
+            kafkaInstanceApi.deleteTopic(COMPACTED_TOPIC_NAME);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testKeySkewByKeyDistribution() {
+
+        var partitions = 6;
+        var payload = new NewTopicInput()
+            .name(SKEW_TOPIC_NAME)
+            .settings(new TopicSettings().numPartitions(partitions));
+        LOGGER.info("create topic '{}' with {} partitions", SKEW_TOPIC_NAME, partitions);
+        KafkaInstanceApiUtils.applyTopic(kafkaInstanceApi, payload);
+
+        var benchmark = new KeySkewBenchmark(connection);
+
+        try {
+            var generators = List.of(
+                KeyGenerator.uniform(10_000),
+                KeyGenerator.zipfian(10_000, 1.1),
+                KeyGenerator.hotKey(10_000, 0.5));
+            var results = bwait(benchmark.run(SKEW_TOPIC_NAME, partitions, 3, generators, 10_000, 1024,
+                SendRate.messagesPerSecond(500)));
+            KeySkewBenchmark.writeReport("key-skew", results);
+
+            for (var result : results) {
+                assertEquals(result.getErrors(), 0);
+                assertEquals(result.getConsumed().getRecords(), result.getProduced().getRecords());
+            }
+
+            // the hot key concentrates the records on one partition
+            var uniform = results.get(0).getProduced();
+            var hotKey = results.get(2).getProduced();
+            assertTrue(hotKey.getCoefficientOfVariation() > uniform.getCoefficientOfVariation());
+        } finally {
+            kafkaInstanceApi.deleteTopic(SKEW_TOPIC_NAME);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testReplayRecordedWorkload() {
+
+        var producer = connection.producer(StringSerializer.class, StringSerializer.class);
+
+        // record 10 seconds of messages of random sizes
+        Files.createDirectories(Environment.LOG_DIR);
+        var path = Environment.LOG_DIR.resolve("replay-workload.trace");
+        try (var trace = new WorkloadTrace.Writer(path, false)) {
+            bwait(producer.sendAsync(new PayloadGenerator(100, 10_000).strings(2_000),
+                trace.recording(value -> KafkaProducerRecord.create(TOPIC_NAME, value)),
+                SendRate.messagesPerSecond(200)));
+        } finally {
+            bwait(producer.asyncClose());
+        }
+
+        var replay = new WorkloadReplay(connection);
+
+        var original = bwait(replay.replay(path, 1));
+        var faster = bwait(replay.replay(path, 4));
+        var fastest = bwait(replay.replay(path, Double.POSITIVE_INFINITY));
+
+        assertEquals(original.messages(), 2_000);
+        assertEquals(faster.messages(), 2_000);
+        assertEquals(fastest.messages(), 2_000);
+        assertEquals(original.bytes(), fastest.bytes());
+
+        // the replay follows the recorded schedule
+        assertTrue(original.elapsed().compareTo(faster.elapsed()) > 0);
+    }
+
+    @DataProvider(name = "workloadProfiles")
+    public Object[][] workloadProfiles() throws Exception {
+        var dir = Path.of(Objects.requireNonNull(getClass().getClassLoader().getResource(WORKLOAD_PROFILES_DIR)).toURI());
+        try (var files = Files.list(dir)) {
+            return files
+                .filter(p -> p.toString().endsWith(".yaml") || p.toString().endsWith(".json"))
+                .sorted()
+                .map(p -> new Object[] {p})
+                .toArray(Object[][]::new);
+        }
+    }
+
+    @Test(dataProvider = "workloadProfiles")
+    @SneakyThrows
+    public void testWorkloadProfile(Path path) {
+
+        var profile = WorkloadProfile.load(path);
+        LOGGER.info("create the topics of workload profile '{}'", profile.getName());
+        KafkaInstanceApiUtils.applyWorkloadTopics(kafkaInstanceApi, profile);
+
+        var runner = new WorkloadProfileRunner(connection);
+
+        try {
+            var results = bwait(runner.run(profile));
+            WorkloadProfileRunner.writeReport("workload-profile-" + profile.getName(), results);
+
+            for (var result : results) {
+                assertEquals(result.getSendErrors(), 0);
+                assertEquals(result.getMissing(), 0);
+            }
+        } finally {
+            KafkaInstanceApiUtils.deleteWorkloadTopics(kafkaInstanceApi, profile);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testConnectionScaling() {
+
+        var probe = new ConnectionScalingProbe(connection);
+
+        // ramp up to 40 new connections per second and up to 500 open connections
+        var points = bwait(probe.run(List.of(5d, 10d, 20d, 40d), Duration.ofSeconds(10), 500));
+        ConnectionScalingProbe.writeReport("connection-scaling", points);
+
+        LOGGER.info("sustainable connection rate: {} connections/s", ConnectionScalingProbe.sustainableRate(points));
+        assertEquals(points.get(0).failures(), 0);
+        assertTrue(ConnectionScalingProbe.sustainableRate(points) > 0);
+    }
+
+    private static ConfigEntry newCE() {
+        return new ConfigEntry();
+    }
+}
@@ -6,12 +6,21 @@ import com.openshift.cloud.api.kas.auth.models.TopicSettings;
 import com.openshift.cloud.api.kas.models.KafkaRequest;
 import com.openshift.cloud.api.kas.models.ServiceAccount;
 import io.managed.services.test.Environment;
+import io.managed.services.test.IsReady;
 import io.managed.services.test.TestBase;
 import io.managed.services.test.client.ApplicationServicesApi;
 import io.managed.services.test.client.exception.ApiGenericException;
+import io.managed.services.test.client.kafka.ConsumerLagSampler;
 import io.managed.services.test.client.kafka.KafkaAdmin;
 import io.managed.services.test.client.kafka.KafkaAuthMethod;
+import io.managed.services.test.client.kafka.KafkaCanary;
+import io.managed.services.test.client.kafka.KafkaConnectionSettings;
 import io.managed.services.test.client.kafka.KafkaConsumerClient;
+import io.managed.services.test.client.kafka.LatencyRecorder;
+import io.managed.services.test.client.kafka.PayloadGenerator;
+import io.managed.services.test.client.kafka.ProducerSweep;
+import io.managed.services.test.client.kafka.RebalanceBenchmark;
+import io.managed.services.test.client.kafka.SendRate;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApi;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiAccessUtils;
 import io.managed.services.test.client.kafkainstance.KafkaInstanceApiUtils;
@@ -25,11 +34,14 @@ import lombok.SneakyThrows;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.javatuples.Pair;
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
@@ -37,8 +49,14 @@ import java.util.stream.Collectors;
 
 import static io.managed.services.test.TestUtils.bwait;
 import static io.managed.services.test.TestUtils.message;
+import static io.managed.services.test.TestUtils.sleep;
+import static io.managed.services.test.TestUtils.waitFor;
+import static io.managed.services.test.client.kafka.KafkaMessagingUtils.MULTI_PRODUCER_GROUP_ID;
 import static io.managed.services.test.client.kafka.KafkaMessagingUtils.testTopic;
 import static io.managed.services.test.client.kafka.KafkaMessagingUtils.testTopicWithMultipleConsumers;
+import static io.managed.services.test.client.kafka.KafkaMessagingUtils.testTopicWithNProducers;
+import static io.managed.services.test.client.kafka.KafkaMessagingUtils.testTopicWithSequenceVerification;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -64,6 +82,7 @@ public class LongLiveKafkaInstanceTest extends TestBase {
     private static final String TOPIC_NAME = "test-topic";
     private static final String MULTI_PARTITION_TOPIC_NAME = "multi-partitions-topic";
     private static final String METRIC_TOPIC_NAME = "metric-test-topic";
+    private static final String CANARY_TOPIC_NAME = "mk-e2e-canary-topic";
 
     static final String TEST_CANARY_NAME = "__strimzi_canary";
     public static final String TEST_CANARY_GROUP = "canary-group";
@@ -75,6 +94,10 @@ public class LongLiveKafkaInstanceTest extends TestBase {
     private KafkaRequest kafka;
     private ServiceAccount serviceAccount;
 
+    private final Vertx vertx = Vertx.vertx();
+    private final Vertx canaryVertx = Vertx.vertx();
+    private KafkaCanary canary;
+
     @BeforeClass
     public void bootstrap() {
         assertNotNull(Environment.PRIMARY_USERNAME, "the PRIMARY_USERNAME env is null");
@@ -88,6 +111,31 @@ public class LongLiveKafkaInstanceTest extends TestBase {
         this.securityMgmtApi = apps.securityMgmt();
     }
 
+    @AfterClass(alwaysRun = true)
+    public void teardown() {
+
+        // stop the canary that has been running along the other tests
+        try {
+            if (canary != null) {
+                bwait(canary.asyncClose());
+            }
+        } catch (Throwable t) {
+            LOGGER.error("failed to close the canary: ", t);
+        }
+
+        try {
+            bwait(canaryVertx.close());
+        } catch (Throwable t) {
+            LOGGER.error("failed to close vertx: ", t);
+        }
+
+        try {
+            bwait(vertx.close());
+        } catch (Throwable t) {
+            LOGGER.error("failed to close vertx: ", t);
+        }
+    }
+
     @Test
     @SneakyThrows
     public void testThatTheLongLiveKafkaInstanceAlreadyExist() {
@@ -158,6 +206,7 @@ public class LongLiveKafkaInstanceTest extends TestBase {
         map.put(TOPIC_NAME, topic.apply(TOPIC_NAME, 1));
         map.put(METRIC_TOPIC_NAME, topic.apply(METRIC_TOPIC_NAME, 3));
         map.put(MULTI_PARTITION_TOPIC_NAME, topic.apply(MULTI_PARTITION_TOPIC_NAME, 3));
+        map.put(CANARY_TOPIC_NAME, topic.apply(CANARY_TOPIC_NAME, 3));
         return map;
     }
 
@@ -242,6 +291,42 @@ public class LongLiveKafkaInstanceTest extends TestBase {
     }
 
 
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    public void testCanary() throws Throwable {
+
+        var connection = new KafkaConnectionSettings(canaryVertx,
+            kafka.getBootstrapServerHost(),
+            serviceAccount.getClientId(),
+            serviceAccount.getClientSecret(),
+            KafkaAuthMethod.OAUTH);
+        canary = new KafkaCanary(connection,
+            CANARY_TOPIC_NAME,
+            Duration.ofSeconds(1),
+            Duration.ofMinutes(5));
+
+        LOGGER.info("start the canary on topic '{}'", CANARY_TOPIC_NAME);
+        bwait(canary.start());
+
+        // without a soak duration the canary keeps running along the other tests and it is stopped in the teardown
+        if (Environment.KAFKA_CANARY_SOAK_DURATION.isZero()) {
+            return;
+        }
+
+        LOGGER.info("soak the canary for {}", Environment.KAFKA_CANARY_SOAK_DURATION);
+        bwait(sleep(canaryVertx, Environment.KAFKA_CANARY_SOAK_DURATION));
+
+        var stats = canary.total();
+        bwait(canary.asyncClose());
+        canary = null;
+
+        assertTrue(stats.received() > 0, "the canary didn't receive any record");
+        assertEquals(stats.failed(), 0, message("the canary failed to send {} records", stats.failed()));
+    }
+
     @Test(dependsOnMethods = {
         "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
         "testRecreateLongLiveTopicsIfTheyDoNotExist",
@@ -258,10 +343,37 @@ public class LongLiveKafkaInstanceTest extends TestBase {
             bootstrapHost,
             clientID,
             clientSecret,
-                TOPIC_NAME,
+            TOPIC_NAME,
+            Duration.ofMinutes(3),
             10,
             7,
-            10));
+            10,
+            KafkaAuthMethod.OAUTH,
+            new LatencyRecorder()));
+    }
+
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    public void testProduceAndConsumeSequencedKafkaMessages() throws Throwable {
+
+        var bootstrapHost = kafka.getBootstrapServerHost();
+        var clientID = serviceAccount.getClientId();
+        var clientSecret = serviceAccount.getClientSecret();
+
+        LOGGER.info("test topic '{}' with sequence verification", MULTI_PARTITION_TOPIC_NAME);
+        bwait(testTopicWithSequenceVerification(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            MULTI_PARTITION_TOPIC_NAME,
+            Duration.ofMinutes(3),
+            10_000,
+            100,
+            1024,
+            KafkaAuthMethod.OAUTH));
     }
 
     @Test(dependsOnMethods = {
@@ -288,6 +400,142 @@ public class LongLiveKafkaInstanceTest extends TestBase {
             3));
     }
 
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    void testTopicWithThreePartitionsAndThreePartitionAffineProducers() throws Throwable {
+
+        var bootstrapHost = kafka.getBootstrapServerHost();
+        var clientID = serviceAccount.getClientId();
+        var clientSecret = serviceAccount.getClientSecret();
+
+        LOGGER.info("test topic '{}' with 3 partition affine producers and 3 consumers", MULTI_PARTITION_TOPIC_NAME);
+        bwait(testTopicWithNProducers(vertx,
+            bootstrapHost,
+            clientID,
+            clientSecret,
+            MULTI_PARTITION_TOPIC_NAME,
+            Duration.ofMinutes(2),
+            1024 * 2,
+            1024,
+            1024 * 4,
+            3,
+            3,
+            true));
+    }
+
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    void testConsumersKeepUpWithSustainedLoad() throws Throwable {
+
+        var bootstrapHost = kafka.getBootstrapServerHost();
+        var clientID = serviceAccount.getClientId();
+        var clientSecret = serviceAccount.getClientSecret();
+
+        var vertx = Vertx.vertx();
+        var group = MULTI_PRODUCER_GROUP_ID;
+        var messagesPerProducer = 20_000;
+        var producers = 3;
+        var maxCatchUp = Duration.ofSeconds(30);
+
+        var connection = new KafkaConnectionSettings(vertx, bootstrapHost, clientID, clientSecret, KafkaAuthMethod.OAUTH);
+        try (var sampler = new ConsumerLagSampler(connection, Duration.ofSeconds(1), 300).start()) {
+
+            LOGGER.info("sample the consumer lag while sending a sustained load to topic '{}'", MULTI_PARTITION_TOPIC_NAME);
+            bwait(testTopicWithNProducers(vertx,
+                bootstrapHost,
+                clientID,
+                clientSecret,
+                MULTI_PARTITION_TOPIC_NAME,
+                Duration.ofMinutes(5),
+                messagesPerProducer,
+                1024,
+                1024,
+                producers,
+                3,
+                true));
+
+            // the consumers have received all messages, so the lag must return to 0 as soon as their offsets are committed
+            var loadEnd = System.nanoTime();
+            IsReady<Void> caughtUp = last -> sampler.sampleAsync().map(__ -> Pair.with(sampler.lag(group) == 0, null));
+            bwait(waitFor(vertx, "consumer group lag to return to 0", Duration.ofSeconds(1), maxCatchUp, caughtUp));
+            var catchUp = Duration.ofNanos(System.nanoTime() - loadEnd);
+
+            LOGGER.info("consumer group '{}'; max lag: {}; consume rate: {}; produce rate: {}; caught up after: {}",
+                group, sampler.maxLag(group), sampler.consumeRate(group), sampler.produceRate(group), catchUp);
+
+            assertTrue(sampler.samples(group) > 1, "the consumer group has not been sampled");
+            assertEquals(sampler.lag(group), 0);
+            assertTrue(catchUp.compareTo(maxCatchUp) <= 0,
+                message("the consumer group caught up after {} instead of {}", catchUp, maxCatchUp));
+        } finally {
+            bwait(vertx.close());
+        }
+    }
+
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    void testConsumerGroupRebalanceLatency() throws Throwable {
+
+        var vertx = Vertx.vertx();
+        var benchmark = new RebalanceBenchmark(new KafkaConnectionSettings(vertx,
+            kafka.getBootstrapServerHost(),
+            serviceAccount.getClientId(),
+            serviceAccount.getClientSecret(),
+            KafkaAuthMethod.OAUTH));
+
+        try {
+            LOGGER.info("measure the rebalance latency of a group of 3 consumers on topic '{}'", MULTI_PARTITION_TOPIC_NAME);
+            var results = bwait(benchmark.compare(MULTI_PARTITION_TOPIC_NAME, 3));
+
+            // 3 joins and 2 leaves for each assignor
+            results.values().forEach(steps -> assertEquals(steps.size(), 5));
+        } finally {
+            bwait(vertx.close());
+        }
+    }
+
+    @Test(dependsOnMethods = {
+        "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
+        "testRecreateLongLiveTopicsIfTheyDoNotExist",
+        "testRecreateTheLongLiveServiceAccountIfItDoesNotExist"
+    })
+    void testProducerCompressionAndBatchingSweep() throws Throwable {
+
+        var vertx = Vertx.vertx();
+        var sweep = new ProducerSweep(new KafkaConnectionSettings(vertx,
+            kafka.getBootstrapServerHost(),
+            serviceAccount.getClientId(),
+            serviceAccount.getClientSecret(),
+            KafkaAuthMethod.OAUTH));
+
+        // a small grid to keep the test short, use ProducerSweep.Grid.defaults() for the full sweep
+        var grid = new ProducerSweep.Grid(List.of("none", "lz4"), List.of(16 * 1024), List.of(0, 5), List.of("all"));
+
+        try {
+            LOGGER.info("run the producer sweep on topic '{}'", MULTI_PARTITION_TOPIC_NAME);
+            var results = bwait(sweep.run(MULTI_PARTITION_TOPIC_NAME,
+                grid,
+                2_000,
+                PayloadGenerator.SizeDistribution.uniform(100, 1024),
+                SendRate.unlimited()));
+            ProducerSweep.writeReport("producer-sweep", results);
+
+            assertEquals(results.size(), grid.size());
+            results.forEach(r -> assertEquals(r.getErrors(), 0));
+        } finally {
+            bwait(vertx.close());
+        }
+    }
+
     @Test(dependsOnMethods = {
         "testRecreateTheLongLiveKafkaInstanceIfItDoesNotExist",
         "testRecreateLongLiveTopicsIfTheyDoNotExist",